@@ -0,0 +1,299 @@
+package io.r2.simplepemkeystore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.*;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.text.SimpleDateFormat;
+import java.util.Base64;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates certificates, keys and PEM bundles for the benchmarks in code, so they run offline
+ * and do not depend on test resources.
+ *
+ * Certificates are built with a minimal DER encoder (X.509 v3, optional basicConstraints extension),
+ * signed with SHA256withRSA or SHA256withECDSA depending on the issuer key.
+ */
+public final class BenchmarkFixtures {
+
+    /** bundle names used as benchmark parameters */
+    public static final String SMALL = "small";
+    public static final String CHAIN = "chain";
+    public static final String BUNDLE500 = "bundle500";
+
+    private static final AtomicLong serial = new AtomicLong(System.currentTimeMillis());
+
+    private static final long DAY = 24L * 3600 * 1000;
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * @param algorithm RSA (2048 bits) or EC (P-256)
+     * @return a new key pair
+     */
+    public static KeyPair keyPair(String algorithm) {
+        try {
+            KeyPairGenerator gen = KeyPairGenerator.getInstance(algorithm);
+            if ("EC".equals(algorithm)) {
+                gen.initialize(new ECGenParameterSpec("secp256r1"));
+            }
+            else {
+                gen.initialize(2048);
+            }
+            return gen.generateKeyPair();
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates a certificate valid from yesterday for a year
+     *
+     * @param subject subject common name
+     * @param publicKey the certified public key
+     * @param issuer issuer common name
+     * @param issuerKey the key used for signing
+     * @param ca true to add a CA basicConstraints extension
+     * @return the certificate
+     */
+    public static X509Certificate certificate(String subject, PublicKey publicKey, String issuer, PrivateKey issuerKey, boolean ca) {
+        try {
+            boolean ec = "EC".equals(issuerKey.getAlgorithm());
+            byte[] algorithm = ec
+                    ? seq(oid("1.2.840.10045.4.3.2"))
+                    : seq(oid("1.2.840.113549.1.1.11"), tlv(0x05));
+            long now = System.currentTimeMillis();
+
+            byte[] tbs = seq(
+                    tlv(0xa0, integer(BigInteger.valueOf(2))),
+                    integer(BigInteger.valueOf(serial.incrementAndGet())),
+                    algorithm,
+                    name(issuer),
+                    seq(time(new Date(now - DAY)), time(new Date(now + 365 * DAY))),
+                    name(subject),
+                    publicKey.getEncoded(),
+                    ca ? tlv(0xa3, seq(seq(oid("2.5.29.19"), tlv(0x01, (byte) 0xff), tlv(0x04, seq(tlv(0x01, (byte) 0xff))))))
+                       : new byte[0]
+            );
+
+            Signature sig = Signature.getInstance(ec ? "SHA256withECDSA" : "SHA256withRSA");
+            sig.initSign(issuerKey);
+            sig.update(tbs);
+            byte[] signature = sig.sign();
+            byte[] bits = new byte[signature.length + 1];
+            System.arraycopy(signature, 0, bits, 1, signature.length);
+
+            byte[] der = seq(tbs, algorithm, tlv(0x03, bits));
+            return (X509Certificate) CertificateFactory.getInstance("X.509")
+                    .generateCertificate(new ByteArrayInputStream(der));
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param subject common name
+     * @param keyPair the key pair, signs itself
+     * @return a self signed CA certificate
+     */
+    public static X509Certificate selfSigned(String subject, KeyPair keyPair) {
+        return certificate(subject, keyPair.getPublic(), subject, keyPair.getPrivate(), true);
+    }
+
+    /**
+     * @param type PEM block type, eg. CERTIFICATE
+     * @param der binary contents
+     * @return PEM encoded block
+     */
+    public static String pem(String type, byte[] der) {
+        return "-----BEGIN " + type + "-----\n"
+                + Base64.getMimeEncoder(64, new byte[] { '\n' }).encodeToString(der)
+                + "\n-----END " + type + "-----\n";
+    }
+
+    /**
+     * @param cert the certificate
+     * @return PEM encoded certificate
+     */
+    public static String pem(X509Certificate cert) {
+        try {
+            return pem("CERTIFICATE", cert.getEncoded());
+        }
+        catch (CertificateException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param key the private key
+     * @return PEM encoded PKCS#8 private key
+     */
+    public static String pem(PrivateKey key) {
+        return pem("PRIVATE KEY", key.getEncoded());
+    }
+
+    /**
+     * @param key RSA private key
+     * @return PEM encoded PKCS#1 private key (BEGIN RSA PRIVATE KEY)
+     */
+    public static String pkcs1Pem(PrivateKey key) {
+        return pem("RSA PRIVATE KEY", pkcs1(key));
+    }
+
+    /**
+     * Unwraps the PKCS#1 structure from a PKCS#8 encoded RSA key
+     *
+     * @param key RSA private key
+     * @return PKCS#1 encoded key
+     */
+    public static byte[] pkcs1(PrivateKey key) {
+        byte[] der = key.getEncoded();
+        // PrivateKeyInfo ::= SEQUENCE { version INTEGER, algorithm SEQUENCE, privateKey OCTET STRING }
+        int pos = contentStart(der, 0);
+        pos = skip(der, pos);
+        pos = skip(der, pos);
+        int start = contentStart(der, pos);
+        byte[] ret = new byte[skip(der, pos) - start];
+        System.arraycopy(der, start, ret, 0, ret.length);
+        return ret;
+    }
+
+    /**
+     * Creates one of the named PEM bundles, each call generates new certificates
+     *  small: self signed certificate and key
+     *  chain: server certificate, intermediate, root and key
+     *  bundle500: 500 certificates of the same issuer, without key
+     *
+     * @param name bundle name
+     * @return PEM contents
+     */
+    public static String bundle(String name) {
+        KeyPair root = keyPair("RSA");
+        X509Certificate rootCert = selfSigned("Benchmark Root", root);
+        switch (name) {
+            case SMALL:
+                return pem(rootCert) + pem(root.getPrivate());
+            case CHAIN:
+                KeyPair intermediate = keyPair("RSA");
+                KeyPair server = keyPair("RSA");
+                X509Certificate intermediateCert = certificate("Benchmark Intermediate", intermediate.getPublic(),
+                        "Benchmark Root", root.getPrivate(), true);
+                X509Certificate serverCert = certificate("server.benchmark", server.getPublic(),
+                        "Benchmark Intermediate", intermediate.getPrivate(), false);
+                return pem(serverCert) + pem(intermediateCert) + pem(rootCert) + pem(server.getPrivate());
+            case BUNDLE500:
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < 500; i++) {
+                    sb.append(pem(certificate("cert" + i + ".benchmark", root.getPublic(),
+                            "Benchmark Root", root.getPrivate(), false)));
+                }
+                return sb.toString();
+            default:
+                throw new IllegalArgumentException("Unknown bundle: " + name);
+        }
+    }
+
+    /**
+     * Writes contents to a temporary file, deleted on exit
+     *
+     * @param prefix file name prefix
+     * @param contents file contents
+     * @return path of the file
+     */
+    public static Path tempFile(String prefix, String contents) {
+        try {
+            Path file = Files.createTempFile(prefix, ".pem");
+            file.toFile().deleteOnExit();
+            Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+            return file;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // minimal DER encoding
+
+    private static byte[] tlv(int tag, byte... content) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length + 6);
+        out.write(tag);
+        int len = content.length;
+        if (len < 0x80) {
+            out.write(len);
+        }
+        else {
+            int bytes = (32 - Integer.numberOfLeadingZeros(len) + 7) / 8;
+            out.write(0x80 | bytes);
+            for (int i = bytes - 1; i >= 0; i--) out.write(len >>> (i * 8));
+        }
+        out.write(content, 0, content.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] seq(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] p : parts) out.write(p, 0, p.length);
+        return tlv(0x30, out.toByteArray());
+    }
+
+    private static byte[] integer(BigInteger value) {
+        return tlv(0x02, value.toByteArray());
+    }
+
+    private static byte[] oid(String oid) {
+        String[] parts = oid.split("\\.");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(Integer.parseInt(parts[0]) * 40 + Integer.parseInt(parts[1]));
+        for (int i = 2; i < parts.length; i++) {
+            long v = Long.parseLong(parts[i]);
+            int groups = Math.max(1, (64 - Long.numberOfLeadingZeros(v) + 6) / 7);
+            for (int g = groups - 1; g >= 0; g--) {
+                out.write((int) ((v >>> (g * 7)) & 0x7f) | (g > 0 ? 0x80 : 0));
+            }
+        }
+        return tlv(0x06, out.toByteArray());
+    }
+
+    private static byte[] name(String commonName) {
+        return seq(tlv(0x31, seq(oid("2.5.4.3"), tlv(0x0c, commonName.getBytes(StandardCharsets.UTF_8)))));
+    }
+
+    private static byte[] time(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyMMddHHmmss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return tlv(0x17, format.format(date).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static int contentStart(byte[] der, int pos) {
+        int len = der[pos + 1] & 0xff;
+        return pos + 2 + (len < 0x80 ? 0 : len & 0x7f);
+    }
+
+    private static int skip(byte[] der, int pos) {
+        int len = der[pos + 1] & 0xff;
+        int start = pos + 2;
+        if (len >= 0x80) {
+            int bytes = len & 0x7f;
+            len = 0;
+            for (int i = 0; i < bytes; i++) len = (len << 8) | (der[start + i] & 0xff);
+            start += bytes;
+        }
+        return start + len;
+    }
+
+}
@@ -0,0 +1,43 @@
+package io.r2.simplepemkeystore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup cost of parsing the reloading key store configuration: the in-tree reader compared to Jackson,
+ * which was used before and is only a benchmark dependency now.
+ *
+ * Each fork measures a single cold invocation, so class loading and initialization is included,
+ * which is what a key store loaded once at application startup pays.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(20)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+public class ConfigJsonStartupBenchmark {
+
+    private static final byte[] json = ("{\"refreshInterval\":300,\"certificates\":{" +
+            "\"letsencrypt\":[\"/etc/letsencrypt/live/mydomain.com/fullchain.pem\",\"/etc/letsencrypt/live/mydomain.com/privkey.pem\"]}," +
+            "\"refreshIntervals\":{\"letsencrypt\":60},\"snapshotFile\":\"/var/cache/keystore.snap\"," +
+            "\"expiryWarnings\":[604800,86400]}").getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public ReloadablePemKeyStoreConfig inTree() throws Exception {
+        return ReloadablePemKeyStoreConfig.fromJSON(new ByteArrayInputStream(json));
+    }
+
+    /**
+     * Jackson binds through the setters, as the configuration class has no annotations any more
+     */
+    @Benchmark
+    public ReloadablePemKeyStoreConfig jackson() throws Exception {
+        return new ObjectMapper().readValue(new ByteArrayInputStream(json), ReloadablePemKeyStoreConfig.class);
+    }
+
+}
@@ -0,0 +1,111 @@
+package io.r2.simplepemkeystore;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.security.auth.x500.X500Principal;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.Principal;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Alias selection in ExpiringCacheKeyManager with large synthetic key stores
+ *
+ * The key store holds RSA and EC entries alternately, signed by one of four issuers. The state is shared,
+ * so running with more threads (-t 8, -t 64) measures contention on the server alias cache as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ExpiringCacheKeyManagerBenchmark {
+
+    /** number of distinct certificates, these are shared among aliases */
+    private static final int CERTIFICATE_POOL = 1024;
+
+    private static final int ISSUERS = 4;
+
+    @Param({ "1", "100", "10000", "100000" })
+    public int aliases;
+
+    @Param({ "RSA", "EC" })
+    public String keyType;
+
+    /** query with issuer list (matching the first issuer) or without */
+    @Param({ "false", "true" })
+    public boolean withIssuers;
+
+    private X509ExtendedKeyManager keyManager;
+    private String[] aliasNames;
+    private String[] keyTypes;
+    private Principal[] issuers;
+
+    @Setup
+    public void setup() throws Exception {
+        Security.addProvider(new SimplePemKeyStoreProvider());
+
+        KeyPair[] issuerKeys = new KeyPair[ISSUERS];
+        X500Principal[] issuerNames = new X500Principal[ISSUERS];
+        for (int i = 0; i < ISSUERS; i++) {
+            issuerKeys[i] = BenchmarkFixtures.keyPair("EC");
+            issuerNames[i] = new X500Principal("CN=Benchmark Issuer " + i);
+        }
+        KeyPair rsa = BenchmarkFixtures.keyPair("RSA");
+        KeyPair ec = BenchmarkFixtures.keyPair("EC");
+
+        int poolSize = Math.min(aliases, CERTIFICATE_POOL);
+        X509Certificate[][] pool = new X509Certificate[poolSize][];
+        for (int i = 0; i < poolSize; i++) {
+            KeyPair leaf = i % 2 == 0 ? rsa : ec;
+            int issuer = (i / 2) % ISSUERS;
+            pool[i] = new X509Certificate[] {
+                    BenchmarkFixtures.certificate("leaf" + i + ".benchmark", leaf.getPublic(),
+                            "Benchmark Issuer " + issuer, issuerKeys[issuer].getPrivate(), false)
+            };
+        }
+
+        KeyStore ks = InMemoryKeyStore.create();
+        aliasNames = new String[aliases];
+        for (int i = 0; i < aliases; i++) {
+            aliasNames[i] = "alias" + i;
+            Certificate[] chain = pool[i % poolSize];
+            ks.setKeyEntry(aliasNames[i], i % 2 == 0 ? rsa.getPrivate() : ec.getPrivate(), new char[0], chain);
+        }
+
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance("simplepemreload");
+        kmf.init(ExpiringCacheKeyManagerParameters.forKeyStore(ks, new char[0]));
+        keyManager = (X509ExtendedKeyManager) kmf.getKeyManagers()[0];
+
+        keyTypes = new String[] { keyType };
+        issuers = withIssuers ? new Principal[] { issuerNames[0] } : null;
+    }
+
+    @Benchmark
+    public String chooseServerAlias() {
+        return keyManager.chooseServerAlias(keyType, issuers, null);
+    }
+
+    @Benchmark
+    public String chooseEngineServerAlias() {
+        return keyManager.chooseEngineServerAlias(keyType, issuers, null);
+    }
+
+    @Benchmark
+    public String chooseClientAlias() {
+        return keyManager.chooseClientAlias(keyTypes, issuers, null);
+    }
+
+    @Benchmark
+    public X509Certificate[] getCertificateChain() {
+        return keyManager.getCertificateChain(aliasNames[ThreadLocalRandom.current().nextInt(aliasNames.length)]);
+    }
+
+}
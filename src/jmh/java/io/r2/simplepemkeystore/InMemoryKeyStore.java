@@ -0,0 +1,147 @@
+package io.r2.simplepemkeystore;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.*;
+import java.security.cert.Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Minimal in-memory key store for building large synthetic key stores in benchmarks
+ * Keys are stored as they are, the password is ignored, so adding 100k entries stays cheap.
+ */
+public final class InMemoryKeyStore {
+
+    private static final Provider provider = new Provider("InMemoryBenchmark", "1.0", "In-memory benchmark key store") {
+    };
+
+    private InMemoryKeyStore() {
+    }
+
+    /**
+     * @return a new, empty and loaded key store
+     */
+    public static KeyStore create() {
+        KeyStore ks = new KeyStore(new Spi(), provider, "inmemory") {
+        };
+        try {
+            ks.load(null, null);
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return ks;
+    }
+
+    private static final class Entry {
+        final Key key;
+        final Certificate[] chain;
+        final Date creationDate = new Date();
+
+        Entry(Key key, Certificate[] chain) {
+            this.key = key;
+            this.chain = chain;
+        }
+    }
+
+    private static final class Spi extends KeyStoreSpi {
+
+        private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+        @Override
+        public Key engineGetKey(String alias, char[] password) {
+            Entry e = entries.get(alias);
+            return e == null ? null : e.key;
+        }
+
+        @Override
+        public Certificate[] engineGetCertificateChain(String alias) {
+            Entry e = entries.get(alias);
+            return e == null || e.chain == null ? null : e.chain.clone();
+        }
+
+        @Override
+        public Certificate engineGetCertificate(String alias) {
+            Entry e = entries.get(alias);
+            return e == null || e.chain == null || e.chain.length == 0 ? null : e.chain[0];
+        }
+
+        @Override
+        public Date engineGetCreationDate(String alias) {
+            Entry e = entries.get(alias);
+            return e == null ? null : e.creationDate;
+        }
+
+        @Override
+        public void engineSetKeyEntry(String alias, Key key, char[] password, Certificate[] chain) {
+            entries.put(alias, new Entry(key, chain));
+        }
+
+        @Override
+        public void engineSetKeyEntry(String alias, byte[] key, Certificate[] chain) throws KeyStoreException {
+            throw new KeyStoreException("Encoded keys are not supported");
+        }
+
+        @Override
+        public void engineSetCertificateEntry(String alias, Certificate cert) {
+            entries.put(alias, new Entry(null, new Certificate[] { cert }));
+        }
+
+        @Override
+        public void engineDeleteEntry(String alias) {
+            entries.remove(alias);
+        }
+
+        @Override
+        public Enumeration<String> engineAliases() {
+            return Collections.enumeration(entries.keySet());
+        }
+
+        @Override
+        public boolean engineContainsAlias(String alias) {
+            return entries.containsKey(alias);
+        }
+
+        @Override
+        public int engineSize() {
+            return entries.size();
+        }
+
+        @Override
+        public boolean engineIsKeyEntry(String alias) {
+            Entry e = entries.get(alias);
+            return e != null && e.key != null;
+        }
+
+        @Override
+        public boolean engineIsCertificateEntry(String alias) {
+            Entry e = entries.get(alias);
+            return e != null && e.key == null;
+        }
+
+        @Override
+        public String engineGetCertificateAlias(Certificate cert) {
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                if (e.getValue().chain != null && e.getValue().chain.length > 0 && e.getValue().chain[0].equals(cert)) {
+                    return e.getKey();
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void engineStore(OutputStream stream, char[] password) {
+            throw new UnsupportedOperationException("Store is not supported");
+        }
+
+        @Override
+        public void engineLoad(InputStream stream, char[] password) {
+            // always empty
+        }
+    }
+
+}
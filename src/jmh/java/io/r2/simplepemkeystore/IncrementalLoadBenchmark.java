@@ -0,0 +1,77 @@
+package io.r2.simplepemkeystore;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a multi-alias PEM source again into the same simplepem key store: unchanged entries are only framed
+ * and hashed, so reloading with one changed alias should cost about the same as an unchanged reload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class IncrementalLoadBenchmark {
+
+    @Param({ "100", "1000" })
+    public int aliases;
+
+    /** two versions of the source, differing in the certificate of the first alias */
+    private byte[][] versions;
+    private int next;
+    private KeyStore keyStore;
+
+    @Setup
+    public void setup() throws Exception {
+        Security.addProvider(new SimplePemKeyStoreProvider());
+        KeyPair root = BenchmarkFixtures.keyPair("RSA");
+        KeyPair server = BenchmarkFixtures.keyPair("RSA");
+        String key = BenchmarkFixtures.pem(server.getPrivate());
+
+        StringBuilder rest = new StringBuilder();
+        for (int i = 1; i < aliases; i++) {
+            rest.append("alias: a").append(i).append('\n')
+                    .append(BenchmarkFixtures.pem(BenchmarkFixtures.certificate("a" + i + ".benchmark", server.getPublic(),
+                            "Benchmark Root", root.getPrivate(), false)))
+                    .append(key);
+        }
+        versions = new byte[2][];
+        for (int v = 0; v < 2; v++) {
+            versions[v] = ("alias: a0\n" +
+                    BenchmarkFixtures.pem(BenchmarkFixtures.certificate("a0-v" + v + ".benchmark", server.getPublic(),
+                            "Benchmark Root", root.getPrivate(), false)) +
+                    key + rest).getBytes(StandardCharsets.UTF_8);
+        }
+        keyStore = KeyStore.getInstance("simplepem");
+        keyStore.load(new ByteArrayInputStream(versions[0]), new char[0]);
+    }
+
+    @Benchmark
+    public KeyStore fullLoad() throws Exception {
+        KeyStore ks = KeyStore.getInstance("simplepem");
+        ks.load(new ByteArrayInputStream(versions[0]), new char[0]);
+        return ks;
+    }
+
+    @Benchmark
+    public KeyStore reloadUnchanged() throws Exception {
+        keyStore.load(new ByteArrayInputStream(versions[next]), new char[0]);
+        return keyStore;
+    }
+
+    @Benchmark
+    public KeyStore reloadOneChanged() throws Exception {
+        next ^= 1;
+        keyStore.load(new ByteArrayInputStream(versions[next]), new char[0]);
+        return keyStore;
+    }
+
+}
@@ -0,0 +1,80 @@
+package io.r2.simplepemkeystore;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full KeyStore.load for the simplepem and simplepemreload key stores
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class KeyStoreLoadBenchmark {
+
+    @Param({ BenchmarkFixtures.SMALL, BenchmarkFixtures.CHAIN })
+    public String bundle;
+
+    private byte[] pem;
+    private ReloadablePemKeyStoreConfig config;
+    private KeyStore loaded;
+
+    @Setup
+    public void setup() {
+        Security.addProvider(new SimplePemKeyStoreProvider());
+        String contents = BenchmarkFixtures.bundle(bundle);
+        pem = contents.getBytes(StandardCharsets.UTF_8);
+        Path file = BenchmarkFixtures.tempFile("bench-keystore", contents);
+        config = new ReloadablePemKeyStoreConfig()
+                .addCertificate("server", new String[] { file.toString() });
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public KeyStore loadSimplePem() throws Exception {
+        KeyStore ks = KeyStore.getInstance("simplepem");
+        ks.load(new MultiFileConcatSource().alias("server").addBytes(pem).build(), new char[0]);
+        return ks;
+    }
+
+    /**
+     * Key stores with the same configuration share their engine, so each one is released after the invocation,
+     * and the next one loads the files again. Measured with single shot invocations, as every load starts the
+     * reload threads.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 20)
+    @Measurement(iterations = 50)
+    public KeyStore loadSimplePemReload() throws Exception {
+        loaded = KeyStore.getInstance("simplepemreload");
+        loaded.load(config.asInputStream(), new char[0]);
+        return loaded;
+    }
+
+    /**
+     * Same as loadSimplePemReload, but the configuration object is passed directly, without JSON
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 20)
+    @Measurement(iterations = 50)
+    public KeyStore loadSimplePemReloadDirect() throws Exception {
+        loaded = KeyStore.getInstance("simplepemreload");
+        loaded.load(config);
+        return loaded;
+    }
+
+    @TearDown(Level.Invocation)
+    public void release() throws Exception {
+        if (loaded != null) loaded.load(null);
+        loaded = null;
+    }
+
+}
@@ -0,0 +1,64 @@
+package io.r2.simplepemkeystore;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Initial load of a reloading key store with many aliases, each in its own file, with 1 to 8 reload threads
+ * The load is one refresh cycle, spread over the reload threads and the loading thread.
+ * Compare the thread counts on a machine with several cores, or with the files on network storage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ReloadCycleBenchmark {
+
+    @Param({ "1000" })
+    public int aliases;
+
+    @Param({ "1", "2", "4", "8" })
+    public int reloadThreads;
+
+    private ReloadablePemKeyStoreConfig config;
+    private KeyStore loaded;
+
+    @Setup
+    public void setup() {
+        Security.addProvider(new SimplePemKeyStoreProvider());
+        KeyPair root = BenchmarkFixtures.keyPair("RSA");
+        KeyPair server = BenchmarkFixtures.keyPair("RSA");
+        String key = BenchmarkFixtures.pem(server.getPrivate());
+
+        config = new ReloadablePemKeyStoreConfig().withReloadThreads(reloadThreads);
+        for (int i = 0; i < aliases; i++) {
+            Path file = BenchmarkFixtures.tempFile("bench-cycle", BenchmarkFixtures.pem(BenchmarkFixtures.certificate(
+                    "a" + i + ".benchmark", server.getPublic(), "Benchmark Root", root.getPrivate(), false)) + key);
+            config.addCertificate("a" + i, new String[] { file.toString() });
+        }
+    }
+
+    @Benchmark
+    public KeyStore initialLoad() throws Exception {
+        loaded = KeyStore.getInstance("simplepemreload");
+        loaded.load(config);
+        return loaded;
+    }
+
+    /**
+     * Releases the engine, so the next invocation loads all files again
+     */
+    @TearDown(Level.Invocation)
+    public void release() throws Exception {
+        if (loaded != null) loaded.load(null);
+        loaded = null;
+    }
+
+}
@@ -0,0 +1,123 @@
+package io.r2.simplepemkeystore;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full TLS handshakes over in-memory SSLEngine pairs (see InMemoryTlsHandshake in the tests)
+ *
+ * Variants:
+ *  simplepemreload: simplepemreload key store and key manager
+ *  simplepemreload-rotating: same, while the certificate files are replaced every second
+ *  SunX509-PKCS12: the JDK key manager over a PKCS12 key store, as baseline
+ *
+ * Throughput gives handshakes per second, sample time gives the latency histogram (percentiles).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TlsHandshakeBenchmark {
+
+    @Param({ "simplepemreload", "simplepemreload-rotating", "SunX509-PKCS12" })
+    public String variant;
+
+    private InMemoryTlsHandshake harness;
+    private Thread rotator;
+
+    @Setup
+    public void setup() throws Exception {
+        Security.addProvider(new SimplePemKeyStoreProvider());
+
+        KeyPair root = BenchmarkFixtures.keyPair("RSA");
+        KeyPair server = BenchmarkFixtures.keyPair("RSA");
+        X509Certificate rootCert = BenchmarkFixtures.selfSigned("Benchmark Root", root);
+        X509Certificate serverCert = BenchmarkFixtures.certificate("server.benchmark", server.getPublic(),
+                "Benchmark Root", root.getPrivate(), false);
+        String pem = BenchmarkFixtures.pem(serverCert) + BenchmarkFixtures.pem(rootCert)
+                + BenchmarkFixtures.pem(server.getPrivate());
+
+        KeyManagerFactory kmf;
+        if (variant.startsWith("simplepemreload")) {
+            Path file = BenchmarkFixtures.tempFile("bench-tls", pem);
+            KeyStore ks = KeyStore.getInstance("simplepemreload");
+            ks.load(new ReloadablePemKeyStoreConfig()
+                            .addCertificate("server", new String[] { file.toString() })
+                            .withRefreshInterval(ReloadablePemKeyStoreConfig.MIN_REFRESH_INTERVAL)
+                            .asInputStream(),
+                    new char[0]);
+            kmf = KeyManagerFactory.getInstance("simplepemreload");
+            kmf.init(ExpiringCacheKeyManagerParameters.forKeyStore(ks).withRevalidation(5));
+
+            if (variant.endsWith("-rotating")) {
+                startRotation(file, pem);
+            }
+        }
+        else {
+            KeyStore ks = KeyStore.getInstance("PKCS12");
+            ks.load(null, null);
+            ks.setKeyEntry("server", server.getPrivate(), new char[0], new Certificate[] { serverCert, rootCert });
+            kmf = KeyManagerFactory.getInstance("SunX509");
+            kmf.init(ks, new char[0]);
+        }
+
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(kmf.getKeyManagers(), null, null);
+        harness = new InMemoryTlsHandshake(ctx, HttpsBaseFunctions.createTrustAllContext());
+    }
+
+    /**
+     * Replaces the certificate file every second, alternating between two generated certificates
+     */
+    private void startRotation(Path file, String pem) {
+        KeyPair other = BenchmarkFixtures.keyPair("RSA");
+        String[] contents = {
+                pem,
+                BenchmarkFixtures.pem(BenchmarkFixtures.selfSigned("rotated.benchmark", other))
+                        + BenchmarkFixtures.pem(other.getPrivate())
+        };
+        rotator = new Thread(() -> {
+            try {
+                for (int i = 1; !Thread.currentThread().isInterrupted(); i++) {
+                    Thread.sleep(1000);
+                    Path tmp = Files.createTempFile(file.getParent(), "bench-tls", ".tmp");
+                    Files.write(tmp, contents[i % 2].getBytes(StandardCharsets.UTF_8));
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            catch (InterruptedException e) {
+                // stopped
+            }
+            catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }, "bench-rotator");
+        rotator.setDaemon(true);
+        rotator.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (rotator != null) rotator.interrupt();
+    }
+
+    @Benchmark
+    public Certificate[] handshake() throws Exception {
+        return harness.handshake();
+    }
+
+}
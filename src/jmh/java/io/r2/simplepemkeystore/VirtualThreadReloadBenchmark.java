@@ -0,0 +1,111 @@
+package io.r2.simplepemkeystore;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reload cycles of a reloading key store with 10k aliases, each in its own file, on platform and on virtual threads
+ *
+ * Needs Java 21 with the Java 21 layer of the multi-release jar on the classpath (as the jmh task runs it), the
+ * platform case sets the io.r2.simplepemkeystore.platformThreads property, so it runs on the default reload
+ * threads, as the Java 9 layer does. initialLoad is the first cycle, which parses every file, forcedReload is the
+ * cycle of a JMX reload of a loaded key store, which reads and parses the files again.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class VirtualThreadReloadBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Fixture {
+
+        @Param({ "10000" })
+        public int aliases;
+
+        @Param({ "platform", "virtual" })
+        public String threads;
+
+        ReloadablePemKeyStoreConfig config;
+
+        @Setup
+        public void setup() {
+            // read when the reload engine starts, each parameter runs in its own fork
+            System.setProperty("io.r2.simplepemkeystore.platformThreads", String.valueOf("platform".equals(threads)));
+            Security.addProvider(new SimplePemKeyStoreProvider());
+            KeyPair root = BenchmarkFixtures.keyPair("RSA");
+            KeyPair server = BenchmarkFixtures.keyPair("RSA");
+            String key = BenchmarkFixtures.pem(server.getPrivate());
+
+            config = new ReloadablePemKeyStoreConfig();
+            for (int i = 0; i < aliases; i++) {
+                Path file = BenchmarkFixtures.tempFile("bench-virtual", BenchmarkFixtures.pem(BenchmarkFixtures.certificate(
+                        "a" + i + ".benchmark", server.getPublic(), "Benchmark Root", root.getPrivate(), false)) + key);
+                config.addCertificate("a" + i, new String[] { file.toString() });
+            }
+        }
+    }
+
+    /**
+     * A key store loaded for each invocation
+     */
+    @State(Scope.Benchmark)
+    public static class Cold {
+        KeyStore loaded;
+
+        /**
+         * Releases the engine, so the next invocation loads all files again
+         */
+        @TearDown(Level.Invocation)
+        public void release() throws Exception {
+            if (loaded != null) loaded.load(null);
+            loaded = null;
+        }
+    }
+
+    /**
+     * A key store loaded once, with its JMX name
+     */
+    @State(Scope.Benchmark)
+    public static class Loaded {
+        KeyStore keyStore;
+        MBeanServer server;
+        ObjectName name;
+
+        @Setup
+        public void setup(Fixture fixture) throws Exception {
+            keyStore = KeyStore.getInstance("simplepemreload");
+            keyStore.load(fixture.config);
+            server = ManagementFactory.getPlatformMBeanServer();
+            name = server.queryNames(new ObjectName("io.r2.simplepemkeystore:type=ReloadablePemKeyStore,*"), null)
+                    .iterator().next();
+        }
+
+        @TearDown
+        public void release() throws Exception {
+            keyStore.load(null);
+        }
+    }
+
+    @Benchmark
+    public KeyStore initialLoad(Fixture fixture, Cold cold) throws Exception {
+        cold.loaded = KeyStore.getInstance("simplepemreload");
+        cold.loaded.load(fixture.config);
+        return cold.loaded;
+    }
+
+    @Benchmark
+    public Object forcedReload(Loaded loaded) throws Exception {
+        return loaded.server.invoke(loaded.name, "reload", null, null);
+    }
+
+}
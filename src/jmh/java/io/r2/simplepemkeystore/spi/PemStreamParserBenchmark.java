@@ -0,0 +1,37 @@
+package io.r2.simplepemkeystore.spi;
+
+import io.r2.simplepemkeystore.BenchmarkFixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PEM parsing throughput over bundles of different sizes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PemStreamParserBenchmark {
+
+    @Param({ BenchmarkFixtures.SMALL, BenchmarkFixtures.CHAIN, BenchmarkFixtures.BUNDLE500 })
+    public String bundle;
+
+    private byte[] contents;
+
+    @Setup
+    public void setup() {
+        contents = BenchmarkFixtures.bundle(bundle).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<PemCertKey> parseCertificateList() throws Exception {
+        return PemStreamParser.parseCertificateList(new ByteArrayInputStream(contents));
+    }
+
+}
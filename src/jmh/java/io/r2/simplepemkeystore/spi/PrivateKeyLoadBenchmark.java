@@ -0,0 +1,71 @@
+package io.r2.simplepemkeystore.spi;
+
+import io.r2.simplepemkeystore.BenchmarkFixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RSA private key loading, PKCS#1 (through PKCS1Converter) compared to PKCS#8
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrivateKeyLoadBenchmark {
+
+    private byte[] pkcs1;
+    private byte[] pkcs8;
+    private byte[] pkcs1Pem;
+    private byte[] pkcs8Pem;
+    private KeyFactory keyFactory;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyPair keyPair = BenchmarkFixtures.keyPair("RSA");
+        X509Certificate cert = BenchmarkFixtures.selfSigned("key.benchmark", keyPair);
+        pkcs1 = BenchmarkFixtures.pkcs1(keyPair.getPrivate());
+        pkcs8 = keyPair.getPrivate().getEncoded();
+        pkcs1Pem = (BenchmarkFixtures.pem(cert) + BenchmarkFixtures.pkcs1Pem(keyPair.getPrivate()))
+                .getBytes(StandardCharsets.UTF_8);
+        pkcs8Pem = (BenchmarkFixtures.pem(cert) + BenchmarkFixtures.pem(keyPair.getPrivate()))
+                .getBytes(StandardCharsets.UTF_8);
+        keyFactory = KeyFactory.getInstance("RSA");
+    }
+
+    @Benchmark
+    public byte[] convertPkcs1() {
+        return PKCS1Converter.toPKCS8(pkcs1);
+    }
+
+    @Benchmark
+    public PrivateKey decodePkcs1() throws Exception {
+        return keyFactory.generatePrivate(new PKCS8EncodedKeySpec(PKCS1Converter.toPKCS8(pkcs1)));
+    }
+
+    @Benchmark
+    public PrivateKey decodePkcs8() throws Exception {
+        return keyFactory.generatePrivate(new PKCS8EncodedKeySpec(pkcs8));
+    }
+
+    @Benchmark
+    public Key parsePkcs1() throws Exception {
+        return PemStreamParser.parseCertificate(new ByteArrayInputStream(pkcs1Pem)).getPrivateKey();
+    }
+
+    @Benchmark
+    public Key parsePkcs8() throws Exception {
+        return PemStreamParser.parseCertificate(new ByteArrayInputStream(pkcs8Pem)).getPrivateKey();
+    }
+
+}
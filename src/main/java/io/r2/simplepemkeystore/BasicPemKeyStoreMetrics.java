@@ -0,0 +1,132 @@
+package io.r2.simplepemkeystore;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics implementation keeping counters and latency histograms in memory, to be polled by a metrics exporter
+ *
+ * The same instance can be shared by several key stores and key managers.
+ */
+public class BasicPemKeyStoreMetrics implements PemKeyStoreMetrics {
+
+    private final Map<String, LongAdder> selectionsByAlias = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> selectionsByKeyType = new ConcurrentHashMap<>();
+    private final LatencyHistogram selectionLatency = new LatencyHistogram();
+
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder reloadFailures = new LongAdder();
+    private final LongAdder parsedBytes = new LongAdder();
+    private final LatencyHistogram reloadDuration = new LatencyHistogram();
+
+    private final LongAdder cyclesSkipped = new LongAdder();
+    private final LatencyHistogram cycleDuration = new LatencyHistogram();
+
+    @Override
+    public void aliasSelected(String alias, String keyType, long nanos) {
+        counter(selectionsByAlias, alias).increment();
+        counter(selectionsByKeyType, keyType).increment();
+        selectionLatency.record(nanos);
+    }
+
+    @Override
+    public void reloaded(String alias, long nanos, long parsedBytes) {
+        reloads.increment();
+        this.parsedBytes.add(parsedBytes);
+        reloadDuration.record(nanos);
+    }
+
+    @Override
+    public void reloadFailed(String alias, Throwable failure) {
+        reloadFailures.increment();
+    }
+
+    @Override
+    public void cycleCompleted(int aliases, int reloaded, long nanos) {
+        cycleDuration.record(nanos);
+    }
+
+    @Override
+    public void cycleSkipped() {
+        cyclesSkipped.increment();
+    }
+
+    private static LongAdder counter(Map<String, LongAdder> map, String key) {
+        LongAdder count = map.get(key);
+        return count != null ? count : map.computeIfAbsent(key, k -> new LongAdder());
+    }
+
+    private static Map<String, Long> snapshot(Map<String, LongAdder> map) {
+        Map<String, Long> ret = new HashMap<>();
+        for (Map.Entry<String, LongAdder> e : map.entrySet()) {
+            ret.put(e.getKey(), e.getValue().sum());
+        }
+        return Collections.unmodifiableMap(ret);
+    }
+
+    /**
+     * @return number of selections per alias
+     */
+    public Map<String, Long> getSelectionsByAlias() {
+        return snapshot(selectionsByAlias);
+    }
+
+    /**
+     * @return number of selections per requested key type
+     */
+    public Map<String, Long> getSelectionsByKeyType() {
+        return snapshot(selectionsByKeyType);
+    }
+
+    /**
+     * @return time spent choosing aliases, in nanoseconds
+     */
+    public LatencyHistogram getSelectionLatency() {
+        return selectionLatency;
+    }
+
+    /**
+     * @return number of successful (re)loads
+     */
+    public long getReloads() {
+        return reloads.sum();
+    }
+
+    /**
+     * @return number of failed reloads
+     */
+    public long getReloadFailures() {
+        return reloadFailures.sum();
+    }
+
+    /**
+     * @return total number of bytes parsed by reloads
+     */
+    public long getParsedBytes() {
+        return parsedBytes.sum();
+    }
+
+    /**
+     * @return duration of the reloads, in nanoseconds
+     */
+    public LatencyHistogram getReloadDuration() {
+        return reloadDuration;
+    }
+
+    /**
+     * @return duration of the refresh cycles, in nanoseconds
+     */
+    public LatencyHistogram getCycleDuration() {
+        return cycleDuration;
+    }
+
+    /**
+     * @return number of refresh cycles skipped, as the previous cycle was still running
+     */
+    public long getCyclesSkipped() {
+        return cyclesSkipped.sum();
+    }
+}
@@ -0,0 +1,22 @@
+package io.r2.simplepemkeystore;
+
+import java.security.cert.X509Certificate;
+
+/**
+ * Callback of the reloading key store when a certificate approaches its expiration
+ *
+ * Called once for each configured warning threshold the certificate crosses (see
+ * ReloadablePemKeyStoreConfig.withExpiryWarnings), if the certificate is not replaced in time.
+ * After a renewal, the new certificate is warned about again. Called on the refresh thread, so it must not block.
+ */
+@FunctionalInterface
+public interface CertificateExpiryListener {
+
+    /**
+     * @param alias the alias in the key store
+     * @param certificate the expiring certificate
+     * @param threshold the crossed threshold, in seconds before expiration
+     */
+    void expiring(String alias, X509Certificate certificate, long threshold);
+
+}
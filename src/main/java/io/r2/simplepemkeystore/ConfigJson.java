@@ -0,0 +1,398 @@
+package io.r2.simplepemkeystore;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming JSON reader and writer for ReloadablePemKeyStoreConfig, covering exactly the configuration schema
+ *
+ * The output is the same as the Jackson based serialization used earlier: fields in declaration order, optional
+ * fields omitted when empty or default, maps in iteration order, and the same string escaping. Input is UTF-8,
+ * numbers may also be given as strings, null for a number means 0, unknown properties are rejected.
+ * Note: intentionally defined as package access only
+ */
+final class ConfigJson {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final Reader in;
+    /** current character, -1 at end of input */
+    private int c;
+    /** position of the current character, for error messages */
+    private long pos = -1;
+
+    private ConfigJson(Reader in) throws IOException {
+        this.in = in;
+        next();
+        if (c == '\uFEFF') next();
+    }
+
+    /**
+     * Parses a configuration
+     *
+     * @param stream UTF-8 JSON input
+     * @return the configuration
+     * @throws IOException on input or format error
+     */
+    static ReloadablePemKeyStoreConfig read(InputStream stream) throws IOException {
+        ConfigJson json = new ConfigJson(new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8)));
+        return json.readConfig();
+    }
+
+    /**
+     * Writes a configuration
+     *
+     * @param config the configuration
+     * @return JSON string
+     */
+    static String write(ReloadablePemKeyStoreConfig config) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append('{');
+        field(sb, "refreshInterval", true).append(config.getRefreshInterval());
+        field(sb, "certificates", false);
+        writeFiles(sb, config.getCertificates());
+        if (config.getCrls() != null && !config.getCrls().isEmpty()) {
+            field(sb, "crls", false);
+            writeFiles(sb, config.getCrls());
+        }
+        if (config.getRefreshIntervals() != null && !config.getRefreshIntervals().isEmpty()) {
+            field(sb, "refreshIntervals", false).append('{');
+            boolean first = true;
+            for (Map.Entry<String, Long> e : config.getRefreshIntervals().entrySet()) {
+                field(sb, e.getKey(), first).append(e.getValue());
+                first = false;
+            }
+            sb.append('}');
+        }
+        if (config.getReloadThreads() != 0) {
+            field(sb, "reloadThreads", false).append(config.getReloadThreads());
+        }
+        if (config.getSnapshotFile() != null) {
+            writeString(field(sb, "snapshotFile", false), config.getSnapshotFile());
+        }
+        if (config.getManifestFile() != null) {
+            writeString(field(sb, "manifestFile", false), config.getManifestFile());
+        }
+        if (config.getMaxRefreshInterval() != 0) {
+            field(sb, "maxRefreshInterval", false).append(config.getMaxRefreshInterval());
+        }
+        if (config.getRenewalWindow() != 0) {
+            field(sb, "renewalWindow", false).append(config.getRenewalWindow());
+        }
+        if (config.getExpiryWarnings() != null && config.getExpiryWarnings().length > 0) {
+            field(sb, "expiryWarnings", false).append('[');
+            for (int i = 0; i < config.getExpiryWarnings().length; i++) {
+                if (i > 0) sb.append(',');
+                sb.append(config.getExpiryWarnings()[i]);
+            }
+            sb.append(']');
+        }
+        return sb.append('}').toString();
+    }
+
+    // writing
+
+    private static StringBuilder field(StringBuilder sb, String name, boolean first) {
+        if (!first) sb.append(',');
+        writeString(sb, name);
+        return sb.append(':');
+    }
+
+    private static void writeFiles(StringBuilder sb, Map<String, String[]> files) {
+        if (files == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('{');
+        boolean first = true;
+        for (Map.Entry<String, String[]> e : files.entrySet()) {
+            field(sb, e.getKey(), first);
+            first = false;
+            if (e.getValue() == null) {
+                sb.append("null");
+                continue;
+            }
+            sb.append('[');
+            for (int i = 0; i < e.getValue().length; i++) {
+                if (i > 0) sb.append(',');
+                writeString(sb, e.getValue()[i]);
+            }
+            sb.append(']');
+        }
+        sb.append('}');
+    }
+
+    private static StringBuilder writeString(StringBuilder sb, String s) {
+        if (s == null) return sb.append("null");
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            switch (ch) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\b': sb.append("\\b"); break;
+                case '\f': sb.append("\\f"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (ch < 0x20) {
+                        sb.append("\\u00").append(HEX[ch >> 4]).append(HEX[ch & 0xf]);
+                    }
+                    else {
+                        sb.append(ch);
+                    }
+            }
+        }
+        return sb.append('"');
+    }
+
+    // reading
+
+    private void next() throws IOException {
+        c = in.read();
+        pos++;
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (c == ' ' || c == '\t' || c == '\n' || c == '\r') next();
+    }
+
+    private IOException error(String message) {
+        return new IOException("Invalid configuration JSON at position " + pos + ": " + message);
+    }
+
+    private void expect(char ch) throws IOException {
+        skipWhitespace();
+        if (c != ch) throw error("expected '" + ch + "'");
+        next();
+    }
+
+    /**
+     * Consumes a literal like null if it is next
+     */
+    private boolean literal(String word) throws IOException {
+        skipWhitespace();
+        if (c != word.charAt(0)) return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (c != word.charAt(i)) throw error("expected " + word);
+            next();
+        }
+        return true;
+    }
+
+    /**
+     * Reads the members of an object, calling the handler for each key, the handler reads the value
+     */
+    private interface MemberHandler {
+        void member(String key) throws IOException;
+    }
+
+    private void readObject(MemberHandler handler) throws IOException {
+        expect('{');
+        skipWhitespace();
+        if (c == '}') {
+            next();
+            return;
+        }
+        while (true) {
+            skipWhitespace();
+            String key = readString();
+            expect(':');
+            handler.member(key);
+            skipWhitespace();
+            if (c == ',') {
+                next();
+            }
+            else if (c == '}') {
+                next();
+                return;
+            }
+            else {
+                throw error("expected ',' or '}'");
+            }
+        }
+    }
+
+    private String readString() throws IOException {
+        skipWhitespace();
+        if (c != '"') throw error("expected string");
+        next();
+        StringBuilder sb = new StringBuilder();
+        while (c != '"') {
+            if (c < 0) throw error("unterminated string");
+            if (c == '\\') {
+                next();
+                switch (c) {
+                    case '"': case '\\': case '/': sb.append((char) c); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        int value = 0;
+                        for (int i = 0; i < 4; i++) {
+                            next();
+                            int digit = Character.digit(c, 16);
+                            if (digit < 0) throw error("invalid unicode escape");
+                            value = value * 16 + digit;
+                        }
+                        sb.append((char) value);
+                        break;
+                    default:
+                        throw error("invalid escape");
+                }
+            }
+            else {
+                sb.append((char) c);
+            }
+            next();
+        }
+        next();
+        return sb.toString();
+    }
+
+    private String readStringOrNull() throws IOException {
+        return literal("null") ? null : readString();
+    }
+
+    private long readLong() throws IOException {
+        if (literal("null")) return 0;
+        String number;
+        if (c == '"') {
+            number = readString().trim();
+        }
+        else {
+            StringBuilder sb = new StringBuilder();
+            while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9')) {
+                sb.append((char) c);
+                next();
+            }
+            number = sb.toString();
+        }
+        try {
+            // fractions are truncated
+            return new BigDecimal(number).toBigInteger().longValueExact();
+        }
+        catch (NumberFormatException e) {
+            throw error("expected number");
+        }
+        catch (ArithmeticException e) {
+            throw error("number out of range: " + number);
+        }
+    }
+
+    private int readInt() throws IOException {
+        long value = readLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) throw error("number out of range: " + value);
+        return (int) value;
+    }
+
+    private String[] readStringArray() throws IOException {
+        List<String> ret = new ArrayList<>();
+        expect('[');
+        skipWhitespace();
+        if (c == ']') {
+            next();
+            return new String[0];
+        }
+        while (true) {
+            ret.add(readStringOrNull());
+            skipWhitespace();
+            if (c == ',') {
+                next();
+            }
+            else if (c == ']') {
+                next();
+                return ret.toArray(new String[0]);
+            }
+            else {
+                throw error("expected ',' or ']'");
+            }
+        }
+    }
+
+    private long[] readLongArray() throws IOException {
+        List<Long> ret = new ArrayList<>();
+        expect('[');
+        skipWhitespace();
+        if (c != ']') {
+            while (true) {
+                ret.add(readLong());
+                skipWhitespace();
+                if (c == ',') {
+                    next();
+                }
+                else if (c == ']') {
+                    break;
+                }
+                else {
+                    throw error("expected ',' or ']'");
+                }
+            }
+        }
+        next();
+        long[] array = new long[ret.size()];
+        for (int i = 0; i < array.length; i++) array[i] = ret.get(i);
+        return array;
+    }
+
+    private HashMap<String, String[]> readFiles() throws IOException {
+        HashMap<String, String[]> ret = new HashMap<>();
+        readObject(alias -> ret.put(alias, readStringArray()));
+        return ret;
+    }
+
+    private ReloadablePemKeyStoreConfig readConfig() throws IOException {
+        ReloadablePemKeyStoreConfig config = new ReloadablePemKeyStoreConfig();
+        readObject(key -> {
+            switch (key) {
+                case "refreshInterval":
+                    config.setRefreshInterval(readLong());
+                    break;
+                case "certificates":
+                    config.setCertificates(readFiles());
+                    break;
+                case "crls":
+                    config.setCrls(readFiles());
+                    break;
+                case "refreshIntervals":
+                    HashMap<String, Long> intervals = new HashMap<>();
+                    readObject(alias -> intervals.put(alias, readLong()));
+                    config.setRefreshIntervals(intervals);
+                    break;
+                case "reloadThreads":
+                    config.setReloadThreads(readInt());
+                    break;
+                case "snapshotFile":
+                    config.setSnapshotFile(readStringOrNull());
+                    break;
+                case "manifestFile":
+                    config.setManifestFile(readStringOrNull());
+                    break;
+                case "maxRefreshInterval":
+                    config.setMaxRefreshInterval(readLong());
+                    break;
+                case "renewalWindow":
+                    config.setRenewalWindow(readLong());
+                    break;
+                case "expiryWarnings":
+                    config.setExpiryWarnings(readLongArray());
+                    break;
+                default:
+                    throw error("unknown property \"" + key + "\"");
+            }
+        });
+        return config;
+    }
+}
@@ -0,0 +1,37 @@
+package io.r2.simplepemkeystore;
+
+import java.security.KeyStore;
+import java.security.cert.X509CRL;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Key store entry holding certificate revocation lists.
+ * The simplepem and simplepemreload key stores return this entry type for aliases which contain only CRLs
+ * (no certificate or key), query it with {@code keyStore.entryInstanceOf(alias, CrlEntry.class)}.
+ */
+public final class CrlEntry implements KeyStore.Entry {
+
+    private final List<X509CRL> crls;
+
+    /**
+     * Create an entry
+     *
+     * @param crls the certificate revocation lists
+     */
+    public CrlEntry(List<X509CRL> crls) {
+        this.crls = Collections.unmodifiableList(crls);
+    }
+
+    /**
+     * @return the certificate revocation lists
+     */
+    public List<X509CRL> getCrls() {
+        return crls;
+    }
+
+    @Override
+    public String toString() {
+        return "CRL entry with " + crls.size() + " revocation list(s)";
+    }
+}
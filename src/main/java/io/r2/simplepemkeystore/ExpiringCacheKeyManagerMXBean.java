@@ -0,0 +1,29 @@
+package io.r2.simplepemkeystore;
+
+/**
+ * Management interface of a simplepemreload key manager
+ * Each key manager is registered as io.r2.simplepemkeystore:type=ExpiringCacheKeyManager,id=(n)
+ */
+public interface ExpiringCacheKeyManagerMXBean {
+
+    /**
+     * @return state of all cached aliases
+     */
+    KeyManagerAliasInfo[] getAliases();
+
+    /**
+     * @return cache revalidation time in seconds
+     */
+    long getCacheRevalidation();
+
+    /**
+     * @return number of aliases rebuilt in the cache since startup
+     */
+    long getRebuiltAliases();
+
+    /**
+     * Revalidates the cache against the key store now
+     */
+    void revalidate();
+
+}
@@ -14,6 +14,7 @@ public class ExpiringCacheKeyManagerParameters implements ManagerFactoryParamete
     private KeyStore keyStore;
     private char[] password;
     private long cacheRevalidation;
+    private PemKeyStoreMetrics metrics = PemKeyStoreMetrics.NONE;
 
     /**
      * Create without password
@@ -60,6 +61,17 @@ public class ExpiringCacheKeyManagerParameters implements ManagerFactoryParamete
         return this;
     }
 
+    /**
+     * Sets the metrics callbacks for alias selections
+     *
+     * @param metrics metrics implementation, null to disable
+     * @return the object itself for chaining
+     */
+    public ExpiringCacheKeyManagerParameters withMetrics(PemKeyStoreMetrics metrics) {
+        this.metrics = metrics == null ? PemKeyStoreMetrics.NONE : metrics;
+        return this;
+    }
+
     /**
      * @return the KeyStore to use
      */
@@ -81,6 +93,13 @@ public class ExpiringCacheKeyManagerParameters implements ManagerFactoryParamete
         return cacheRevalidation;
     }
 
+    /**
+     * @return metrics callbacks, PemKeyStoreMetrics.NONE if disabled
+     */
+    public PemKeyStoreMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Convenience factory method without keystore password
      * @param keyStore the KeyStore to use
@@ -0,0 +1,88 @@
+package io.r2.simplepemkeystore;
+
+import javax.net.ssl.ManagerFactoryParameters;
+import java.security.KeyStore;
+
+/**
+ * Parameters builder for the ExpiringCacheTrustManagerFactory.
+ */
+public class ExpiringCacheTrustManagerParameters implements ManagerFactoryParameters {
+
+    /** Default cache expiration in seconds, one hour */
+    public static final long DEFAULT_CACHE_EXPIRATION = 3600;
+
+    /** Default maximum number of validated chains to remember */
+    public static final int DEFAULT_VALIDATION_CACHE_SIZE = 10000;
+
+    private KeyStore keyStore;
+    private long cacheRevalidation;
+    private int validationCacheSize;
+
+    /**
+     * Create with default revalidation time
+     *
+     * @param keyStore the keyStore holding the trusted certificates
+     */
+    public ExpiringCacheTrustManagerParameters(KeyStore keyStore) {
+        this.keyStore = keyStore;
+        this.cacheRevalidation = DEFAULT_CACHE_EXPIRATION;
+        this.validationCacheSize = DEFAULT_VALIDATION_CACHE_SIZE;
+    }
+
+    /**
+     * Sets cache revalidation time.
+     * Note: revalidation time must be at least 5 seconds (for sanity)
+     *
+     * @param revalidation cache revalidation in seconds
+     * @return the object itself for chaining
+     */
+    public ExpiringCacheTrustManagerParameters withRevalidation(long revalidation) {
+        cacheRevalidation = revalidation;
+        return this;
+    }
+
+    /**
+     * Sets the size of the validated chain cache.
+     * Successfully validated chains are remembered until the earliest expiration in the chain, or until the
+     * trust anchors are reloaded, so repeated handshakes from the same peer skip path validation.
+     *
+     * @param size maximum number of cached chains, 0 to disable caching
+     * @return the object itself for chaining
+     */
+    public ExpiringCacheTrustManagerParameters withValidationCacheSize(int size) {
+        validationCacheSize = size;
+        return this;
+    }
+
+    /**
+     * @return the KeyStore to use
+     */
+    public KeyStore getKeyStore() {
+        return keyStore;
+    }
+
+    /**
+     * @return cache expiration in seconds
+     */
+    public long getCacheRevalidation() {
+        return cacheRevalidation;
+    }
+
+    /**
+     * @return maximum number of cached validated chains, 0 if disabled
+     */
+    public int getValidationCacheSize() {
+        return validationCacheSize;
+    }
+
+    /**
+     * Convenience factory method
+     *
+     * @param keyStore the KeyStore holding the trusted certificates
+     * @return new instance with default expiration
+     */
+    public static ExpiringCacheTrustManagerParameters forKeyStore(KeyStore keyStore) {
+        return new ExpiringCacheTrustManagerParameters(keyStore);
+    }
+
+}
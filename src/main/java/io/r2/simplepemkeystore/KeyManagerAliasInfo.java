@@ -0,0 +1,52 @@
+package io.r2.simplepemkeystore;
+
+import java.util.Date;
+
+/**
+ * State of an alias in the reloading key manager, as shown in JMX
+ */
+public final class KeyManagerAliasInfo {
+
+    private final String alias;
+    private final String subject;
+    private final Date notAfter;
+    private final Date creationDate;
+    private final long selections;
+
+    /**
+     * Create alias info
+     *
+     * @param alias the alias
+     * @param subject subject of the first certificate
+     * @param notAfter expiration of the first certificate
+     * @param creationDate creation date of the key store entry
+     * @param selections number of times the alias has been chosen for a handshake
+     */
+    public KeyManagerAliasInfo(String alias, String subject, Date notAfter, Date creationDate, long selections) {
+        this.alias = alias;
+        this.subject = subject;
+        this.notAfter = notAfter;
+        this.creationDate = creationDate;
+        this.selections = selections;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public Date getNotAfter() {
+        return notAfter;
+    }
+
+    public Date getCreationDate() {
+        return creationDate;
+    }
+
+    public long getSelections() {
+        return selections;
+    }
+}
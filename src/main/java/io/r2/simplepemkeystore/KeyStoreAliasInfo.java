@@ -0,0 +1,74 @@
+package io.r2.simplepemkeystore;
+
+import java.util.Date;
+
+/**
+ * State of an alias in a reloading key store, as shown in JMX
+ */
+public final class KeyStoreAliasInfo {
+
+    private final String alias;
+    private final String subject;
+    private final Date notAfter;
+    private final Date creationDate;
+    private final String fingerprint;
+    private final long lastReloadMillis;
+    private final String lastFailure;
+    private final Date nextCheck;
+
+    /**
+     * Create alias info
+     *
+     * @param alias the alias
+     * @param subject subject of the first certificate, null if there is no certificate
+     * @param notAfter expiration of the first certificate, null if there is no certificate
+     * @param creationDate creation date of the entry (modification time of the files)
+     * @param fingerprint fingerprint of the source files
+     * @param lastReloadMillis duration of the last reload in milliseconds
+     * @param lastFailure error message of the last failed refresh, null if the last refresh succeeded
+     * @param nextCheck time of the next modification check
+     */
+    public KeyStoreAliasInfo(String alias, String subject, Date notAfter, Date creationDate, String fingerprint,
+                             long lastReloadMillis, String lastFailure, Date nextCheck) {
+        this.alias = alias;
+        this.subject = subject;
+        this.notAfter = notAfter;
+        this.creationDate = creationDate;
+        this.fingerprint = fingerprint;
+        this.lastReloadMillis = lastReloadMillis;
+        this.lastFailure = lastFailure;
+        this.nextCheck = nextCheck;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public Date getNotAfter() {
+        return notAfter;
+    }
+
+    public Date getCreationDate() {
+        return creationDate;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public long getLastReloadMillis() {
+        return lastReloadMillis;
+    }
+
+    public String getLastFailure() {
+        return lastFailure;
+    }
+
+    public Date getNextCheck() {
+        return nextCheck;
+    }
+}
@@ -0,0 +1,64 @@
+package io.r2.simplepemkeystore;
+
+/**
+ * Metrics callbacks of the reloading key store and the key manager, to connect them to any metrics system
+ *
+ * All methods have empty default implementations, so an implementation only overrides what it needs.
+ * The callbacks run on handshake and reload threads, so they must be fast and thread safe.
+ * BasicPemKeyStoreMetrics is a ready to use implementation with counters and latency histograms.
+ *
+ * Set through ExpiringCacheKeyManagerParameters.withMetrics and ReloadablePemKeyStoreConfig.withMetrics.
+ */
+public interface PemKeyStoreMetrics {
+
+    /** metrics disabled, the default */
+    PemKeyStoreMetrics NONE = new PemKeyStoreMetrics() {
+    };
+
+    /**
+     * Called by the key manager when an alias has been chosen for a handshake
+     *
+     * @param alias the chosen alias
+     * @param keyType the requested key type, eg. RSA or EC
+     * @param nanos time spent choosing the alias, in nanoseconds
+     */
+    default void aliasSelected(String alias, String keyType, long nanos) {
+    }
+
+    /**
+     * Called by the reloading key store when an alias has been (re)loaded from its files
+     *
+     * @param alias the alias
+     * @param nanos time spent reading and parsing the files, in nanoseconds
+     * @param parsedBytes number of bytes parsed
+     */
+    default void reloaded(String alias, long nanos, long parsedBytes) {
+    }
+
+    /**
+     * Called by the reloading key store when loading an alias failed, the old entry is kept
+     *
+     * @param alias the alias
+     * @param failure the error
+     */
+    default void reloadFailed(String alias, Throwable failure) {
+    }
+
+    /**
+     * Called by the reloading key store when a refresh cycle over all aliases is done: the initial load, a forced
+     * reload or a manifest change
+     *
+     * @param aliases number of aliases checked
+     * @param reloaded number of aliases reloaded
+     * @param nanos duration of the cycle, in nanoseconds
+     */
+    default void cycleCompleted(int aliases, int reloaded, long nanos) {
+    }
+
+    /**
+     * Called by the reloading key store when a refresh cycle is skipped, as the previous one is still running
+     */
+    default void cycleSkipped() {
+    }
+
+}
@@ -1,24 +1,35 @@
 package io.r2.simplepemkeystore;
 
-import com.fasterxml.jackson.annotation.JsonIgnore;
-import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * Configuration for the simplepemreload key store - helper class to build input JSON format.
+ *
+ * The configuration can also be passed directly to KeyStore.load(LoadStoreParameter), this is required for
+ * settings that can't be represented in JSON, like the metrics callbacks.
  */
-public class ReloadablePemKeyStoreConfig {
+public class ReloadablePemKeyStoreConfig implements KeyStore.LoadStoreParameter {
 
     /** default refresh interval, in seconds - 1 hour */
     public static final long DEFAULT_REFRESH_INTERVAL = 3600;
 
-    private final static ObjectMapper mapper = new ObjectMapper();
+    /** default renewal window, in seconds - 30 days, when ACME clients usually renew */
+    public static final long DEFAULT_RENEWAL_WINDOW = 30L * 24 * 3600;
+
+    /** default number of reload worker threads */
+    public static final int DEFAULT_RELOAD_THREADS = 2;
+
+    /** shortest refresh interval in seconds, shorter ones disable the modification checks */
+    public static final long MIN_REFRESH_INTERVAL = 5;
 
     /**
      * The refresh interval in seconds
@@ -39,16 +50,147 @@ public class ReloadablePemKeyStoreConfig {
      */
     private HashMap<String, String[]> certificates = new HashMap<>();
 
-    @JsonProperty("refreshInterval")
+    /**
+     * The certificate revocation lists to load.
+     * Each key in the map is an alias that will be used in the key store, the values are paths to PEM files
+     * with X509 CRL blocks. These entries are exposed as CrlEntry in the key store, and they are reloaded
+     * with the same refresh interval as the certificates.
+     */
+    private HashMap<String, String[]> crls = new HashMap<>();
+
+    /**
+     * Refresh intervals in seconds for individual aliases, overriding refreshInterval
+     * (Values below 5 disable the checks of the alias)
+     */
+    private HashMap<String, Long> refreshIntervals = new HashMap<>();
+
+    /**
+     * Number of threads checking and reloading the aliases, 0 for the default (2)
+     * Each alias is checked independently, so a slow source only blocks one thread.
+     */
+    private int reloadThreads = 0;
+
+    /**
+     * Optional binary snapshot file for fast restarts.
+     * The key store contents are written here after each change, and at startup the entries whose source files
+     * are unchanged are loaded from the snapshot instead of parsing PEM again.
+     * Note: keys are stored unencrypted, protect this file the same way as the key files.
+     */
+    private String snapshotFile = null;
+
+    /**
+     * Optional manifest file, written by the deployment after the certificate files.
+     * If set, only the manifest is checked every refreshInterval, and when it changes, the aliases with changed
+     * content hashes are reloaded together. Format: "Key: Value" lines, "generation" with an increasing number,
+     * and for each alias the SHA-256 hex of its files concatenated in the configured order. Aliases are matched
+     * case-insensitively, aliases not in the manifest are not reloaded.
+     */
+    private String manifestFile = null;
+
+    /**
+     * Maximum refresh interval in seconds for adaptive scheduling, 0 to disable
+     * If larger than the refresh interval, certificates far from their expiration are checked less often:
+     * the next check is half of the time remaining until the renewal window opens, but at least refreshInterval
+     * and at most maxRefreshInterval. Within the renewal window, after a failure, and for CRLs, refreshInterval is used.
+     */
+    private long maxRefreshInterval = 0;
+
+    /**
+     * The renewal window in seconds before the expiration, 0 for the default (30 days)
+     */
+    private long renewalWindow = 0;
+
+    /**
+     * Expiry warning thresholds, in seconds before the expiration of a certificate
+     */
+    private long[] expiryWarnings = new long[0];
+
+    /**
+     * Listener for expiry warnings, not part of the JSON format
+     */
+    private CertificateExpiryListener expiryListener = null;
+
+    /**
+     * Metrics callbacks for reloads, not part of the JSON format
+     */
+    private PemKeyStoreMetrics metrics = PemKeyStoreMetrics.NONE;
+
+    /**
+     * Publisher of certificate rotations, not part of the JSON format
+     */
+    private RotationPublisher rotationPublisher = null;
+
     public long getRefreshInterval() {
         return refreshInterval;
     }
 
-    @JsonProperty("certificates")
     public HashMap<String, String[]> getCertificates() {
         return certificates;
     }
 
+    public HashMap<String, String[]> getCrls() {
+        return crls;
+    }
+
+    public HashMap<String, Long> getRefreshIntervals() {
+        return refreshIntervals;
+    }
+
+    public int getReloadThreads() {
+        return reloadThreads;
+    }
+
+    /**
+     * @param alias an alias
+     * @return the refresh interval of the alias in seconds
+     */
+    public long getRefreshInterval(String alias) {
+        Long interval = refreshIntervals.get(alias);
+        return interval != null ? interval : refreshInterval;
+    }
+
+    public String getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    public String getManifestFile() {
+        return manifestFile;
+    }
+
+    public long getMaxRefreshInterval() {
+        return maxRefreshInterval;
+    }
+
+    public long getRenewalWindow() {
+        return renewalWindow;
+    }
+
+    public long[] getExpiryWarnings() {
+        return expiryWarnings;
+    }
+
+    public CertificateExpiryListener getExpiryListener() {
+        return expiryListener;
+    }
+
+    public PemKeyStoreMetrics getMetrics() {
+        return metrics;
+    }
+
+    public RotationPublisher getRotationPublisher() {
+        return rotationPublisher;
+    }
+
+    /**
+     * Password protection is not supported, so there is no protection parameter
+     *
+     * @return null
+     */
+    @Override
+    public KeyStore.ProtectionParameter getProtectionParameter() {
+        return null;
+    }
+
     public void setRefreshInterval(long refreshInterval) {
         this.refreshInterval = refreshInterval;
     }
@@ -57,6 +199,38 @@ public class ReloadablePemKeyStoreConfig {
         this.certificates = certificates;
     }
 
+    public void setCrls(HashMap<String, String[]> crls) {
+        this.crls = crls;
+    }
+
+    public void setRefreshIntervals(HashMap<String, Long> refreshIntervals) {
+        this.refreshIntervals = refreshIntervals;
+    }
+
+    public void setReloadThreads(int reloadThreads) {
+        this.reloadThreads = reloadThreads;
+    }
+
+    public void setSnapshotFile(String snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    public void setManifestFile(String manifestFile) {
+        this.manifestFile = manifestFile;
+    }
+
+    public void setMaxRefreshInterval(long maxRefreshInterval) {
+        this.maxRefreshInterval = maxRefreshInterval;
+    }
+
+    public void setRenewalWindow(long renewalWindow) {
+        this.renewalWindow = renewalWindow;
+    }
+
+    public void setExpiryWarnings(long[] expiryWarnings) {
+        this.expiryWarnings = expiryWarnings == null ? new long[0] : expiryWarnings;
+    }
+
     /**
      * Fluid builder interface - adds a certificate with a given alias and list of pem files
      *
@@ -69,6 +243,18 @@ public class ReloadablePemKeyStoreConfig {
         return this;
     }
 
+    /**
+     * Fluid builder interface - adds certificate revocation lists with a given alias and list of pem files
+     *
+     * @param alias alias to use
+     * @param crlFiles the list of pem files containing X509 CRL blocks
+     * @return self, for chaining
+     */
+    public ReloadablePemKeyStoreConfig addCrl(String alias, String[] crlFiles) {
+        crls.put(alias, crlFiles);
+        return this;
+    }
+
     /**
      * Adds a Let's encrypt certificate
      *
@@ -97,19 +283,109 @@ public class ReloadablePemKeyStoreConfig {
         return this;
     }
 
+    /**
+     * Fluid builder interface - sets the refresh interval of one alias
+     *
+     * @param alias the alias
+     * @param interval refresh interval of the alias (in seconds)
+     * @return self, for chaining
+     */
+    public ReloadablePemKeyStoreConfig withRefreshInterval(String alias, long interval) {
+        refreshIntervals.put(alias, interval);
+        return this;
+    }
+
+    /**
+     * Fluid builder interface - sets the number of reload threads
+     *
+     * @param threads number of threads, 0 for the default
+     * @return self, for chaining
+     */
+    public ReloadablePemKeyStoreConfig withReloadThreads(int threads) {
+        reloadThreads = threads;
+        return this;
+    }
+
+    /**
+     * Fluid builder interface - sets the binary snapshot file used for fast restarts
+     *
+     * @param snapshotFile path of the snapshot file, null to disable
+     * @return self, for chaining
+     */
+    public ReloadablePemKeyStoreConfig withSnapshotFile(String snapshotFile) {
+        this.snapshotFile = snapshotFile;
+        return this;
+    }
+
+    /**
+     * Fluid builder interface - sets the manifest file, which replaces checking the certificate files
+     *
+     * @param manifestFile path of the manifest file, null to disable
+     * @return self, for chaining
+     */
+    public ReloadablePemKeyStoreConfig withManifestFile(String manifestFile) {
+        this.manifestFile = manifestFile;
+        return this;
+    }
+
+    /**
+     * Fluid builder interface - enables adaptive scheduling, see maxRefreshInterval
+     *
+     * @param maxInterval maximum refresh interval (in seconds), 0 to disable
+     * @param renewalWindow renewal window before expiration (in seconds), 0 for the default
+     * @return self, for chaining
+     */
+    public ReloadablePemKeyStoreConfig withAdaptiveRefresh(long maxInterval, long renewalWindow) {
+        this.maxRefreshInterval = maxInterval;
+        this.renewalWindow = renewalWindow;
+        return this;
+    }
+
+    /**
+     * Fluid builder interface - sets expiry warning thresholds
+     * Warnings are emitted as flight recorder events, and to the listener if set.
+     *
+     * @param listener listener to call, may be null
+     * @param thresholds thresholds in seconds before expiration, eg. 7 days and 1 day
+     * @return self, for chaining
+     */
+    public ReloadablePemKeyStoreConfig withExpiryWarnings(CertificateExpiryListener listener, long... thresholds) {
+        this.expiryListener = listener;
+        this.expiryWarnings = thresholds.clone();
+        return this;
+    }
+
+    /**
+     * Fluid builder interface - sets the metrics callbacks for reloads
+     * Only effective if the configuration is loaded with KeyStore.load(LoadStoreParameter)
+     *
+     * @param metrics metrics implementation, null to disable
+     * @return self, for chaining
+     */
+    public ReloadablePemKeyStoreConfig withMetrics(PemKeyStoreMetrics metrics) {
+        this.metrics = metrics == null ? PemKeyStoreMetrics.NONE : metrics;
+        return this;
+    }
+
+    /**
+     * Fluid builder interface - sets the publisher of certificate rotations
+     * Only effective if the configuration is loaded with KeyStore.load(LoadStoreParameter)
+     *
+     * @param publisher publisher to submit the rotations to, null to disable
+     * @return self, for chaining
+     */
+    public ReloadablePemKeyStoreConfig withRotationPublisher(RotationPublisher publisher) {
+        this.rotationPublisher = publisher;
+        return this;
+    }
+
     /**
      * Converts object to JSON string
      *
      * @return object as JSON string
      */
     public String asJSON() {
-        try {
-            return mapper.writeValueAsString(this);
-        }
-        catch (JsonProcessingException e) {
-            // should not happen when writing
-            return "/invalid/";
-        }
+        return ConfigJson.write(this);
     }
 
     /**
@@ -118,16 +394,49 @@ public class ReloadablePemKeyStoreConfig {
      * @return object as JSON string
      */
     public InputStream asInputStream() {
-        try {
-            return new ByteArrayInputStream(mapper.writeValueAsBytes(this));
+        return new ByteArrayInputStream(ConfigJson.write(this).getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * Parses a configuration from JSON
+     *
+     * @param in the JSON input
+     * @return the parsed configuration
+     * @throws IOException on input or format error
+     */
+    public static ReloadablePemKeyStoreConfig fromJSON(InputStream in) throws IOException {
+        return ConfigJson.read(in);
+    }
+
+    /**
+     * Creates a deep copy, the listener, metrics and publisher objects are shared
+     * The key store takes a copy when loaded, so later changes of this object do not affect it.
+     *
+     * @return the copy
+     */
+    public ReloadablePemKeyStoreConfig copy() {
+        ReloadablePemKeyStoreConfig ret = new ReloadablePemKeyStoreConfig();
+        ret.refreshInterval = refreshInterval;
+        for (Map.Entry<String, String[]> e : certificates.entrySet()) {
+            ret.certificates.put(e.getKey(), e.getValue().clone());
         }
-        catch (JsonProcessingException e) {
-            // should not happen when writing
-            return new ByteArrayInputStream("/invalid/".getBytes());
+        for (Map.Entry<String, String[]> e : crls.entrySet()) {
+            ret.crls.put(e.getKey(), e.getValue().clone());
         }
+        ret.refreshIntervals.putAll(refreshIntervals);
+        ret.reloadThreads = reloadThreads;
+        ret.snapshotFile = snapshotFile;
+        ret.manifestFile = manifestFile;
+        ret.maxRefreshInterval = maxRefreshInterval;
+        ret.renewalWindow = renewalWindow;
+        ret.expiryWarnings = expiryWarnings.clone();
+        ret.expiryListener = expiryListener;
+        ret.metrics = metrics;
+        ret.rotationPublisher = rotationPublisher;
+        return ret;
     }
 
-
     /**
      * Shorthand method to create a config for a Let's encrypt certificate
      *
@@ -147,14 +456,49 @@ public class ReloadablePemKeyStoreConfig {
         ReloadablePemKeyStoreConfig that = (ReloadablePemKeyStoreConfig) o;
 
         if (getRefreshInterval() != that.getRefreshInterval()) return false;
-        return getCertificates().equals(that.getCertificates());
+        if (!filesEqual(getCrls(), that.getCrls())) return false;
+        if (!getRefreshIntervals().equals(that.getRefreshIntervals())) return false;
+        if (getReloadThreads() != that.getReloadThreads()) return false;
+        if (!Objects.equals(getSnapshotFile(), that.getSnapshotFile())) return false;
+        if (!Objects.equals(getManifestFile(), that.getManifestFile())) return false;
+        if (getMaxRefreshInterval() != that.getMaxRefreshInterval()) return false;
+        if (getRenewalWindow() != that.getRenewalWindow()) return false;
+        if (!Arrays.equals(getExpiryWarnings(), that.getExpiryWarnings())) return false;
+        return filesEqual(getCertificates(), that.getCertificates());
+
+    }
+
+    /**
+     * Compares file lists by content, as arrays only compare by identity
+     */
+    private static boolean filesEqual(Map<String, String[]> a, Map<String, String[]> b) {
+        if (!a.keySet().equals(b.keySet())) return false;
+        for (Map.Entry<String, String[]> e : a.entrySet()) {
+            if (!Arrays.equals(e.getValue(), b.get(e.getKey()))) return false;
+        }
+        return true;
+    }
 
+    private static int filesHashCode(Map<String, String[]> files) {
+        int result = 0;
+        for (Map.Entry<String, String[]> e : files.entrySet()) {
+            result += e.getKey().hashCode() ^ Arrays.hashCode(e.getValue());
+        }
+        return result;
     }
 
     @Override
     public int hashCode() {
         int result = (int) (getRefreshInterval() ^ (getRefreshInterval() >>> 32));
-        result = 31 * result + getCertificates().hashCode();
+        result = 31 * result + filesHashCode(getCertificates());
+        result = 31 * result + filesHashCode(getCrls());
+        result = 31 * result + getRefreshIntervals().hashCode();
+        result = 31 * result + getReloadThreads();
+        result = 31 * result + Objects.hashCode(getSnapshotFile());
+        result = 31 * result + Objects.hashCode(getManifestFile());
+        result = 31 * result + Long.hashCode(getMaxRefreshInterval());
+        result = 31 * result + Long.hashCode(getRenewalWindow());
+        result = 31 * result + Arrays.hashCode(getExpiryWarnings());
         return result;
     }
 
@@ -0,0 +1,30 @@
+package io.r2.simplepemkeystore;
+
+/**
+ * Management interface of a simplepemreload key store
+ * Each loaded key store is registered as io.r2.simplepemkeystore:type=ReloadablePemKeyStore,id=(n)
+ * Key stores loaded with the same configuration share one registration, removed when the last one is released.
+ */
+public interface ReloadablePemKeyStoreMXBean {
+
+    /**
+     * @return state of all configured aliases
+     */
+    KeyStoreAliasInfo[] getAliases();
+
+    /**
+     * @return refresh interval in seconds
+     */
+    long getRefreshInterval();
+
+    /**
+     * @return number of key stores sharing this configuration
+     */
+    int getKeyStores();
+
+    /**
+     * Reloads all aliases from their files now, even if they have not been modified
+     */
+    void reload();
+
+}
@@ -0,0 +1,305 @@
+package io.r2.simplepemkeystore;
+
+import io.r2.simplepemkeystore.spi.ExpiringCacheKeyManager;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.Provider;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Hands out SSLEngines and SSLSocketFactories of an SSLContext built on the reloading key store and key manager
+ *
+ * Frameworks which cache an SSLContext never see a new one, so this factory owns the context and is the one to keep:
+ * getSocketFactory returns a factory which always creates sockets from the current context, and createSSLEngine
+ * always uses the current context.
+ *
+ * Certificate rotations do not need a new context: the key manager picks up the reloaded certificates (it revalidates
+ * at the refresh interval of the configuration), so sessions in the session caches of the context stay resumable.
+ * The context is only rebuilt when update is called with a different configuration, protocol or trust managers.
+ * Then the new key store, key manager and context are built first, swapped in atomically, and the previous key store
+ * is released. The session cache size and timeout are carried over to the new context.
+ */
+public class ReloadingSslContextFactory implements AutoCloseable {
+
+    /** Default protocol of the SSLContext */
+    public static final String DEFAULT_PROTOCOL = "TLS";
+
+    /** Minimum revalidation time of the key manager in seconds (see ExpiringCacheKeyManagerParameters) */
+    private static final long MIN_REVALIDATION = 5;
+
+    private static final Provider provider = new SimplePemKeyStoreProvider();
+
+    /** the current context with everything it was built from, replaced as a whole */
+    private volatile State state;
+
+    private final SSLSocketFactory socketFactory = new CurrentSocketFactory();
+
+    /**
+     * A built context
+     */
+    private static final class State {
+        final ReloadablePemKeyStoreConfig config;
+        final String configJson;
+        final String protocol;
+        final TrustManager[] trustManagers;
+        final KeyStore keyStore;
+        final ExpiringCacheKeyManager keyManager;
+        final SSLContext context;
+
+        State(ReloadablePemKeyStoreConfig config, String protocol, TrustManager[] trustManagers) throws IOException, GeneralSecurityException {
+            this.config = config;
+            this.configJson = config.asJSON();
+            this.protocol = protocol;
+            this.trustManagers = trustManagers;
+
+            keyStore = KeyStore.getInstance("simplepemreload", provider);
+            keyStore.load(config);
+            try {
+                KeyManagerFactory kmf = KeyManagerFactory.getInstance("simplepemreload", provider);
+                kmf.init(ExpiringCacheKeyManagerParameters.forKeyStore(keyStore)
+                        .withRevalidation(Math.max(config.getRefreshInterval(), MIN_REVALIDATION)));
+                keyManager = (ExpiringCacheKeyManager) kmf.getKeyManagers()[0];
+                try {
+                    context = SSLContext.getInstance(protocol);
+                    context.init(new KeyManager[] { keyManager }, trustManagers, null);
+                }
+                catch (GeneralSecurityException | RuntimeException e) {
+                    keyManager.close();
+                    throw e;
+                }
+            }
+            catch (GeneralSecurityException | RuntimeException e) {
+                keyStore.load(null);
+                throw e;
+            }
+        }
+
+        /**
+         * @return true if the arguments would build the same context
+         */
+        boolean isSame(ReloadablePemKeyStoreConfig config, String protocol, TrustManager[] trustManagers) {
+            return configJson.equals(config.asJSON())
+                    && this.config.getExpiryListener() == config.getExpiryListener()
+                    && this.config.getMetrics() == config.getMetrics()
+                    && this.config.getRotationPublisher() == config.getRotationPublisher()
+                    && this.protocol.equals(protocol)
+                    && Arrays.equals(this.trustManagers, trustManagers);
+        }
+
+        /**
+         * Releases the key store and stops the key manager, the context stays usable for running handshakes
+         */
+        void close() throws IOException, GeneralSecurityException {
+            keyManager.close();
+            keyStore.load(null);
+        }
+    }
+
+    /**
+     * Creates the factory with the default protocol and trust managers
+     *
+     * @param config configuration of the reloading key store
+     * @throws IOException on input error
+     * @throws GeneralSecurityException if the key store or the context can't be created
+     */
+    public ReloadingSslContextFactory(ReloadablePemKeyStoreConfig config) throws IOException, GeneralSecurityException {
+        this(config, DEFAULT_PROTOCOL, null);
+    }
+
+    /**
+     * Creates the factory
+     *
+     * @param config configuration of the reloading key store
+     * @param protocol protocol of the SSLContext, eg. "TLSv1.3"
+     * @param trustManagers trust managers, null for the default
+     * @throws IOException on input error
+     * @throws GeneralSecurityException if the key store or the context can't be created
+     */
+    public ReloadingSslContextFactory(ReloadablePemKeyStoreConfig config, String protocol, TrustManager[] trustManagers)
+            throws IOException, GeneralSecurityException {
+        state = new State(config.copy(), Objects.requireNonNull(protocol), copy(trustManagers));
+    }
+
+    private static TrustManager[] copy(TrustManager[] trustManagers) {
+        return trustManagers == null ? null : trustManagers.clone();
+    }
+
+    /**
+     * Rebuilds the context if the configuration has changed, keeping the protocol and trust managers
+     *
+     * @param config the new configuration
+     * @return true if the context was rebuilt
+     * @throws IOException on input error, the current context is kept
+     * @throws GeneralSecurityException if the new key store or context can't be created, the current context is kept
+     */
+    public synchronized boolean update(ReloadablePemKeyStoreConfig config) throws IOException, GeneralSecurityException {
+        State current = current();
+        return update(config, current.protocol, current.trustManagers);
+    }
+
+    /**
+     * Rebuilds the context if the configuration, the protocol or the trust managers have changed
+     * The new context replaces the current one atomically, only after it has been built successfully.
+     *
+     * @param config the new configuration
+     * @param protocol protocol of the SSLContext
+     * @param trustManagers trust managers, null for the default
+     * @return true if the context was rebuilt
+     * @throws IOException on input error, the current context is kept
+     * @throws GeneralSecurityException if the new key store or context can't be created, the current context is kept
+     */
+    public synchronized boolean update(ReloadablePemKeyStoreConfig config, String protocol, TrustManager[] trustManagers)
+            throws IOException, GeneralSecurityException {
+        State current = current();
+        if (current.isSame(config, protocol, trustManagers)) return false;
+
+        State next = new State(config.copy(), Objects.requireNonNull(protocol), copy(trustManagers));
+        try {
+            copySessionSettings(current.context.getServerSessionContext(), next.context.getServerSessionContext());
+            copySessionSettings(current.context.getClientSessionContext(), next.context.getClientSessionContext());
+        }
+        catch (RuntimeException e) {
+            // the new key store and key manager are not used
+            try {
+                next.close();
+            }
+            catch (IOException | GeneralSecurityException | RuntimeException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e;
+        }
+        state = next;
+        current.close();
+        return true;
+    }
+
+    private static void copySessionSettings(SSLSessionContext from, SSLSessionContext to) {
+        if (from == null || to == null) return;
+        to.setSessionCacheSize(from.getSessionCacheSize());
+        to.setSessionTimeout(from.getSessionTimeout());
+    }
+
+    private State current() {
+        State current = state;
+        if (current == null) throw new IllegalStateException("Factory is closed");
+        return current;
+    }
+
+    /**
+     * @return the current context, replaced when the configuration changes
+     */
+    public SSLContext getContext() {
+        return current().context;
+    }
+
+    /**
+     * @return the current reloading key store
+     */
+    public KeyStore getKeyStore() {
+        return current().keyStore;
+    }
+
+    /**
+     * @return a new engine from the current context
+     */
+    public SSLEngine createSSLEngine() {
+        return getContext().createSSLEngine();
+    }
+
+    /**
+     * @param peerHost the host name of the peer, for session reuse and SNI
+     * @param peerPort the port of the peer
+     * @return a new engine from the current context
+     */
+    public SSLEngine createSSLEngine(String peerHost, int peerPort) {
+        return getContext().createSSLEngine(peerHost, peerPort);
+    }
+
+    /**
+     * @return socket factory creating every socket from the current context
+     */
+    public SSLSocketFactory getSocketFactory() {
+        return socketFactory;
+    }
+
+    /**
+     * Releases the key store and stops the key manager, the factory can't be used afterwards
+     *
+     * @throws IOException not thrown by the reloading key store
+     * @throws GeneralSecurityException not thrown by the reloading key store
+     */
+    @Override
+    public synchronized void close() throws IOException, GeneralSecurityException {
+        State current = state;
+        state = null;
+        if (current != null) current.close();
+    }
+
+    /**
+     * Socket factory delegating to the socket factory of the current context
+     */
+    private final class CurrentSocketFactory extends SSLSocketFactory {
+
+        private SSLSocketFactory delegate() {
+            return getContext().getSocketFactory();
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate().getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate().getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return delegate().createSocket();
+        }
+
+        @Override
+        public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+            return delegate().createSocket(s, host, port, autoClose);
+        }
+
+        @Override
+        public Socket createSocket(Socket s, InputStream consumed, boolean autoClose) throws IOException {
+            return delegate().createSocket(s, consumed, autoClose);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return delegate().createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return delegate().createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return delegate().createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return delegate().createSocket(address, port, localAddress, localPort);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package io.r2.simplepemkeystore;
+
+import java.util.Date;
+
+/**
+ * Change of the certificate of an alias in the reloading key store, published by RotationPublisher
+ *
+ * Fingerprints are the SHA-256 of the encoded certificate, in lowercase hex. A new alias has no previous fingerprint,
+ * a removed alias (or an entry without certificate) has no fingerprint. Events of an alias not yet delivered to a
+ * subscriber are coalesced: the previous fingerprint is the one the subscriber has last seen.
+ */
+public final class RotationEvent {
+
+    private final String alias;
+    private final String previousFingerprint;
+    private final String fingerprint;
+    private final Date notAfter;
+
+    /**
+     * Create rotation event
+     *
+     * @param alias the alias
+     * @param previousFingerprint fingerprint of the replaced certificate, null if there was none
+     * @param fingerprint fingerprint of the new certificate, null if there is none
+     * @param notAfter expiration of the new certificate, null if there is none
+     */
+    public RotationEvent(String alias, String previousFingerprint, String fingerprint, Date notAfter) {
+        this.alias = alias;
+        this.previousFingerprint = previousFingerprint;
+        this.fingerprint = fingerprint;
+        this.notAfter = notAfter;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public String getPreviousFingerprint() {
+        return previousFingerprint;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public Date getNotAfter() {
+        return notAfter;
+    }
+
+    /**
+     * @param next a later event of the same alias
+     * @return one event with the previous fingerprint of this one and the new certificate of the later one
+     */
+    RotationEvent merge(RotationEvent next) {
+        return new RotationEvent(alias, previousFingerprint, next.fingerprint, next.notAfter);
+    }
+
+    @Override
+    public String toString() {
+        return "RotationEvent{" + alias + ": " + previousFingerprint + " -> " + fingerprint + ", notAfter=" + notAfter + "}";
+    }
+}
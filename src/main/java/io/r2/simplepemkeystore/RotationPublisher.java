@@ -0,0 +1,237 @@
+package io.r2.simplepemkeystore;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Flow;
+
+/**
+ * Publisher of certificate rotations in the reloading key store
+ *
+ * Set it in the configuration (see ReloadablePemKeyStoreConfig.withRotationPublisher), and the key store submits an
+ * event whenever the certificate of an alias changes after the initial load: reloaded from the files, set or deleted
+ * through the KeyStore API. One publisher can be shared by several key stores. It is not closed with the key stores.
+ *
+ * Events are delivered asynchronously on the executor, so subscribers never delay the reload threads. Each
+ * subscriber has its own queue of pending events with at most one event per alias: when an alias changes again
+ * before the subscriber requested the previous event, the two are coalesced, so a slow subscriber gets the latest
+ * certificate of each alias and the queue stays bounded by the number of aliases.
+ */
+public class RotationPublisher implements Flow.Publisher<RotationEvent>, AutoCloseable {
+
+    /** same default as SubmissionPublisher: the common pool, unless it has no parallelism */
+    private static final Executor DEFAULT_EXECUTOR = ForkJoinPool.getCommonPoolParallelism() > 1
+            ? ForkJoinPool.commonPool()
+            : r -> new Thread(r).start();
+
+    private final Executor executor;
+    private final List<RotationSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private boolean closed;
+
+    /**
+     * Creates a publisher delivering on the common pool
+     */
+    public RotationPublisher() {
+        this(DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Creates a publisher
+     *
+     * @param executor executor to deliver the events on, must not run the tasks on the calling thread
+     */
+    public RotationPublisher(Executor executor) {
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super RotationEvent> subscriber) {
+        RotationSubscription subscription = new RotationSubscription(Objects.requireNonNull(subscriber));
+        synchronized (this) {
+            boolean duplicate = false;
+            for (RotationSubscription s : subscriptions) {
+                duplicate |= s.subscriber.equals(subscriber);
+            }
+            if (duplicate) subscription.fail(new IllegalStateException("Already subscribed"));
+            else if (closed) subscription.close();
+            else subscriptions.add(subscription);
+        }
+        subscription.signal();
+    }
+
+    /**
+     * Offers an event to all subscribers, without blocking
+     * Called by the key store, public so applications can announce changes made outside of it.
+     *
+     * @param event the event
+     */
+    public void submit(RotationEvent event) {
+        Objects.requireNonNull(event);
+        for (RotationSubscription s : subscriptions) {
+            s.offer(event);
+        }
+    }
+
+    /**
+     * @return number of current subscribers
+     */
+    public int getNumberOfSubscribers() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Completes the subscribers after their pending events are delivered, later events are ignored
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        for (RotationSubscription s : subscriptions) {
+            s.close();
+            s.signal();
+        }
+    }
+
+    /**
+     * Pending events and demand of one subscriber
+     * Delivery runs as one task on the executor at a time, scheduled when there is something to do.
+     */
+    private final class RotationSubscription implements Flow.Subscription, Runnable {
+        final Flow.Subscriber<? super RotationEvent> subscriber;
+
+        /** number of signals since the delivery task has last checked */
+        private final AtomicInteger signals = new AtomicInteger();
+
+        /** pending events by alias, in order of the first change; guarded by this */
+        private final Map<String, RotationEvent> pending = new LinkedHashMap<>();
+        private long demand;
+        private boolean closed;
+        private boolean terminated;
+        private Throwable failure;
+
+        /** only used by the delivery task */
+        private boolean subscribed;
+
+        RotationSubscription(Flow.Subscriber<? super RotationEvent> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        synchronized void offer(RotationEvent event) {
+            if (terminated || closed) return;
+            RotationEvent previous = pending.get(event.getAlias());
+            if (previous != null) {
+                event = previous.merge(event);
+            }
+            if (previous != null && Objects.equals(event.getPreviousFingerprint(), event.getFingerprint())) {
+                // changed back before it was delivered
+                pending.remove(event.getAlias());
+            }
+            else {
+                pending.put(event.getAlias(), event);
+            }
+            if (demand > 0) signal();
+        }
+
+        synchronized void fail(Throwable t) {
+            if (failure == null) failure = t;
+        }
+
+        synchronized void close() {
+            closed = true;
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (n <= 0) {
+                    fail(new IllegalArgumentException("Non-positive request: " + n));
+                }
+                else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                terminated = true;
+                pending.clear();
+            }
+            subscriptions.remove(this);
+        }
+
+        /**
+         * Schedules the delivery task, unless it is already scheduled
+         */
+        void signal() {
+            if (signals.getAndIncrement() != 0) return;
+            try {
+                executor.execute(this);
+            }
+            catch (RejectedExecutionException e) {
+                // the subscriber can't be called on this thread, it is dropped
+                cancel();
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = signals.get();
+            do {
+                deliver();
+                missed = signals.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void deliver() {
+            if (!subscribed) {
+                subscribed = true;
+                subscriber.onSubscribe(this);
+            }
+            while (true) {
+                RotationEvent next = null;
+                Throwable error = null;
+                synchronized (this) {
+                    if (terminated) return;
+                    if (failure != null) {
+                        error = failure;
+                    }
+                    else if (demand > 0 && !pending.isEmpty()) {
+                        Iterator<RotationEvent> it = pending.values().iterator();
+                        next = it.next();
+                        it.remove();
+                        demand--;
+                    }
+                    else if (!closed || !pending.isEmpty()) {
+                        return;
+                    }
+                }
+                if (next == null) {
+                    // failed or completed
+                    cancel();
+                    if (error != null) subscriber.onError(error);
+                    else subscriber.onComplete();
+                    return;
+                }
+                try {
+                    subscriber.onNext(next);
+                }
+                catch (RuntimeException e) {
+                    cancel();
+                    subscriber.onError(e);
+                    return;
+                }
+            }
+        }
+    }
+}
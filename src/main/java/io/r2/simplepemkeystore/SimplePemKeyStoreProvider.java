@@ -17,6 +17,7 @@ public final class SimplePemKeyStoreProvider extends Provider {
         put("KeyStore.simplepem", "io.r2.simplepemkeystore.spi.SimplePemKeyStoreSpi");
         put("KeyStore.simplepemreload", "io.r2.simplepemkeystore.spi.ReloadablePemKeyStoreSpi");
         put("KeyManagerFactory.simplepemreload", "io.r2.simplepemkeystore.spi.ExpiringCacheKeyManagerFactorySpi");
+        put("TrustManagerFactory.simplepemreload", "io.r2.simplepemkeystore.spi.ExpiringCacheTrustManagerFactorySpi");
     }
 
     /**
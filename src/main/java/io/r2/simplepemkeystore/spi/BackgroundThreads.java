@@ -0,0 +1,75 @@
+package io.r2.simplepemkeystore.spi;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads of the background work: reload checks and key manager cache revalidation
+ *
+ * This is the Java 9 version, with platform threads. The Java 21 layer of the multi-release jar replaces it
+ * with one using virtual threads.
+ * Note: intentionally defined as package access only
+ */
+final class BackgroundThreads {
+
+    /** system property to use platform threads on Java 21 as well, ignored here */
+    static final String PLATFORM_PROPERTY = "io.r2.simplepemkeystore.platformThreads";
+
+    private BackgroundThreads() {
+    }
+
+    /**
+     * @return true if the background work runs on virtual threads
+     */
+    static boolean isVirtual() {
+        return false;
+    }
+
+    /**
+     * @param prefix thread name prefix
+     * @param threads number of worker threads
+     * @return executor of the reload workers, a fixed pool of daemon threads
+     */
+    static ExecutorService workers(String prefix, int threads) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), daemonThreads(prefix));
+    }
+
+    /**
+     * @param threads number of worker threads
+     * @return number of tasks a refresh cycle is spread over, besides the calling thread
+     */
+    static int parallelism(int threads) {
+        return threads;
+    }
+
+    /**
+     * @param name thread name
+     * @param task the task
+     * @return a daemon thread running the task, not started
+     */
+    static Thread thread(String name, Runnable task) {
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    /**
+     * @param name thread name
+     * @return single threaded scheduler of the key manager, on a daemon thread
+     */
+    static ScheduledExecutorService scheduler(String name) {
+        return Executors.newScheduledThreadPool(1, r -> thread(name, r));
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> thread(prefix + count.incrementAndGet(), r);
+    }
+}
@@ -1,115 +1,342 @@
 package io.r2.simplepemkeystore.spi;
 
+import io.r2.simplepemkeystore.CrlEntry;
+
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.PSSParameterSpec;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Abstract class implementing the boilerplate methods of a KeyStore engine
- * It will work from a map of PemCertKey objects, indexed by alias
- * Subclasses should take care of populating and updating this underlying structure
+ * It will work from a store of PemCertKey objects, indexed by alias
+ * Subclasses should take care of populating and updating this underlying structure, using putEntry,
+ * so the certificate fingerprint index is kept up to date. All reads go through entry, aliases and
+ * certificateAlias, so a subclass can also present entries kept elsewhere.
+ *
+ * Entries can also be set and deleted in memory through the KeyStore API, without files. An entry is replaced
+ * atomically, and its creation date is always after the replaced entry, so key and trust managers pick up the change
+ * on their next revalidation. Password protection is not supported, passwords are ignored.
  */
 abstract class BasePemKeyStore extends KeyStoreSpi {
 
-    protected Map<String, PemCertKey> store;
+    protected final PemEntryStore store = new PemEntryStore();
+
+    /**
+     * @param alias the alias
+     * @return the entry of the alias, or null if there is none
+     */
+    protected PemCertKey entry(String alias) {
+        return store.get(alias);
+    }
+
+    /**
+     * @return the aliases of the key store
+     */
+    protected Collection<String> aliases() {
+        return store.aliases();
+    }
+
+    /**
+     * @param cert the certificate
+     * @return an alias with the certificate, or null if not found
+     */
+    protected String certificateAlias(Certificate cert) {
+        return store.findAlias(cert, this::entry);
+    }
+
+    /**
+     * @return all entries of the key store
+     */
+    protected Collection<PemCertKey> entries() {
+        return store.values();
+    }
+
+    /**
+     * Adds or replaces an entry and updates the fingerprint index
+     *
+     * @param alias the alias of the entry
+     * @param entry the new entry
+     */
+    protected void putEntry(String alias, PemCertKey entry) {
+        store.put(alias, entry);
+    }
 
-    public BasePemKeyStore() {
-        store = new ConcurrentHashMap<>();
+    /**
+     * Adds or replaces an entry set through the KeyStore API
+     * The creation date of the entry is set to now, but always after the creation date of the replaced entry.
+     * An entry without private key can't replace a private key entry.
+     *
+     * @param alias the alias of the entry
+     * @param entry the new entry
+     * @throws KeyStoreException if a certificate entry would replace a private key entry
+     */
+    protected synchronized void setEntry(String alias, PemCertKey entry) throws KeyStoreException {
+        PemCertKey old = entry(alias);
+        // checked under the writer lock, so a concurrent setKeyEntry can't slip in between
+        if (!entry.hasKey() && old != null && old.hasKey()) {
+            throw new KeyStoreException("Alias has a private key entry: " + alias);
+        }
+        long creationDate = System.currentTimeMillis();
+        if (old != null && old.getCreationDate().getTime() >= creationDate) {
+            creationDate = old.getCreationDate().getTime() + 1;
+        }
+        entry.setAlias(alias);
+        entry.setCreationDate(new Date(creationDate));
+        putEntry(alias, entry);
+    }
+
+    /**
+     * Removes an entry and updates the fingerprint index
+     *
+     * @param alias the alias of the entry
+     */
+    protected synchronized void removeEntry(String alias) {
+        store.remove(alias);
     }
 
     @Override
     public Key engineGetKey(String alias, char[] password) throws NoSuchAlgorithmException, UnrecoverableKeyException {
-        PemCertKey certKey = store.get(alias);
+        PemCertKey certKey = entry(alias);
         if (certKey == null) return null;
         return certKey.getPrivateKey();
     }
 
     @Override
     public Certificate[] engineGetCertificateChain(String alias) {
-        PemCertKey certKey = store.get(alias);
+        PemCertKey certKey = entry(alias);
         if (certKey == null) return null;
         return certKey.getCertificateChain();
     }
 
     @Override
     public Certificate engineGetCertificate(String alias) {
-        PemCertKey certKey = store.get(alias);
+        PemCertKey certKey = entry(alias);
         if (certKey == null) return null;
         return certKey.getCertificate();
     }
 
     @Override
     public Date engineGetCreationDate(String alias) {
-        PemCertKey certKey = store.get(alias);
+        PemCertKey certKey = entry(alias);
         if (certKey == null) return null;
         return certKey.getCreationDate();
     }
 
+    /**
+     * Sets a private key with its certificate chain, replacing the entry of the alias
+     *
+     * @param alias the alias
+     * @param key the private key, must be the key of the first certificate
+     * @param password not used, password protection is not supported
+     * @param chain the certificate chain, leaf first
+     * @throws KeyStoreException if the key is not a private key, or the chain is missing or does not match the key
+     */
     @Override
     public void engineSetKeyEntry(String alias, Key key, char[] password, Certificate[] chain) throws KeyStoreException {
-        throw new KeyStoreException("Operation not implemented");
+        if (!(key instanceof PrivateKey)) throw new KeyStoreException("Only private keys are supported");
+        PemCertKey entry = chainEntry(chain);
+        checkKeyPair((PrivateKey) key, chain[0].getPublicKey());
+        try {
+            entry.setPrivateKey(key);
+        }
+        catch (CertificateException e) {
+            // new entry, should not happen
+            throw new KeyStoreException(e);
+        }
+        setEntry(alias, entry.build());
     }
 
+    /**
+     * Sets a private key with its certificate chain, replacing the entry of the alias
+     * As password protection is not supported, the key must be PKCS#8 encoded, unencrypted.
+     *
+     * @param alias the alias
+     * @param key the PKCS#8 encoded private key
+     * @param chain the certificate chain, leaf first
+     * @throws KeyStoreException if the key can't be decoded, or the chain is missing or does not match the key
+     */
     @Override
     public void engineSetKeyEntry(String alias, byte[] key, Certificate[] chain) throws KeyStoreException {
-        throw new KeyStoreException("Operation not implemented");
+        chainEntry(chain);
+        PrivateKey privateKey;
+        try {
+            privateKey = KeyFactory.getInstance(chain[0].getPublicKey().getAlgorithm())
+                    .generatePrivate(new PKCS8EncodedKeySpec(key));
+        }
+        catch (InvalidKeySpecException | NoSuchAlgorithmException e) {
+            throw new KeyStoreException("Invalid private key", e);
+        }
+        engineSetKeyEntry(alias, privateKey, null, chain);
+    }
+
+    /**
+     * Checks that a private key belongs to a public key, by signing a test message and verifying the signature
+     *
+     * @param privateKey the private key
+     * @param publicKey the public key of the certificate
+     * @throws KeyStoreException if the keys don't match, or can't be checked
+     */
+    static void checkKeyPair(PrivateKey privateKey, PublicKey publicKey) throws KeyStoreException {
+        if (!privateKey.getAlgorithm().equals(publicKey.getAlgorithm())) {
+            throw new KeyStoreException("Private key algorithm does not match the certificate");
+        }
+        byte[] message = "simplepem key pair check".getBytes(StandardCharsets.US_ASCII);
+        try {
+            Signature signer = keyPairSignature(privateKey.getAlgorithm());
+            signer.initSign(privateKey);
+            signer.update(message);
+            byte[] signature = signer.sign();
+
+            Signature verifier = keyPairSignature(publicKey.getAlgorithm());
+            verifier.initVerify(publicKey);
+            verifier.update(message);
+            if (verifier.verify(signature)) return;
+        }
+        catch (GeneralSecurityException e) {
+            throw new KeyStoreException("Unable to check the private key against the certificate", e);
+        }
+        throw new KeyStoreException("Private key does not match the certificate");
+    }
+
+    /**
+     * @param algorithm key algorithm
+     * @return signature to check a key pair of the algorithm
+     * @throws GeneralSecurityException if not supported
+     */
+    private static Signature keyPairSignature(String algorithm) throws GeneralSecurityException {
+        switch (algorithm) {
+            case "RSA":
+                return Signature.getInstance("SHA256withRSA");
+            case "RSASSA-PSS":
+                Signature pss = Signature.getInstance("RSASSA-PSS");
+                pss.setParameter(new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, 32, 1));
+                return pss;
+            case "EC":
+                return Signature.getInstance("SHA256withECDSA");
+            case "DSA":
+                return Signature.getInstance("SHA256withDSA");
+            default:
+                // EdDSA keys (Ed25519, Ed448) have signatures of the same name
+                return Signature.getInstance(algorithm);
+        }
     }
 
+    /**
+     * Sets a trusted certificate, replacing the entry of the alias
+     *
+     * @param alias the alias
+     * @param cert the certificate
+     * @throws KeyStoreException if the alias has a private key
+     */
     @Override
     public void engineSetCertificateEntry(String alias, Certificate cert) throws KeyStoreException {
-        throw new KeyStoreException("Operation not implemented");
+        setEntry(alias, chainEntry(new Certificate[] { cert }).build());
     }
 
     @Override
     public void engineDeleteEntry(String alias) throws KeyStoreException {
-        throw new KeyStoreException("Operation not implemented");
+        removeEntry(alias);
+    }
+
+    private static PemCertKey chainEntry(Certificate[] chain) throws KeyStoreException {
+        if (chain == null || chain.length == 0 || chain[0] == null) throw new KeyStoreException("Certificate chain is required");
+        PemCertKey entry = new PemCertKey();
+        for (Certificate cert : chain) {
+            entry.addCertificate(cert);
+        }
+        return entry;
     }
 
     @Override
     public Enumeration<String> engineAliases() {
-        return Collections.enumeration(store.keySet());
+        return Collections.enumeration(aliases());
     }
 
     @Override
     public boolean engineContainsAlias(String alias) {
-        return store.containsKey(alias);
+        return entry(alias) != null;
     }
 
     @Override
     public int engineSize() {
-        return store.size();
+        return aliases().size();
     }
 
     @Override
     public boolean engineIsKeyEntry(String alias) {
-        PemCertKey certKey = store.get(alias);
+        PemCertKey certKey = entry(alias);
         if (certKey == null) return false;
         return certKey.hasKey();
     }
 
     @Override
     public boolean engineIsCertificateEntry(String alias) {
-        PemCertKey certKey = store.get(alias);
+        PemCertKey certKey = entry(alias);
         if (certKey == null) return false;
         return certKey.hasCertificate();
     }
 
+    /**
+     * Entries with certificate revocation lists only are returned as CrlEntry
+     */
+    @Override
+    public KeyStore.Entry engineGetEntry(String alias, KeyStore.ProtectionParameter protParam) throws KeyStoreException, NoSuchAlgorithmException, UnrecoverableEntryException {
+        PemCertKey certKey = entry(alias);
+        if (certKey != null && isCrlOnly(certKey)) {
+            return new CrlEntry(certKey.getCrls());
+        }
+        if (certKey != null && certKey.hasKey() && certKey.hasCertificate()) {
+            // key and chain from the same entry, so a concurrent reload can't mix them
+            try {
+                return new KeyStore.PrivateKeyEntry((PrivateKey) certKey.getPrivateKey(), certKey.getCertificateChain());
+            }
+            catch (IllegalArgumentException e) {
+                throw new KeyStoreException("Certificate does not match private key in entry: " + alias, e);
+            }
+        }
+        return super.engineGetEntry(alias, protParam);
+    }
+
+    @Override
+    public boolean engineEntryInstanceOf(String alias, Class<? extends KeyStore.Entry> entryClass) {
+        if (entryClass == CrlEntry.class) {
+            PemCertKey certKey = entry(alias);
+            return certKey != null && isCrlOnly(certKey);
+        }
+        return super.engineEntryInstanceOf(alias, entryClass);
+    }
+
+    private static boolean isCrlOnly(PemCertKey certKey) {
+        return certKey.hasCrl() && !certKey.hasCertificate() && !certKey.hasKey();
+    }
+
     @Override
     public String engineGetCertificateAlias(Certificate cert) {
-        return store.entrySet().stream()
-                .filter((e) -> e.getValue().matchesCertificate(cert))
-                .map(Map.Entry::getKey)
-                .findFirst()
-                .orElse(null);
+        return certificateAlias(cert);
     }
 
+    /**
+     * Stores the entries in the binary snapshot format
+     * The snapshot can be loaded by the simplepem key store, and is used by the simplepemreload key store for fast
+     * restarts. Note: password protection is not supported, keys are stored unencrypted.
+     *
+     * @param stream output stream for the snapshot
+     * @param password not used, password protection is not supported
+     * @throws IOException on output error
+     * @throws NoSuchAlgorithmException - not thrown
+     * @throws CertificateException if an entry can't be encoded
+     */
     @Override
     public void engineStore(OutputStream stream, char[] password) throws IOException, NoSuchAlgorithmException, CertificateException {
-        throw new CertificateException("Store not supported");
+        PemKeyStoreSnapshot.write(stream, entries());
     }
 
 }
@@ -1,7 +1,11 @@
 package io.r2.simplepemkeystore.spi;
 
+import io.r2.simplepemkeystore.ExpiringCacheKeyManagerMXBean;
 import io.r2.simplepemkeystore.ExpiringCacheKeyManagerParameters;
+import io.r2.simplepemkeystore.KeyManagerAliasInfo;
+import io.r2.simplepemkeystore.PemKeyStoreMetrics;
 
+import javax.management.ObjectName;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.X509ExtendedKeyManager;
 import javax.security.auth.x500.X500Principal;
@@ -10,9 +14,13 @@ import java.security.*;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.util.*;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A key manager with an expiring cache
@@ -21,6 +29,16 @@ import java.util.concurrent.TimeUnit;
  *
  * After the specified revalidation time all creation dates are checked in the key store, and if they are
  * newer than the stored one, it is rebuilt in the cache.
+ *
+ * The cache may be rebuilt while handshakes are running. The key and chain of an alias are cached together as one
+ * immutable credentials object with a generation number, which is replaced as a whole. Like in
+ * sun.security.ssl.X509KeyManagerImpl, the choose methods return the alias with its generation ("generation.alias"),
+ * and getPrivateKey and getCertificateChain resolve it to the same credentials, in whatever order JSSE calls them,
+ * even if the alias has been rotated since. Replaced generations stay resolvable for a revalidation period, plain
+ * aliases resolve to the current generation.
+ *
+ * Each key manager with a key store is registered in JMX (see ExpiringCacheKeyManagerMXBean).
+ * Alias selections are reported to the configured metrics callbacks (see PemKeyStoreMetrics).
  */
 public class ExpiringCacheKeyManager extends X509ExtendedKeyManager {
 
@@ -32,15 +50,41 @@ public class ExpiringCacheKeyManager extends X509ExtendedKeyManager {
     private KeyStore keyStore;
     /** Password for the underlying keystore */
     private char[] keyStorePassword;
+    /** Metrics callbacks */
+    private final PemKeyStoreMetrics metrics;
+
+    /** name of the JMX registration, null if not registered */
+    private ObjectName managementName;
 
-    /** scheduler for the cache refreshing task */
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    /** scheduler for the cache refreshing task, on a virtual thread on Java 21 */
+    private final ScheduledExecutorService scheduler = BackgroundThreads.scheduler("simplepemreload-keymanager");
 
     /*
      * The credentials from the KeyStore as
      * Map: String(alias) -> X509Credentials(credentials)
+     * Updated by the revalidation task while handshake threads read it.
+     */
+    private final Map<String,X509Credentials> credentialsMap = new ConcurrentHashMap<>();
+
+    /*
+     * The current and the recently replaced credentials as
+     * Map: Long(generation) -> X509Credentials(credentials)
+     */
+    private final Map<Long,X509Credentials> generations = new ConcurrentHashMap<>();
+
+    /* Replaced credentials, in the order of replacement, removed from generations a revalidation period later */
+    private final Queue<Retired> retired = new ConcurrentLinkedQueue<>();
+
+    /* Generation of the last built credentials */
+    private final AtomicLong lastGeneration = new AtomicLong();
+
+    /*
+     * Number of times each alias has been chosen, striped counters to keep the handshake path contention free
      */
-    private Map<String,X509Credentials> credentialsMap;
+    private final Map<String,LongAdder> selections = new ConcurrentHashMap<>();
+
+    /* Number of aliases rebuilt since startup */
+    private final LongAdder rebuiltAliases = new LongAdder();
 
     /*
      * Cached server aliases for the case issuers == null.
@@ -48,35 +92,51 @@ public class ExpiringCacheKeyManager extends X509ExtendedKeyManager {
      * server certs). See chooseServerAlias() for details.
      *
      * Map: String(keyType) -> String[](alias)
+     *
+     * Replaced with an empty map when the credentials change, so a lookup running concurrently
+     * with the change can only store its result in the discarded map.
      */
-    private final Map<String,String[]> serverAliasCache;
+    private volatile Map<String,String[]> serverAliasCache = new ConcurrentHashMap<>();
 
     /*
-     * Basic container for credentials implemented as an inner class.
+     * Immutable snapshot of the credentials of an alias, replaced as a whole in the cache.
      */
-    private static class X509Credentials {
-        PrivateKey privateKey;
-        X509Certificate[] certificates;
-        private Set<X500Principal> issuerX500Principals;
-        Date creationDate;
-
-        X509Credentials(PrivateKey privateKey, X509Certificate[] certificates, Date creationDate) {
+    private static final class X509Credentials {
+        final long generation;
+        final String alias;
+        /** the alias with the generation, as returned by the choose methods */
+        final String handle;
+        final PrivateKey privateKey;
+        final X509Certificate[] certificates;
+        final Set<X500Principal> issuerX500Principals;
+        final Date creationDate;
+
+        X509Credentials(long generation, String alias, PrivateKey privateKey, X509Certificate[] certificates, Date creationDate) {
             // assert privateKey and certificates != null
+            this.generation = generation;
+            this.alias = alias;
+            this.handle = generation + "." + alias;
             this.privateKey = privateKey;
-            this.certificates = certificates;
+            this.certificates = certificates.clone();
             this.creationDate = creationDate;
+            Set<X500Principal> issuers = new HashSet<>();
+            for (int i = 0; i < certificates.length; i++) {
+                issuers.add(certificates[i].getIssuerX500Principal());
+            }
+            this.issuerX500Principals = Collections.unmodifiableSet(issuers);
         }
+    }
 
-        synchronized Set<X500Principal> getIssuerX500Principals() {
-            // lazy initialization
-            if (issuerX500Principals == null) {
-                issuerX500Principals = new HashSet<X500Principal>();
-                for (int i = 0; i < certificates.length; i++) {
-                    issuerX500Principals.add(
-                            certificates[i].getIssuerX500Principal());
-                }
-            }
-            return issuerX500Principals;
+    /*
+     * Credentials replaced at a time.
+     */
+    private static final class Retired {
+        final long generation;
+        final long retiredAt;
+
+        Retired(long generation, long retiredAt) {
+            this.generation = generation;
+            this.retiredAt = retiredAt;
         }
     }
 
@@ -86,8 +146,7 @@ public class ExpiringCacheKeyManager extends X509ExtendedKeyManager {
         cacheRevalidation = params.getCacheRevalidation();
         keyStore = params.getKeyStore();
         keyStorePassword = params.getPassword();
-
-        serverAliasCache = Collections.synchronizedMap(new HashMap<String,String[]>());
+        metrics = params.getMetrics();
 
         buildCache();
 
@@ -100,6 +159,96 @@ public class ExpiringCacheKeyManager extends X509ExtendedKeyManager {
                 // cache rebuild failed, keep the old one quietly
             }
         }, cacheRevalidation, cacheRevalidation, TimeUnit.SECONDS);
+
+        if (keyStore != null) {
+            managementName = ManagementSupport.register("ExpiringCacheKeyManager", ExpiringCacheKeyManagerMXBean.class, new Management());
+        }
+    }
+
+    /**
+     * Stops the cache revalidation and removes the JMX registration
+     * The cached credentials stay usable, for handshakes still running with this key manager.
+     */
+    public void close() {
+        scheduler.shutdownNow();
+        ManagementSupport.unregister(managementName);
+    }
+
+    /**
+     * JMX view of this key manager
+     */
+    private class Management implements ExpiringCacheKeyManagerMXBean {
+
+        @Override
+        public KeyManagerAliasInfo[] getAliases() {
+            List<KeyManagerAliasInfo> ret = new ArrayList<>();
+            for (X509Credentials cred : new TreeMap<>(credentialsMap).values()) {
+                LongAdder count = selections.get(cred.alias);
+                ret.add(new KeyManagerAliasInfo(
+                        cred.alias,
+                        cred.certificates[0].getSubjectX500Principal().getName(),
+                        cred.certificates[0].getNotAfter(),
+                        cred.creationDate,
+                        count == null ? 0 : count.sum()
+                ));
+            }
+            return ret.toArray(new KeyManagerAliasInfo[0]);
+        }
+
+        @Override
+        public long getCacheRevalidation() {
+            return cacheRevalidation;
+        }
+
+        @Override
+        public long getRebuiltAliases() {
+            return rebuiltAliases.sum();
+        }
+
+        @Override
+        public void revalidate() {
+            // run on the scheduler thread, so it does not overlap with the periodic revalidation
+            try {
+                scheduler.submit(() -> {
+                    revalidateCache();
+                    return null;
+                }).get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException e) {
+                throw new IllegalStateException("Revalidation failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * @return start time for measuring the selection, 0 if metrics are disabled
+     */
+    private long selectionStart() {
+        return metrics == PemKeyStoreMetrics.NONE ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Counts a selection of an alias
+     * @param alias the chosen alias, may be null
+     * @param keyType the requested key type
+     * @param start start time of the selection, from selectionStart
+     * @return the alias
+     */
+    private String selected(String alias, String keyType, long start) {
+        if (alias != null) {
+            LongAdder count = selections.get(alias);
+            if (count == null) {
+                count = selections.computeIfAbsent(alias, a -> new LongAdder());
+            }
+            count.increment();
+            if (metrics != PemKeyStoreMetrics.NONE) {
+                metrics.aliasSelected(alias, keyType, System.nanoTime() - start);
+            }
+        }
+        return alias;
     }
 
 
@@ -108,7 +257,6 @@ public class ExpiringCacheKeyManager extends X509ExtendedKeyManager {
      */
     private void buildCache() throws KeyStoreException, NoSuchAlgorithmException, UnrecoverableKeyException {
 
-        credentialsMap = new HashMap<String,X509Credentials>();
         if (keyStore == null) {
             return;
         }
@@ -123,19 +271,38 @@ public class ExpiringCacheKeyManager extends X509ExtendedKeyManager {
      * Revalidate the cache (called as a scheduled task)
      */
     private void revalidateCache() throws KeyStoreException {
+        // handshakes which chose a replaced generation have had a whole period to finish
+        long expired = System.nanoTime() - TimeUnit.SECONDS.toNanos(cacheRevalidation);
+        for (Retired r = retired.peek(); r != null && r.retiredAt - expired <= 0; r = retired.peek()) {
+            generations.remove(retired.poll().generation);
+        }
+
+        Object event = PemKeyStoreEvents.beginRevalidate();
+        int checked = 0;
+        int rebuilt = 0;
 
         for (Enumeration<String> aliases = keyStore.aliases(); aliases.hasMoreElements(); ) {
             String alias = aliases.nextElement();
+            checked++;
             try {
                 X509Credentials cred = credentialsMap.get(alias);
                 if (cred == null || cred.creationDate.before(keyStore.getCreationDate(alias))) {
                     revalidateAlias(alias);
+                    rebuilt++;
                 }
             }
             catch (KeyStoreException | NoSuchAlgorithmException | UnrecoverableKeyException e) {
                 // erro updating alias, ignore this one
             }
         }
+        // aliases deleted from the key store
+        for (String alias : credentialsMap.keySet()) {
+            if (!keyStore.containsAlias(alias)) {
+                removeAlias(alias);
+                rebuilt++;
+            }
+        }
+        PemKeyStoreEvents.endRevalidate(event, checked, rebuilt);
     }
 
 
@@ -145,18 +312,34 @@ public class ExpiringCacheKeyManager extends X509ExtendedKeyManager {
      */
     private void revalidateAlias(String alias)
             throws KeyStoreException, NoSuchAlgorithmException, UnrecoverableKeyException {
-        if (!keyStore.isKeyEntry(alias)) {
-            credentialsMap.remove(alias);
+        // read the date first, if the entry is replaced meanwhile, the next revalidation picks it up again
+        Date creationDate = keyStore.getCreationDate(alias);
+
+        if (!keyStore.entryInstanceOf(alias, KeyStore.PrivateKeyEntry.class)) {
+            removeAlias(alias);
             return;
         }
-        Key key = keyStore.getKey(alias, keyStorePassword);
-        if (key instanceof PrivateKey == false) {
-            credentialsMap.remove(alias);
+        // key and chain are fetched as one entry, so they belong together even during a reload
+        KeyStore.Entry entry;
+        try {
+            entry = keyStore.getEntry(alias, new KeyStore.PasswordProtection(keyStorePassword));
+        }
+        catch (UnrecoverableKeyException e) {
+            throw e;
+        }
+        catch (UnrecoverableEntryException e) {
+            UnrecoverableKeyException uke = new UnrecoverableKeyException(e.getMessage());
+            uke.initCause(e);
+            throw uke;
+        }
+        if (!(entry instanceof KeyStore.PrivateKeyEntry)) {
+            removeAlias(alias);
             return;
         }
-        Certificate[] certs = keyStore.getCertificateChain(alias);
+        PrivateKey key = ((KeyStore.PrivateKeyEntry) entry).getPrivateKey();
+        Certificate[] certs = ((KeyStore.PrivateKeyEntry) entry).getCertificateChain();
         if ((certs == null) || (certs.length == 0) || !(certs[0] instanceof X509Certificate)) {
-            credentialsMap.remove(alias);
+            removeAlias(alias);
             return;
         }
         if (!(certs instanceof X509Certificate[])) {
@@ -165,14 +348,70 @@ public class ExpiringCacheKeyManager extends X509ExtendedKeyManager {
             certs = tmp;
         }
 
-        Date creationDate = keyStore.getCreationDate(alias);
+        X509Credentials cred = new X509Credentials(lastGeneration.incrementAndGet(), alias, key,
+                (X509Certificate[])certs, creationDate);
+        // resolvable before it can be chosen
+        generations.put(cred.generation, cred);
+        retire(credentialsMap.put(alias, cred));
+        rebuiltAliases.increment();
+        // key types or issuers may have changed
+        serverAliasCache = new ConcurrentHashMap<>();
+    }
 
-        X509Credentials cred = new X509Credentials((PrivateKey)key, (X509Certificate[])certs, creationDate);
-        credentialsMap.put(alias, cred);
+    /**
+     * Removes an alias from the cache
+     * @param alias the alias to remove
+     */
+    private void removeAlias(String alias) {
+        X509Credentials cred = credentialsMap.remove(alias);
+        if (cred != null) {
+            retire(cred);
+            serverAliasCache = new ConcurrentHashMap<>();
+        }
+    }
+
+    /**
+     * Keeps replaced credentials resolvable by their generation for a revalidation period
+     * @param cred the replaced credentials, may be null
+     */
+    private void retire(X509Credentials cred) {
+        if (cred != null) {
+            retired.add(new Retired(cred.generation, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Resolves an alias returned by the choose methods, or a plain alias
+     * @param alias "generation.alias" for the credentials of that generation, otherwise the alias of the
+     *              current credentials
+     * @return the credentials, or null if unknown
+     */
+    private X509Credentials credentials(String alias) {
+        int dot = alias.indexOf('.');
+        if (dot > 0 && dot <= 18) {
+            long generation = 0;
+            for (int i = 0; i < dot && generation >= 0; i++) {
+                char c = alias.charAt(i);
+                generation = c >= '0' && c <= '9' ? generation * 10 + (c - '0') : -1;
+            }
+            X509Credentials cred = generation > 0 ? generations.get(generation) : null;
+            if (cred != null && cred.handle.equals(alias)) return cred;
+        }
+        return credentialsMap.get(alias);
+    }
+
+    /**
+     * @param alias a plain alias, may be null
+     * @return the alias with the generation of its current credentials, null if the alias is null or removed
+     */
+    private String handle(String alias) {
+        X509Credentials cred = alias == null ? null : credentialsMap.get(alias);
+        return cred == null ? null : cred.handle;
     }
 
     /*
-     * Returns the certificate chain associated with the given alias.
+     * Returns the certificate chain associated with the given alias,
+     * of the generation chosen if the alias was returned by a choose method.
      *
      * @return the certificate chain (ordered with the user's certificate first
      * and the root certificate authority last)
@@ -182,7 +421,7 @@ public class ExpiringCacheKeyManager extends X509ExtendedKeyManager {
         if (alias == null) {
             return null;
         }
-        X509Credentials cred = credentialsMap.get(alias);
+        X509Credentials cred = credentials(alias);
         if (cred == null) {
             return null;
         } else {
@@ -191,14 +430,15 @@ public class ExpiringCacheKeyManager extends X509ExtendedKeyManager {
     }
 
     /*
-     * Returns the key associated with the given alias
+     * Returns the key associated with the given alias,
+     * of the generation chosen if the alias was returned by a choose method.
      */
     @Override
     public PrivateKey getPrivateKey(String alias) {
         if (alias == null) {
             return null;
         }
-        X509Credentials cred = credentialsMap.get(alias);
+        X509Credentials cred = credentials(alias);
         if (cred == null) {
             return null;
         } else {
@@ -224,10 +464,11 @@ public class ExpiringCacheKeyManager extends X509ExtendedKeyManager {
             return null;
         }
 
+        long start = selectionStart();
         for (int i = 0; i < keyTypes.length; i++) {
             String[] aliases = getClientAliases(keyTypes[i], issuers);
             if ((aliases != null) && (aliases.length > 0)) {
-                return aliases[0];
+                return handle(selected(aliases[0], keyTypes[i], start));
             }
         }
         return null;
@@ -267,25 +508,28 @@ public class ExpiringCacheKeyManager extends X509ExtendedKeyManager {
             return null;
         }
 
+        long start = selectionStart();
         String[] aliases;
 
         if (issuers == null || issuers.length == 0) {
-            aliases = serverAliasCache.get(keyType);
+            Map<String,String[]> cache = serverAliasCache;
+            aliases = cache.get(keyType);
             if (aliases == null) {
                 aliases = getServerAliases(keyType, issuers);
                 // Cache the result (positive and negative lookups)
                 if (aliases == null) {
                     aliases = STRING0;
                 }
-                serverAliasCache.put(keyType, aliases);
+                cache.put(keyType, aliases);
             }
         } else {
             aliases = getServerAliases(keyType, issuers);
         }
-        if ((aliases != null) && (aliases.length > 0)) {
-            return aliases[0];
+        String chosen = ((aliases != null) && (aliases.length > 0)) ? aliases[0] : null;
+        if (PemKeyStoreEvents.sampleAliasSelection()) {
+            PemKeyStoreEvents.aliasSelection(keyType, aliases == null ? 0 : aliases.length, chosen);
         }
-        return null;
+        return handle(selected(chosen, keyType, start));
     }
 
     /*
@@ -390,8 +634,7 @@ public class ExpiringCacheKeyManager extends X509ExtendedKeyManager {
                 // no issuer specified, match all
                 aliases.add(alias);
             } else {
-                Set<X500Principal> certIssuers =
-                        credentials.getIssuerX500Principals();
+                Set<X500Principal> certIssuers = credentials.issuerX500Principals;
                 for (int i = 0; i < x500Issuers.length; i++) {
                     if (certIssuers.contains(issuers[i])) {
                         aliases.add(alias);
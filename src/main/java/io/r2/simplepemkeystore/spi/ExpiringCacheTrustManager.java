@@ -0,0 +1,170 @@
+package io.r2.simplepemkeystore.spi;
+
+import io.r2.simplepemkeystore.ExpiringCacheTrustManagerParameters;
+
+import javax.net.ssl.X509TrustManager;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.*;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A trust manager with an expiring cache of trust anchors
+ * The anchors are read from the certificate entries (entries without private key) of the key store.
+ *
+ * After the specified revalidation time all creation dates are checked in the key store, and if any of them
+ * changed, the anchors are rebuilt and swapped atomically. A validation always works from a single set of anchors.
+ *
+ * Certificates are checked against the revocation lists (CrlEntry entries) of the same key store, which are
+ * reloaded together with the anchors. A CRL is only used if it is signed by the issuer in the validated path,
+ * and a certificate is rejected if all CRLs of its issuer are past their nextUpdate.
+ *
+ * Successfully validated chains are cached (keyed by chain digest and anchor generation), so repeated handshakes
+ * from known peers skip the signature verification. The cache is cleared whenever the anchors are reloaded, and
+ * entries expire when a CRL they were checked against becomes stale.
+ *
+ * Note: this is intentionally a plain X509TrustManager, so JSSE wraps it with the endpoint identification
+ * and algorithm constraints checks.
+ */
+public class ExpiringCacheTrustManager implements X509TrustManager {
+
+    /** The current cache revalidation time */
+    private long cacheRevalidation;
+    /** The underlying keystore */
+    private KeyStore keyStore;
+
+    /** scheduler for the cache refreshing task, on a virtual thread on Java 21 */
+    private final ScheduledExecutorService scheduler = BackgroundThreads.scheduler("simplepemreload-trustmanager");
+
+    /** The current trust anchors */
+    private volatile TrustAnchorIndex anchors;
+
+    /** Cache of validated chains, null if disabled */
+    private final ValidatedChainCache validatedChains;
+
+    ExpiringCacheTrustManager(ExpiringCacheTrustManagerParameters params) throws KeyStoreException {
+
+        cacheRevalidation = params.getCacheRevalidation();
+        keyStore = params.getKeyStore();
+        if (keyStore == null) throw new KeyStoreException("Key store with trusted certificates is required");
+        validatedChains = params.getValidationCacheSize() > 0 ? new ValidatedChainCache(params.getValidationCacheSize()) : null;
+
+        anchors = TrustAnchorIndex.build(keyStore, 0);
+
+        // set up a scheduled task for cache rebuilding
+        scheduler.scheduleAtFixedRate(()->{
+            try {
+                revalidateCache();
+            }
+            catch (Exception e) {
+                // cache rebuild failed, keep the old one quietly
+            }
+        }, cacheRevalidation, cacheRevalidation, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the cache revalidation
+     * The current anchors stay usable, for handshakes still running with this trust manager.
+     */
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Revalidate the cache (called as a scheduled task)
+     */
+    private void revalidateCache() throws KeyStoreException {
+        TrustAnchorIndex current = anchors;
+        if (!current.isCurrent(keyStore)) {
+            anchors = TrustAnchorIndex.build(keyStore, current.getGeneration() + 1);
+            // entries of the old generation can never match again, free them immediately
+            if (validatedChains != null) validatedChains.clear();
+        }
+    }
+
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        validate(chain);
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        validate(chain);
+    }
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+        return anchors.getAcceptedIssuers().clone();
+    }
+
+    /**
+     * Validates a certificate chain against the current trust anchors
+     *
+     * @param chain the peer certificate chain, leaf first
+     * @throws CertificateException if the chain is not trusted
+     */
+    private void validate(X509Certificate[] chain) throws CertificateException {
+        if (chain == null || chain.length == 0) {
+            throw new IllegalArgumentException("Certificate chain must not be empty");
+        }
+        TrustAnchorIndex index = anchors;
+
+        ValidatedChainCache.ChainKey key = null;
+        if (validatedChains != null) {
+            key = ValidatedChainCache.key(chain, index.getGeneration());
+            if (validatedChains.contains(key, System.currentTimeMillis())) return;
+        }
+
+        // the path ends before the first certificate which is an anchor itself
+        int length = chain.length;
+        for (int i = 0; i < chain.length; i++) {
+            if (index.isTrusted(chain[i])) {
+                length = i;
+                break;
+            }
+        }
+
+        if (length == 0) {
+            // leaf is trusted directly
+            chain[0].checkValidity();
+            if (key != null) validatedChains.put(key, chain, Long.MAX_VALUE);
+            return;
+        }
+
+        X509Certificate last = chain[length - 1];
+        Set<TrustAnchor> issuers = index.findIssuers(last);
+        if (issuers.isEmpty()) {
+            throw new CertificateException("No trusted certificate found for issuer: " + last.getIssuerX500Principal());
+        }
+
+        TrustAnchor anchor;
+        try {
+            CertPath path = CertificateFactory.getInstance("X.509")
+                    .generateCertPath(Arrays.asList(chain).subList(0, length));
+            PKIXParameters params = new PKIXParameters(issuers);
+            params.setRevocationEnabled(false);
+            anchor = ((PKIXCertPathValidatorResult) CertPathValidator.getInstance("PKIX").validate(path, params)).getTrustAnchor();
+        }
+        catch (CertPathValidatorException | InvalidAlgorithmParameterException | NoSuchAlgorithmException e) {
+            throw new CertificateException("Certificate chain validation failed", e);
+        }
+
+        // revocation lists are verified with the issuer keys of the validated path
+        Date now = new Date();
+        long until = Long.MAX_VALUE;
+        for (int i = 0; i < length; i++) {
+            PublicKey issuerKey = i + 1 < length ? chain[i + 1].getPublicKey() : anchor.getTrustedCert().getPublicKey();
+            until = Math.min(until, index.checkRevocation(chain[i], issuerKey, now));
+        }
+
+        if (key != null) validatedChains.put(key, chain, until);
+    }
+
+}
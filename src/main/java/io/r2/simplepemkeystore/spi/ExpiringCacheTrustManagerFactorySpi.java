@@ -0,0 +1,53 @@
+package io.r2.simplepemkeystore.spi;
+
+import io.r2.simplepemkeystore.ExpiringCacheTrustManagerParameters;
+
+import javax.net.ssl.ManagerFactoryParameters;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactorySpi;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+
+/**
+ * A trust manager factory with an expiring internal cache, so trusted certificates can be reloaded
+ * The main worker class is in ExpiringCacheTrustManager, this is just a wrapper
+ */
+public class ExpiringCacheTrustManagerFactorySpi extends TrustManagerFactorySpi {
+
+    protected TrustManager trustManager = null;
+
+    @Override
+    protected void engineInit(KeyStore keyStore) throws KeyStoreException {
+        trustManager = new ExpiringCacheTrustManager(
+                ExpiringCacheTrustManagerParameters.forKeyStore(keyStore)
+        );
+    }
+
+    /**
+     * Initializes trust manager with a special parameter object, which may contain revalidation time
+     *
+     * @param params must be instance of ExpiringCacheTrustManagerParameters
+     * @throws InvalidAlgorithmParameterException if params is not correct type
+     */
+    @Override
+    protected void engineInit(ManagerFactoryParameters params) throws InvalidAlgorithmParameterException {
+        if (params instanceof ExpiringCacheTrustManagerParameters == false)
+            throw new InvalidAlgorithmParameterException("Parameters must be instance of ExpiringCacheTrustManagerParameters");
+        ExpiringCacheTrustManagerParameters inParams = (ExpiringCacheTrustManagerParameters)params;
+        if (inParams.getCacheRevalidation() < 5)
+            throw new InvalidAlgorithmParameterException("Cache expiration time must be at least 5 seconds");
+        try {
+            trustManager = new ExpiringCacheTrustManager(inParams);
+        }
+        catch (KeyStoreException e) {
+            throw new InvalidAlgorithmParameterException(e);
+        }
+    }
+
+    @Override
+    protected TrustManager[] engineGetTrustManagers() {
+        if (trustManager == null) throw new IllegalStateException("Not initialized");
+        return new TrustManager[] { trustManager };
+    }
+}
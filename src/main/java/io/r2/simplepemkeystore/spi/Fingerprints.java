@@ -0,0 +1,51 @@
+package io.r2.simplepemkeystore.spi;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Digest and hex encoding helpers for certificate and file fingerprints
+ * Note: intentionally defined as package access only
+ */
+final class Fingerprints {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Fingerprints() {
+    }
+
+    /**
+     * @return a new SHA-256 message digest
+     */
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            // SHA-256 is mandatory in every java implementation
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param data input bytes
+     * @return SHA-256 digest of the input as lowercase hex
+     */
+    static String sha256Hex(byte[] data) {
+        return toHex(sha256().digest(data));
+    }
+
+    /**
+     * @param bytes input bytes
+     * @return lowercase hex representation
+     */
+    static String toHex(byte[] bytes) {
+        char[] ret = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            ret[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+            ret[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(ret);
+    }
+
+}
@@ -0,0 +1,58 @@
+package io.r2.simplepemkeystore.spi;
+
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registers MXBeans of key stores and key managers in the platform MBean server
+ * Note: intentionally defined as package access only
+ */
+final class ManagementSupport {
+
+    static final String DOMAIN = "io.r2.simplepemkeystore";
+
+    private static final AtomicLong ids = new AtomicLong();
+
+    private ManagementSupport() {
+    }
+
+    /**
+     * Registers an MXBean as DOMAIN:type=(type),id=(next id)
+     * Registration failures are ignored, management is not essential for operation.
+     *
+     * @param type the type in the object name
+     * @param mxbeanInterface the management interface
+     * @param implementation the implementation of the interface
+     * @param <T> type of the management interface
+     * @return the registered name, or null if registration failed
+     */
+    static <T> ObjectName register(String type, Class<T> mxbeanInterface, T implementation) {
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=" + type + ",id=" + ids.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(implementation, mxbeanInterface, true), name);
+            return name;
+        }
+        catch (Exception | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Removes a registration, failures are ignored
+     *
+     * @param name the registered name, null is ignored
+     */
+    static void unregister(ObjectName name) {
+        if (name == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+        catch (Exception | LinkageError e) {
+            // already removed
+        }
+    }
+
+}
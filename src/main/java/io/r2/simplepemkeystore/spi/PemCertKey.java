@@ -7,9 +7,12 @@ import java.security.Key;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
+import java.security.cert.CRLException;
 import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
 import java.security.spec.PKCS8EncodedKeySpec;
@@ -19,7 +22,7 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 /**
- * A certificate chain and private key read from PEM
+ * A certificate chain, private key and certificate revocation lists read from PEM
  * Note: intentionally defined as package access only
  */
 class PemCertKey {
@@ -27,21 +30,30 @@ class PemCertKey {
     public static String META_KEY_ALIAS = "alias";
     public static String META_KEY_CREATIONDATE = "creationdate";
 
+    /** alias of entries without alias metadata */
+    static final String DEFAULT_ALIAS = "server";
+
     protected String alias;
     protected Date creationDate;
     protected Map<String, String> metaData;
     protected Key privateKey;
     protected List<Certificate> certificateChain;
     protected Certificate[] certificateChainPacked;
+    protected List<X509CRL> crls;
+    protected String fingerprint;
+    protected String sourceFingerprint;
+    protected String contentHash;
+    protected String blockDigest;
 
     /**
      * Create an empty object, for adding fields later
      */
     public PemCertKey() {
-        alias = "server"; // default alias
+        alias = DEFAULT_ALIAS;
         creationDate = new Date();
         privateKey = null;
         certificateChain = new ArrayList<>();
+        crls = new ArrayList<>();
         metaData = new HashMap<>();
     }
 
@@ -52,6 +64,16 @@ class PemCertKey {
     public PemCertKey build() {
         // put to packed structure
         certificateChainPacked = certificateChain.toArray(new Certificate[0]);
+        crls = Collections.unmodifiableList(new ArrayList<>(crls));
+        fingerprint = null;
+        if (certificateChainPacked.length > 0) {
+            try {
+                fingerprint = Fingerprints.sha256Hex(certificateChainPacked[0].getEncoded());
+            }
+            catch (CertificateEncodingException e) {
+                // certificate was decoded from this encoding, should not happen
+            }
+        }
         return this;
     }
 
@@ -114,6 +136,52 @@ class PemCertKey {
         }
     }
 
+    /**
+     * Sets the private key from its PKCS#8 encoding
+     *
+     * @param algorithm the key algorithm
+     * @param pkcs8 the encoded key
+     * @throws CertificateException if key already exists
+     * @throws NoSuchAlgorithmException if the key can't be decoded
+     */
+    public void setPrivateKey(String algorithm, byte[] pkcs8) throws CertificateException, NoSuchAlgorithmException {
+        if (privateKey != null) throw new CertificateException("More than one private key in input");
+        try {
+            privateKey = KeyFactory.getInstance(algorithm).generatePrivate(new PKCS8EncodedKeySpec(pkcs8));
+        }
+        catch (InvalidKeySpecException e) {
+            throw new NoSuchAlgorithmException(e);
+        }
+    }
+
+    /**
+     * Sets the private key
+     *
+     * @param key the private key
+     * @throws CertificateException if key already exists
+     */
+    public void setPrivateKey(Key key) throws CertificateException {
+        if (privateKey != null) throw new CertificateException("More than one private key in input");
+        privateKey = key;
+    }
+
+    /**
+     * Add a new certificate to the chain
+     * @param certificate the certificate
+     */
+    public void addCertificate(Certificate certificate) {
+        certificateChain.add(certificate);
+    }
+
+    /**
+     * Add a new certificate to the chain
+     * @param der the DER encoded certificate
+     */
+    public void addCertificate(byte[] der) throws CertificateException {
+        CertificateFactory cf = CertificateFactory.getInstance("X.509");
+        certificateChain.add(cf.generateCertificate(new ByteArrayInputStream(der)));
+    }
+
     /**
      * Add a new certificate to the chain
      * @param chunk the chunk containing certificate
@@ -126,6 +194,45 @@ class PemCertKey {
         certificateChain.add(cf.generateCertificate(is));
     }
 
+    /**
+     * Add a new certificate revocation list
+     * @param chunk the chunk containing the CRL
+     */
+    public void addCrl(List<String> chunk) throws CertificateException {
+        InputStream is = new ByteArrayInputStream(
+                String.join("\n", chunk).getBytes(StandardCharsets.UTF_8)
+        );
+        CertificateFactory cf = CertificateFactory.getInstance("X.509");
+        try {
+            crls.add((X509CRL) cf.generateCRL(is));
+        }
+        catch (CRLException e) {
+            throw new CertificateException(e);
+        }
+    }
+
+    /**
+     * Add a new certificate revocation list
+     * @param crl the decoded CRL
+     */
+    public void addCrl(X509CRL crl) {
+        crls.add(crl);
+    }
+
+    /**
+     * Add a new certificate revocation list
+     * @param der the DER encoded CRL
+     */
+    public void addCrl(byte[] der) throws CertificateException {
+        CertificateFactory cf = CertificateFactory.getInstance("X.509");
+        try {
+            crls.add((X509CRL) cf.generateCRL(new ByteArrayInputStream(der)));
+        }
+        catch (CRLException e) {
+            throw new CertificateException(e);
+        }
+    }
+
     /**
      * Gets the alias of this certificate
      * @return alias of certificate
@@ -192,6 +299,58 @@ class PemCertKey {
         return certificateChainPacked.length > 0 ? certificateChainPacked[0] : null;
     }
 
+    /**
+     * @return SHA-256 fingerprint (lowercase hex) of the certificate, or null if there is no certificate
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return fingerprint of the source files this entry was loaded from, or null if unknown
+     */
+    public String getSourceFingerprint() {
+        return sourceFingerprint;
+    }
+
+    /**
+     * Sets the fingerprint of the source files, used to validate snapshots
+     * @param sourceFingerprint the fingerprint
+     */
+    public void setSourceFingerprint(String sourceFingerprint) {
+        this.sourceFingerprint = sourceFingerprint;
+    }
+
+    /**
+     * @return SHA-256 hex of the concatenated source files, or null if unknown
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Sets the hash of the source contents, used to compare with a manifest
+     * @param contentHash the hash
+     */
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @return SHA-256 hex of the PEM block this entry was decoded from, or null if unknown
+     */
+    public String getBlockDigest() {
+        return blockDigest;
+    }
+
+    /**
+     * Sets the digest of the PEM block, used to skip decoding unchanged entries on reload
+     * @param blockDigest the digest
+     */
+    public void setBlockDigest(String blockDigest) {
+        this.blockDigest = blockDigest;
+    }
+
     /**
      * @return true if input has a key
      */
@@ -206,6 +365,20 @@ class PemCertKey {
         return certificateChainPacked.length > 0;
     }
 
+    /**
+     * @return true if input has certificate revocation lists
+     */
+    public boolean hasCrl() {
+        return !crls.isEmpty();
+    }
+
+    /**
+     * @return the certificate revocation lists, in input order
+     */
+    public List<X509CRL> getCrls() {
+        return crls;
+    }
+
     /**
      * @return true if parameter certificate matches this one
      */
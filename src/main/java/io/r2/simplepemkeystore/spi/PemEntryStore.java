@@ -0,0 +1,151 @@
+package io.r2.simplepemkeystore.spi;
+
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * The entries of a key store by alias, with an index of the aliases by certificate fingerprint
+ * Writers are serialized, readers are lock free: the new fingerprint is indexed before the old one is
+ * removed, and lookups verify the entry, so a concurrent lookup never misses or returns a stale alias.
+ * Note: intentionally defined as package access only
+ */
+class PemEntryStore {
+
+    private final Map<String, PemCertKey> entries = new ConcurrentHashMap<>();
+
+    /** aliases indexed by the SHA-256 fingerprint of their certificate */
+    private final Map<String, Set<String>> aliasesByFingerprint = new ConcurrentHashMap<>();
+
+    /**
+     * @param alias the alias
+     * @return the entry, or null if there is none
+     */
+    PemCertKey get(String alias) {
+        return entries.get(alias);
+    }
+
+    /**
+     * Adds or replaces an entry and updates the fingerprint index
+     *
+     * @param alias the alias of the entry
+     * @param entry the new entry
+     * @return the replaced entry, or null
+     */
+    synchronized PemCertKey put(String alias, PemCertKey entry) {
+        return store(alias, entry);
+    }
+
+    /**
+     * Adds or replaces several entries in one write, other writers never run in between
+     *
+     * @param newEntries the new entries by alias
+     * @return the replaced entries by alias, null for new aliases
+     */
+    synchronized Map<String, PemCertKey> putAll(Map<String, PemCertKey> newEntries) {
+        Map<String, PemCertKey> replaced = new HashMap<>();
+        for (Map.Entry<String, PemCertKey> e : newEntries.entrySet()) {
+            replaced.put(e.getKey(), store(e.getKey(), e.getValue()));
+        }
+        return replaced;
+    }
+
+    private PemCertKey store(String alias, PemCertKey entry) {
+        PemCertKey old = entries.put(alias, entry);
+        String fingerprint = entry.getFingerprint();
+        if (fingerprint != null) {
+            aliasesByFingerprint.computeIfAbsent(fingerprint, (k) -> ConcurrentHashMap.newKeySet()).add(alias);
+        }
+        if (old != null && old.getFingerprint() != null && !old.getFingerprint().equals(fingerprint)) {
+            unindex(alias, old.getFingerprint());
+        }
+        return old;
+    }
+
+    /**
+     * Removes an entry and updates the fingerprint index
+     *
+     * @param alias the alias of the entry
+     * @return the removed entry, or null
+     */
+    synchronized PemCertKey remove(String alias) {
+        PemCertKey old = entries.remove(alias);
+        if (old != null && old.getFingerprint() != null) {
+            unindex(alias, old.getFingerprint());
+        }
+        return old;
+    }
+
+    private void unindex(String alias, String fingerprint) {
+        aliasesByFingerprint.computeIfPresent(fingerprint, (k, aliases) -> {
+            aliases.remove(alias);
+            return aliases.isEmpty() ? null : aliases;
+        });
+    }
+
+    /**
+     * Removes all entries
+     */
+    synchronized void clear() {
+        entries.clear();
+        aliasesByFingerprint.clear();
+    }
+
+    /**
+     * @return view of the aliases
+     */
+    Set<String> aliases() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * @return view of the entries
+     */
+    Collection<PemCertKey> values() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * @return number of entries
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return true if there are no entries
+     */
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Finds an alias with the certificate
+     *
+     * @param cert the certificate
+     * @param lookup returns the entry of an indexed alias, which must match the certificate
+     * @return the alias, or null if not found
+     */
+    String findAlias(Certificate cert, Function<String, PemCertKey> lookup) {
+        String fingerprint;
+        try {
+            fingerprint = Fingerprints.sha256Hex(cert.getEncoded());
+        }
+        catch (CertificateEncodingException e) {
+            return null;
+        }
+        Set<String> aliases = aliasesByFingerprint.get(fingerprint);
+        if (aliases == null) return null;
+        for (String alias : aliases) {
+            PemCertKey certKey = lookup.apply(alias);
+            if (certKey != null && certKey.matchesCertificate(cert)) return alias;
+        }
+        return null;
+    }
+}
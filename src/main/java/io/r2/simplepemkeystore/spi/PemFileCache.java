@@ -0,0 +1,222 @@
+package io.r2.simplepemkeystore.spi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509CRL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of decoded PEM files for the reloading key store, shared by all aliases
+ *
+ * Files are keyed by path and validated by size, modification time and file key, so a file used by several aliases
+ * (eg. a shared chain or a fullchain.pem under several aliases) is read and decoded once per change, and the entries
+ * share the decoded certificate and key objects. File attributes are memoized within a refresh cycle, so a file is
+ * stat'ed once per cycle, whatever the number of aliases referencing it. After a full refresh cycle, the files it has
+ * not visited are pruned (see prune), so files no longer referenced or no longer readable do not stay in memory.
+ *
+ * Each file is parsed on its own, so PEM blocks and metadata can't span files; a missing newline at the end of a file
+ * does not matter.
+ * Note: intentionally defined as package access only
+ */
+class PemFileCache {
+
+    private final Map<String, CachedFile> files = new ConcurrentHashMap<>();
+
+    /** keep the raw contents, for hashing the concatenated files */
+    private final boolean keepContents;
+
+    /**
+     * @param keepContents keep the raw file contents as well, required for Loaded.getContents
+     */
+    PemFileCache(boolean keepContents) {
+        this.keepContents = keepContents;
+    }
+
+    /**
+     * A version of a file, decoded
+     */
+    private static final class Decoded {
+        final String stamp;
+        /** the decoded entry, null if the file has no PEM blocks */
+        final PemCertKey entry;
+        final boolean hasMetaData;
+        final byte[] contents;
+
+        Decoded(String stamp, PemCertKey entry, boolean hasMetaData, byte[] contents) {
+            this.stamp = stamp;
+            this.entry = entry;
+            this.hasMetaData = hasMetaData;
+            this.contents = contents;
+        }
+    }
+
+    /**
+     * Cache slot of a file, the lock makes concurrent loads of the same file decode it once
+     */
+    private static final class CachedFile {
+        Decoded decoded;
+    }
+
+    /**
+     * Result of loading the files of an alias
+     */
+    static final class Loaded {
+        private final PemCertKey entry;
+        private final long parsedBytes;
+        private final byte[] contents;
+
+        Loaded(PemCertKey entry, long parsedBytes, byte[] contents) {
+            this.entry = entry;
+            this.parsedBytes = parsedBytes;
+            this.contents = contents;
+        }
+
+        /**
+         * @return a new entry of the combined files, sharing the decoded objects
+         */
+        PemCertKey getEntry() {
+            return entry;
+        }
+
+        /**
+         * @return number of bytes read and parsed by this load, 0 if all files came from the cache
+         */
+        long getParsedBytes() {
+            return parsedBytes;
+        }
+
+        /**
+         * @return the concatenated contents of the files, null if the cache does not keep contents
+         */
+        byte[] getContents() {
+            return contents;
+        }
+    }
+
+    /**
+     * A refresh cycle: the attributes of a file are read once, and reused for all aliases checked in the cycle
+     */
+    final class Cycle {
+        private final Map<String, BasicFileAttributes> attributes = new ConcurrentHashMap<>();
+
+        private Cycle() {
+        }
+
+        /**
+         * @param files list of files
+         * @return attributes of the files, in the same order
+         * @throws IOException on input error
+         */
+        BasicFileAttributes[] stat(String[] files) throws IOException {
+            BasicFileAttributes[] ret = new BasicFileAttributes[files.length];
+            for (int i = 0; i < files.length; i++) {
+                ret[i] = stat(files[i]);
+            }
+            return ret;
+        }
+
+        private BasicFileAttributes stat(String file) throws IOException {
+            BasicFileAttributes attr = attributes.get(file);
+            if (attr == null) {
+                attr = Files.readAttributes(new File(file).toPath(), BasicFileAttributes.class);
+                attributes.put(file, attr);
+            }
+            return attr;
+        }
+
+        /**
+         * Loads the files of an alias, decoding only the files changed since they were cached
+         * The files are combined as if they were concatenated: they must form a single entry.
+         *
+         * @param files list of files
+         * @return the combined entry, not built with alias and creation date yet
+         * @throws IOException on input error
+         * @throws CertificateException on format error
+         * @throws NoSuchAlgorithmException when required cryptographic algorithms are missing
+         */
+        Loaded load(String[] files) throws IOException, CertificateException, NoSuchAlgorithmException {
+            PemCertKey ret = new PemCertKey();
+            ByteArrayOutputStream contents = keepContents ? new ByteArrayOutputStream() : null;
+            long parsedBytes = 0;
+            boolean hasChunks = false;
+            for (String file : files) {
+                BasicFileAttributes attr = stat(file);
+                // the file key detects an atomic replace with the same size and time
+                String stamp = attr.size() + "/" + attr.lastModifiedTime().toMillis() + "/" + attr.fileKey();
+                CachedFile slot = PemFileCache.this.files.computeIfAbsent(file, f -> new CachedFile());
+                Decoded decoded;
+                synchronized (slot) {
+                    decoded = slot.decoded;
+                    if (decoded == null || !decoded.stamp.equals(stamp)) {
+                        byte[] bytes = Files.readAllBytes(new File(file).toPath());
+                        decoded = decode(stamp, bytes);
+                        slot.decoded = decoded;
+                        parsedBytes += bytes.length;
+                    }
+                }
+                if (contents != null) contents.write(decoded.contents);
+                if (decoded.entry == null) continue;
+
+                // metadata after a PEM block would start a new entry
+                if (decoded.hasMetaData && hasChunks) {
+                    throw new CertificateException("Input must contain exactly one certificate");
+                }
+                if (decoded.hasMetaData) ret.setMetaData(new HashMap<>(decoded.entry.getMetaData()));
+                for (Certificate cert : decoded.entry.getCertificateChain()) {
+                    ret.addCertificate(cert);
+                }
+                if (decoded.entry.hasKey()) {
+                    try {
+                        ret.setPrivateKey(decoded.entry.getPrivateKey());
+                    }
+                    catch (UnrecoverableKeyException e) {
+                        // keys are not protected, not thrown
+                        throw new CertificateException(e);
+                    }
+                }
+                for (X509CRL crl : decoded.entry.getCrls()) {
+                    ret.addCrl(crl);
+                }
+                hasChunks = true;
+            }
+            if (!hasChunks) throw new CertificateException("Input must contain exactly one certificate");
+            return new Loaded(ret.build(), parsedBytes, contents == null ? null : contents.toByteArray());
+        }
+    }
+
+    /**
+     * @return a new refresh cycle
+     */
+    Cycle newCycle() {
+        return new Cycle();
+    }
+
+    /**
+     * Removes the files not visited by a full refresh cycle
+     * A load running concurrently in another cycle still completes, its file is decoded again the next time.
+     *
+     * @param cycle a completed cycle over all aliases
+     */
+    void prune(Cycle cycle) {
+        files.keySet().retainAll(cycle.attributes.keySet());
+    }
+
+    private Decoded decode(String stamp, byte[] bytes) throws IOException, CertificateException, NoSuchAlgorithmException {
+        List<PemStreamParser.EntryBlock> blocks = PemStreamParser.frameCertificateList(new ByteArrayInputStream(bytes));
+        if (blocks.size() > 1) throw new CertificateException("Input must contain exactly one certificate");
+        PemCertKey entry = blocks.isEmpty() ? null : blocks.get(0).decode();
+        boolean hasMetaData = !blocks.isEmpty() && blocks.get(0).hasMetaData();
+        return new Decoded(stamp, entry, hasMetaData, keepContents ? bytes : null);
+    }
+}
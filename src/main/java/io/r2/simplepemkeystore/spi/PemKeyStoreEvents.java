@@ -0,0 +1,87 @@
+package io.r2.simplepemkeystore.spi;
+
+/**
+ * Diagnostic events for parsing, reloading and alias selection
+ *
+ * This is the no-op version for Java 9 and 10. The multi-release jar contains a Java 11 version
+ * (src/main/java11), which emits Java Flight Recorder events.
+ * Methods returning an event object return null when the event is disabled, the end methods accept null.
+ * Note: intentionally defined as package access only
+ */
+final class PemKeyStoreEvents {
+
+    private PemKeyStoreEvents() {
+    }
+
+    /**
+     * @return parse event in progress, or null if disabled
+     */
+    static Object beginParse() {
+        return null;
+    }
+
+    /**
+     * @param event the event returned by beginParse
+     * @param bytes number of characters read
+     * @param chunks number of PEM blocks
+     */
+    static void endParse(Object event, long bytes, int chunks) {
+    }
+
+    /**
+     * @param alias the alias being refreshed
+     * @return refresh event in progress, or null if disabled
+     */
+    static Object beginRefresh(String alias) {
+        return null;
+    }
+
+    /**
+     * @param event the event returned by beginRefresh
+     * @param changed true if the entry has been reloaded
+     * @param decodeNanos time spent parsing the files
+     * @param failure failure reason, null on success
+     */
+    static void endRefresh(Object event, boolean changed, long decodeNanos, String failure) {
+    }
+
+    /**
+     * @return key manager revalidation event in progress, or null if disabled
+     */
+    static Object beginRevalidate() {
+        return null;
+    }
+
+    /**
+     * @param event the event returned by beginRevalidate
+     * @param aliases number of aliases checked
+     * @param rebuilt number of aliases rebuilt
+     */
+    static void endRevalidate(Object event, int aliases, int rebuilt) {
+    }
+
+    /**
+     * @return true if the current alias selection should be recorded
+     */
+    static boolean sampleAliasSelection() {
+        return false;
+    }
+
+    /**
+     * @param keyType the requested key type
+     * @param candidates number of matching aliases
+     * @param chosen the chosen alias, may be null
+     */
+    static void aliasSelection(String keyType, int candidates, String chosen) {
+    }
+
+    /**
+     * @param alias the alias of the expiring certificate
+     * @param subject subject of the certificate
+     * @param notAfter expiration time in epoch millis
+     * @param threshold the crossed warning threshold, in seconds
+     */
+    static void expiryWarning(String alias, String subject, long notAfter, long threshold) {
+    }
+
+}
@@ -0,0 +1,241 @@
+package io.r2.simplepemkeystore.spi;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.CRLException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509CRL;
+import java.util.*;
+
+/**
+ * Compact binary snapshot of key store entries, so a restart does not have to go through PEM parsing again
+ *
+ * All numbers are big endian, strings are length prefixed UTF-8, binary blobs are length prefixed DER.
+ * Format:
+ *   magic "SPKS", int version
+ *   int entry count, then for each entry:
+ *     string alias, long creation date (epoch millis), string source fingerprint (empty if unknown)
+ *     int metadata count, string key / string value pairs
+ *     int certificate count, certificate DER blobs
+ *     string key algorithm (empty if no key), PKCS#8 key blob (if algorithm is not empty)
+ *     int CRL count, CRL DER blobs
+ *
+ * Note: private keys are stored unencrypted, same as in the PEM sources, so the snapshot file must be protected
+ * the same way as the key files.
+ * Note: intentionally defined as package access only
+ */
+class PemKeyStoreSnapshot {
+
+    private static final byte[] MAGIC = { 'S', 'P', 'K', 'S' };
+    private static final int VERSION = 1;
+
+    private PemKeyStoreSnapshot() {
+    }
+
+    /**
+     * Checks if the input starts with the snapshot magic
+     * The stream must support mark/reset, the position is not changed.
+     *
+     * @param in the input stream
+     * @return true if the input is a snapshot
+     * @throws IOException on input error
+     */
+    static boolean isSnapshot(InputStream in) throws IOException {
+        in.mark(MAGIC.length);
+        byte[] header = new byte[MAGIC.length];
+        int len = 0;
+        int read;
+        while (len < header.length && (read = in.read(header, len, header.length - len)) > 0) {
+            len += read;
+        }
+        in.reset();
+        return len == MAGIC.length && Arrays.equals(header, MAGIC);
+    }
+
+    /**
+     * Writes the entries as snapshot
+     *
+     * @param out the output, not closed
+     * @param entries entries to write
+     * @throws IOException on output error
+     * @throws CertificateException if a certificate or CRL can't be encoded
+     */
+    static void write(OutputStream out, Collection<PemCertKey> entries) throws IOException, CertificateException {
+        List<PemCertKey> list = new ArrayList<>(entries);
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.write(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(list.size());
+        for (PemCertKey entry : list) {
+            writeString(data, entry.getAlias());
+            data.writeLong(entry.getCreationDate().getTime());
+            writeString(data, entry.getSourceFingerprint() == null ? "" : entry.getSourceFingerprint());
+
+            data.writeInt(entry.getMetaData().size());
+            for (Map.Entry<String, String> meta : entry.getMetaData().entrySet()) {
+                writeString(data, meta.getKey());
+                writeString(data, meta.getValue());
+            }
+
+            Certificate[] chain = entry.getCertificateChain();
+            data.writeInt(chain.length);
+            for (Certificate cert : chain) {
+                writeBlob(data, cert.getEncoded());
+            }
+
+            Key key;
+            try {
+                key = entry.getPrivateKey();
+            }
+            catch (UnrecoverableKeyException e) {
+                throw new CertificateException(e);
+            }
+            if (key == null) {
+                writeString(data, "");
+            }
+            else {
+                writeString(data, key.getAlgorithm());
+                writeBlob(data, key.getEncoded());
+            }
+
+            data.writeInt(entry.getCrls().size());
+            for (X509CRL crl : entry.getCrls()) {
+                try {
+                    writeBlob(data, crl.getEncoded());
+                }
+                catch (CRLException e) {
+                    throw new CertificateException(e);
+                }
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * Writes the entries as snapshot file, replacing the old file atomically
+     *
+     * @param file the snapshot file
+     * @param entries entries to write
+     * @throws IOException on output error
+     * @throws CertificateException if a certificate or CRL can't be encoded
+     */
+    static void writeFile(Path file, Collection<PemCertKey> entries) throws IOException, CertificateException {
+        Path dir = file.toAbsolutePath().getParent();
+        // temporary files are created readable for the owner only
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                write(out, entries);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Reads a snapshot
+     *
+     * @param buf the snapshot contents
+     * @return the entries in the snapshot
+     * @throws CertificateException if the snapshot is invalid
+     * @throws NoSuchAlgorithmException if a key algorithm is not available
+     */
+    static List<PemCertKey> read(ByteBuffer buf) throws CertificateException, NoSuchAlgorithmException {
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            buf.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) throw new CertificateException("Not a key store snapshot");
+            int version = buf.getInt();
+            if (version != VERSION) throw new CertificateException("Unsupported snapshot version: " + version);
+
+            int count = buf.getInt();
+            List<PemCertKey> ret = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                PemCertKey entry = new PemCertKey();
+                String alias = readString(buf);
+                Date creationDate = new Date(buf.getLong());
+                String sourceFingerprint = readString(buf);
+
+                Map<String, String> metaData = new HashMap<>();
+                int metaCount = buf.getInt();
+                for (int j = 0; j < metaCount; j++) {
+                    metaData.put(readString(buf), readString(buf));
+                }
+                entry.setMetaData(metaData);
+                entry.setAlias(alias);
+                entry.setCreationDate(creationDate);
+                entry.setSourceFingerprint(sourceFingerprint.isEmpty() ? null : sourceFingerprint);
+
+                int certCount = buf.getInt();
+                for (int j = 0; j < certCount; j++) {
+                    entry.addCertificate(readBlob(buf));
+                }
+
+                String keyAlgorithm = readString(buf);
+                if (!keyAlgorithm.isEmpty()) {
+                    entry.setPrivateKey(keyAlgorithm, readBlob(buf));
+                }
+
+                int crlCount = buf.getInt();
+                for (int j = 0; j < crlCount; j++) {
+                    entry.addCrl(readBlob(buf));
+                }
+
+                ret.add(entry.build());
+            }
+            return ret;
+        }
+        catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new CertificateException("Truncated or corrupt key store snapshot", e);
+        }
+    }
+
+    /**
+     * Reads a snapshot file, the file is memory mapped
+     *
+     * @param file the snapshot file
+     * @return the entries in the snapshot
+     * @throws IOException on input error
+     * @throws CertificateException if the snapshot is invalid
+     * @throws NoSuchAlgorithmException if a key algorithm is not available
+     */
+    static List<PemCertKey> readFile(Path file) throws IOException, CertificateException, NoSuchAlgorithmException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            return read(buf);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        writeBlob(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBlob(DataOutputStream out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        return new String(readBlob(buf), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBlob(ByteBuffer buf) {
+        int len = buf.getInt();
+        if (len < 0 || len > buf.remaining()) throw new BufferUnderflowException();
+        byte[] ret = new byte[len];
+        buf.get(ret);
+        return ret;
+    }
+
+}
@@ -4,18 +4,20 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.util.*;
 
 /**
- * Parses a stream of PEM encoded X.509 chunks
+ * Parses a stream of PEM encoded X.509 chunks (certificates, private keys and CRLs)
  */
 public class PemStreamParser {
 
     protected InputStream in;
 
-    public enum ChunkType { certificate, pkcs8_key, pkcs1_key, metaData, end }
+    public enum ChunkType { certificate, pkcs8_key, pkcs1_key, crl, metaData, end }
 
     public PemStreamParser(InputStream in) {
         this.in = in;
@@ -36,9 +38,14 @@ public class PemStreamParser {
         String chunkEndMarker = null;
         ChunkType currentChunkType = null;
 
+        Object event = PemKeyStoreEvents.beginParse();
+        long bytes = 0;
+        int chunks = 0;
+
         try (BufferedReader r = new BufferedReader(new InputStreamReader(in))) {
             String line;
             while ( (line = r.readLine()) != null) {
+                bytes += line.length() + 1;
                 line = line.trim(); // just to be sure
                 if (line.length() == 0) continue; // ignore empty lines
 
@@ -50,6 +57,7 @@ public class PemStreamParser {
                         consumer.accept(currentChunkType, chunk);
                         chunk.clear();
                         inChunk = false;
+                        chunks++;
                     }
                     else {
                         chunk.add(line);
@@ -91,6 +99,17 @@ public class PemStreamParser {
                             inChunk = true;
                             chunkEndMarker = "-----END RSA PRIVATE KEY-----";
                             break;
+                        case "-----BEGIN X509 CRL-----":
+                            if (chunk.size() > 0) {
+                                // there was metadata before this
+                                consumer.accept(ChunkType.metaData, chunk);
+                                chunk.clear();
+                            }
+                            chunk.add(line);
+                            currentChunkType = ChunkType.crl;
+                            inChunk = true;
+                            chunkEndMarker = "-----END X509 CRL-----";
+                            break;
                         default:
                             // unknown chunk
                             if (line.startsWith("-----BEGIN ")) {
@@ -111,6 +130,7 @@ public class PemStreamParser {
         }
 
         consumer.accept(ChunkType.end, chunk);
+        PemKeyStoreEvents.endParse(event, bytes, chunks);
     }
 
     /**
@@ -155,51 +175,140 @@ public class PemStreamParser {
     }
 
     /**
-     * Parse an input stream into a certificate list
-     *
-     * @param in the input to parse
-     * @return list of parsed PemCertKey objects
-     * @throws IOException on input errors
-     * @throws CertificateException if parsing fails
-     * @throws NoSuchAlgorithmException in case of cryptographic algorithm problems
+     * The chunks of one entry, framed but not decoded yet
+     * The digest covers the metadata and chunk lines (trimmed, without empty lines), so an unchanged entry can be
+     * recognized without decoding its certificates and key.
+     * Note: intentionally defined as package access only
      */
-    public static List<PemCertKey> parseCertificateList(InputStream in) throws IOException, CertificateException, NoSuchAlgorithmException {
-        List<PemCertKey> list = new ArrayList<>();
+    static final class EntryBlock {
+        private final Map<String, String> metaData;
+        private final List<ChunkType> types = new ArrayList<>();
+        private final List<List<String>> chunks = new ArrayList<>();
+        private final MessageDigest digest = Fingerprints.sha256();
+        private String digestHex;
 
-        PemStreamParser.parse(in, new ChunkConsumer() {
-            // we are currently working on this one
-            PemCertKey pending = null;
-
-            @Override
-            public void accept(ChunkType chunkType, List<String> chunk) throws CertificateException, NoSuchAlgorithmException {
-                switch (chunkType) {
-                    case metaData:
-                        if (pending != null) {
-                            list.add(pending.build());
-                        }
-                        pending = new PemCertKey();
-                        pending.setMetaData(parseMetaData(chunk));
-                        break;
+        EntryBlock(List<String> metaData) throws CertificateException {
+            this.metaData = metaData == null ? null : parseMetaData(metaData);
+            if (metaData != null) update(metaData);
+        }
+
+        private void add(ChunkType type, List<String> chunk) {
+            types.add(type);
+            chunks.add(new ArrayList<>(chunk));
+            update(chunk);
+        }
+
+        private void update(List<String> lines) {
+            for (String line : lines) {
+                digest.update(line.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+        }
+
+        /**
+         * @return the alias of the entry
+         */
+        String getAlias() {
+            String alias = metaData == null ? null : metaData.get(PemCertKey.META_KEY_ALIAS);
+            return alias != null ? alias : PemCertKey.DEFAULT_ALIAS;
+        }
+
+        /**
+         * @return true if the entry starts with a metadata block
+         */
+        boolean hasMetaData() {
+            return metaData != null;
+        }
+
+        /**
+         * @return true if the creation date is set in the metadata
+         */
+        boolean hasCreationDate() {
+            return metaData != null && metaData.containsKey(PemCertKey.META_KEY_CREATIONDATE);
+        }
+
+        /**
+         * @return SHA-256 digest of the block as lowercase hex
+         */
+        String getDigest() {
+            if (digestHex == null) digestHex = Fingerprints.toHex(digest.digest());
+            return digestHex;
+        }
+
+        /**
+         * Decodes the certificates, key and CRLs of the entry
+         *
+         * @return the entry, with the block digest set
+         * @throws CertificateException if decoding fails
+         * @throws NoSuchAlgorithmException in case of cryptographic algorithm problems
+         */
+        PemCertKey decode() throws CertificateException, NoSuchAlgorithmException {
+            PemCertKey entry = new PemCertKey();
+            if (metaData != null) entry.setMetaData(new HashMap<>(metaData));
+            for (int i = 0; i < chunks.size(); i++) {
+                switch (types.get(i)) {
                     case certificate:
-                        // start a new, if this is the first block
-                        if (pending == null) pending = new PemCertKey();
-                        pending.addCertificate(chunk);
+                        entry.addCertificate(chunks.get(i));
                         break;
                     case pkcs8_key:
                     case pkcs1_key:
-                        // start a new, if this is the first block
-                        if (pending == null) pending = new PemCertKey();
-                        pending.setPrivateKey(chunk, chunkType);
+                        entry.setPrivateKey(chunks.get(i), types.get(i));
                         break;
-                    case end:
-                        if (pending != null) {
-                            list.add(pending.build());
-                        }
+                    case crl:
+                        entry.addCrl(chunks.get(i));
+                        break;
+                    default:
                         break;
                 }
             }
+            entry.build();
+            entry.setBlockDigest(getDigest());
+            return entry;
+        }
+    }
+
+    /**
+     * Splits an input stream into entries without decoding them
+     * A metadata block starts a new entry, other chunks belong to the current entry.
+     *
+     * @param in the input to parse
+     * @return the entries in input order
+     * @throws IOException on input errors
+     * @throws CertificateException if parsing fails
+     * @throws NoSuchAlgorithmException in case of cryptographic algorithm problems
+     */
+    static List<EntryBlock> frameCertificateList(InputStream in) throws IOException, CertificateException, NoSuchAlgorithmException {
+        List<EntryBlock> list = new ArrayList<>();
+        PemStreamParser.parse(in, (chunkType, chunk) -> {
+            switch (chunkType) {
+                case metaData:
+                    list.add(new EntryBlock(chunk));
+                    break;
+                case end:
+                    break;
+                default:
+                    // start a new, if this is the first block
+                    if (list.isEmpty()) list.add(new EntryBlock(null));
+                    list.get(list.size() - 1).add(chunkType, chunk);
+            }
         });
+        return list;
+    }
 
+    /**
+     * Parse an input stream into a certificate list
+     *
+     * @param in the input to parse
+     * @return list of parsed PemCertKey objects
+     * @throws IOException on input errors
+     * @throws CertificateException if parsing fails
+     * @throws NoSuchAlgorithmException in case of cryptographic algorithm problems
+     */
+    public static List<PemCertKey> parseCertificateList(InputStream in) throws IOException, CertificateException, NoSuchAlgorithmException {
+        List<PemCertKey> list = new ArrayList<>();
+        for (EntryBlock block : frameCertificateList(in)) {
+            list.add(block.decode());
+        }
         return list;
     }
 
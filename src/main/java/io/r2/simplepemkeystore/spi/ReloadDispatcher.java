@@ -0,0 +1,175 @@
+package io.r2.simplepemkeystore.spi;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Runs the modification checks of the reloading key store, each alias on its own schedule
+ *
+ * Due checks are kept in a priority queue ordered by due time (DelayQueue). A dispatcher thread takes the
+ * checks as they become due and hands them to a bounded pool of workers, so a slow source only occupies
+ * one worker and does not delay the other aliases. An alias has at most one pending check: scheduling it
+ * again replaces the previous time, and the task reschedules the alias when it is done.
+ * Refresh cycles over many aliases (see runAll) are spread over the same workers.
+ * All threads are daemon threads. On Java 21 they are virtual threads, and every task gets its own one
+ * (see BackgroundThreads).
+ * Note: intentionally defined as package access only
+ */
+class ReloadDispatcher {
+
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    private final DelayQueue<Due> queue = new DelayQueue<>();
+
+    /** the current due time per alias, queue entries with a different time are stale */
+    private final Map<String, Long> scheduled = new ConcurrentHashMap<>();
+
+    private final Consumer<String> task;
+    /** number of workers a refresh cycle is spread over */
+    private final int parallelism;
+    private final ExecutorService workers;
+    private final Thread dispatcher;
+
+    /**
+     * A scheduled check of an alias
+     */
+    private static final class Due implements Delayed {
+        final String alias;
+        final long time;
+
+        Due(String alias, long time) {
+            this.alias = alias;
+            this.time = time;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(time - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(time, ((Due) o).time);
+        }
+    }
+
+    /**
+     * Creates and starts the dispatcher
+     *
+     * @param name thread name prefix
+     * @param threads number of worker threads (platform threads only)
+     * @param task the check to run for an alias, responsible for scheduling the alias again
+     */
+    ReloadDispatcher(String name, int threads, Consumer<String> task) {
+        this.task = task;
+        this.parallelism = BackgroundThreads.parallelism(threads);
+        String prefix = name + "-" + instances.incrementAndGet();
+        this.workers = BackgroundThreads.workers(prefix + "-worker-", threads);
+        this.dispatcher = BackgroundThreads.thread(prefix + "-dispatcher", this::dispatch);
+        this.dispatcher.start();
+    }
+
+    private void dispatch() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Due due = queue.take();
+                if (!Long.valueOf(due.time).equals(scheduled.get(due.alias))) continue;
+                scheduled.remove(due.alias, due.time);
+                workers.execute(() -> task.accept(due.alias));
+            }
+        }
+        catch (InterruptedException | RejectedExecutionException e) {
+            // stopped
+        }
+    }
+
+    /**
+     * Schedules the check of an alias, replacing the previous schedule
+     *
+     * @param alias the alias
+     * @param time due time in epoch millis
+     */
+    void schedule(String alias, long time) {
+        scheduled.put(alias, time);
+        queue.add(new Due(alias, time));
+    }
+
+    /**
+     * @param alias the alias
+     * @return the due time of the next check in epoch millis, or null if not scheduled (or running)
+     */
+    Long getScheduled(String alias) {
+        return scheduled.get(alias);
+    }
+
+    /**
+     * Runs a task for each alias on the workers, and returns when all of them are done
+     * The calling thread takes aliases from the same queue, so a cycle started on a worker (or with all workers
+     * busy on slow sources) still completes. All aliases are run even if some of them fail.
+     *
+     * @param aliases the aliases
+     * @param task the task to run for each alias
+     * @return the first failure, or null if all tasks completed normally
+     */
+    RuntimeException runAll(Collection<String> aliases, Consumer<String> task) {
+        Queue<String> pending = new ConcurrentLinkedQueue<>(aliases);
+        CountDownLatch done = new CountDownLatch(aliases.size());
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Runnable drain = () -> {
+            String alias;
+            while ((alias = pending.poll()) != null) {
+                try {
+                    task.accept(alias);
+                }
+                catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+                finally {
+                    done.countDown();
+                }
+            }
+        };
+        try {
+            for (int i = 0; i < Math.min(parallelism, aliases.size() - 1); i++) {
+                workers.execute(drain);
+            }
+        }
+        catch (RejectedExecutionException e) {
+            // shut down, the calling thread runs the rest
+        }
+        drain.run();
+
+        // only aliases taken by running workers are left
+        boolean interrupted = false;
+        while (done.getCount() > 0) {
+            try {
+                done.await();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        return failure.get();
+    }
+
+    /**
+     * Stops the dispatcher and the workers
+     */
+    void shutdown() {
+        dispatcher.interrupt();
+        workers.shutdownNow();
+    }
+}
@@ -0,0 +1,828 @@
+package io.r2.simplepemkeystore.spi;
+
+import io.r2.simplepemkeystore.CertificateExpiryListener;
+import io.r2.simplepemkeystore.KeyStoreAliasInfo;
+import io.r2.simplepemkeystore.MultiFileConcatSource;
+import io.r2.simplepemkeystore.PemKeyStoreMetrics;
+import io.r2.simplepemkeystore.ReloadablePemKeyStoreConfig;
+import io.r2.simplepemkeystore.ReloadablePemKeyStoreMXBean;
+import io.r2.simplepemkeystore.RotationEvent;
+import io.r2.simplepemkeystore.RotationPublisher;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Entries, reload threads and state of the reloading key store, for one configuration
+ *
+ * Key stores loaded with the same configuration share one engine through ReloadEngineRegistry, so the files are
+ * polled and decoded once, and all of them see the same entries. The engine only holds what was loaded from the
+ * files, entries set through the KeyStore API stay in the key store which set them (see ReloadablePemKeyStoreSpi).
+ * The engine is started by the first key store, and closed when the last one releases it: the reload threads are
+ * stopped and the JMX registration is removed.
+ * Note: intentionally defined as package access only
+ */
+class ReloadEngine {
+
+    /** entries loaded from the files */
+    private final PemEntryStore store = new PemEntryStore();
+
+    /** current configuration */
+    private ReloadablePemKeyStoreConfig configuration;
+
+    /** runs the modification checks and refresh cycles, created on start */
+    private ReloadDispatcher dispatcher;
+
+    /** serializes start, refresh and close */
+    private final Object lifecycle = new Object();
+
+    /** true once the initial load completed, rotations are published from then on */
+    private volatile boolean started;
+
+    /** true while a refresh cycle runs, overlapping cycles are skipped */
+    private final AtomicBoolean cycleRunning = new AtomicBoolean();
+
+    /** decoded files, shared by the aliases referencing the same file */
+    private PemFileCache fileCache;
+
+    /** writes the snapshot file in the background, null if not configured */
+    private SnapshotWriter snapshotWriter;
+
+    /** per alias locks, so a forced reload does not overlap with a scheduled check */
+    private final Map<String, Object> aliasLocks = new ConcurrentHashMap<>();
+
+    /** result of the last refresh per alias */
+    private final Map<String, ReloadStatus> reloadStatus = new ConcurrentHashMap<>();
+
+    /** last expiry warning per alias */
+    private final Map<String, ExpiryWarning> expiryWarnings = new ConcurrentHashMap<>();
+
+    /** dispatcher key of the manifest check, not a valid alias as aliases come from JSON object keys */
+    private static final String MANIFEST_TASK = "\u0000manifest";
+
+    /** generation of the last applied manifest */
+    private volatile long manifestGeneration = -1;
+
+    /** size, modification time and file key of the last applied manifest */
+    private String manifestStamp = null;
+
+    /** name of the JMX registration, null if not registered */
+    private ObjectName managementName;
+
+    /** number of key stores sharing the engine, guarded by ReloadEngineRegistry */
+    int references;
+
+    /**
+     * Result of the last refresh of an alias
+     */
+    private static final class ReloadStatus {
+        final long durationNanos;
+        final String failure;
+
+        ReloadStatus(long durationNanos, String failure) {
+            this.durationNanos = durationNanos;
+            this.failure = failure;
+        }
+    }
+
+
+    /**
+     * Last emitted expiry warning of an alias
+     */
+    private static final class ExpiryWarning {
+        final long notAfter;
+        final long threshold;
+
+        ExpiryWarning(long notAfter, long threshold) {
+            this.notAfter = notAfter;
+            this.threshold = threshold;
+        }
+    }
+
+    /**
+     * Starts the engine on the first call, and loads the aliases modified since the last check on later calls,
+     * when another key store starts sharing the engine
+     *
+     * @param config the configuration, used on the first call only
+     * @throws IOException on input error
+     * @throws NoSuchAlgorithmException when required cryptographic algorithms are missing
+     * @throws CertificateException if loading is failed
+     */
+    void open(ReloadablePemKeyStoreConfig config) throws IOException, NoSuchAlgorithmException, CertificateException {
+        synchronized (lifecycle) {
+            if (started && configuration.getManifestFile() != null) {
+                // the files are only loaded together with their manifest, a stale one keeps the current entries
+                try {
+                    refreshManifest(fileCache.newCycle());
+                }
+                catch (IOException | CertificateException e) {
+                    // retried by the scheduled manifest check
+                }
+            }
+            else if (started) {
+                loadAll(fileCache.newCycle());
+            }
+            else {
+                start(config);
+            }
+        }
+    }
+
+    /**
+     * Loads all entries and starts the modification checks
+     *
+     * @param config the configuration, owned by the engine
+     * @throws IOException on input error
+     * @throws NoSuchAlgorithmException when required cryptographic algorithms are missing
+     * @throws CertificateException if loading is failed
+     */
+    private void start(ReloadablePemKeyStoreConfig config) throws IOException, NoSuchAlgorithmException, CertificateException {
+        configuration = config;
+
+        for (String alias : configuration.getCrls().keySet()) {
+            if (configuration.getCertificates().containsKey(alias)) {
+                throw new CertificateException("Alias used for both certificate and CRL: " + alias);
+            }
+        }
+        if (configuration.getManifestFile() != null) {
+            // the manifest is case insensitive, each alias must have its own line
+            Map<String, String> lowerCase = new HashMap<>();
+            for (String alias : getAliases()) {
+                String other = lowerCase.put(alias.toLowerCase(), alias);
+                if (other != null) {
+                    throw new CertificateException("Aliases differ only in case, not allowed with a manifest: "
+                            + other + ", " + alias);
+                }
+            }
+        }
+
+        if (configuration.getSnapshotFile() != null) {
+            snapshotWriter = new SnapshotWriter(Paths.get(configuration.getSnapshotFile()), store::values,
+                    SnapshotWriter.DEFAULT_DELAY_MILLIS);
+        }
+        // the reload threads load the aliases in parallel
+        dispatcher = new ReloadDispatcher("simplepemreload",
+                configuration.getReloadThreads() > 0
+                        ? configuration.getReloadThreads()
+                        : ReloadablePemKeyStoreConfig.DEFAULT_RELOAD_THREADS,
+                this::check);
+        try {
+            fileCache = new PemFileCache(configuration.getManifestFile() != null);
+            PemFileCache.Cycle cycle = fileCache.newCycle();
+            if (configuration.getSnapshotFile() != null) {
+                loadSnapshot(Paths.get(configuration.getSnapshotFile()), cycle);
+            }
+            if (configuration.getManifestFile() != null) {
+                // all aliases are loaded and verified against the manifest, or the load fails
+                if (!refreshManifest(cycle)) throw new CertificateException("Manifest could not be applied");
+            }
+            else {
+                loadAll(cycle);
+            }
+        }
+        catch (IOException | NoSuchAlgorithmException | CertificateException | RuntimeException e) {
+            dispatcher.shutdown();
+            dispatcher = null;
+            if (snapshotWriter != null) snapshotWriter.close();
+            snapshotWriter = null;
+            throw e;
+        }
+        started = true;
+
+        // schedule modification checks
+        if (configuration.getManifestFile() != null) {
+            checkManifest();
+        }
+        long now = System.currentTimeMillis();
+        for (String alias : getAliases()) {
+            scheduleNextCheck(alias, now);
+            checkExpiry(alias, now);
+        }
+
+        managementName = ManagementSupport.register("ReloadablePemKeyStore", ReloadablePemKeyStoreMXBean.class,
+                new Management());
+    }
+
+    /**
+     * Loads all aliases which are not loaded yet or modified since
+     *
+     * @param cycle the refresh cycle
+     * @throws IOException on input error
+     * @throws NoSuchAlgorithmException when required cryptographic algorithms are missing
+     * @throws CertificateException if loading is failed
+     */
+    private void loadAll(PemFileCache.Cycle cycle) throws IOException, NoSuchAlgorithmException, CertificateException {
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        int reloaded = runCycle(getAliases(), alias -> {
+            try {
+                return refreshCertificate(alias, false, cycle);
+            }
+            catch (IOException | NoSuchAlgorithmException | CertificateException e) {
+                failure.compareAndSet(null, e);
+                return false;
+            }
+        });
+        if (reloaded >= 0) fileCache.prune(cycle);
+        if (reloaded > 0) saveSnapshot();
+
+        Exception e = failure.get();
+        if (e instanceof IOException) throw (IOException) e;
+        if (e instanceof NoSuchAlgorithmException) throw (NoSuchAlgorithmException) e;
+        if (e instanceof CertificateException) throw (CertificateException) e;
+    }
+
+    /**
+     * A task of a refresh cycle
+     */
+    @FunctionalInterface
+    private interface CycleTask {
+        /**
+         * @param alias the alias
+         * @return true if the alias has been reloaded
+         */
+        boolean run(String alias);
+    }
+
+    /**
+     * Runs a refresh cycle: the task of each alias on the reload threads in parallel, under the lock of the alias
+     * A cycle started while another one is running is skipped, not queued, as the running cycle checks the same
+     * files. Scheduled checks of single aliases are not cycles, they run on their own schedule.
+     *
+     * @param aliases the aliases
+     * @param task the task of an alias
+     * @return number of reloaded aliases, or -1 if skipped
+     */
+    private int runCycle(Collection<String> aliases, CycleTask task) {
+        PemKeyStoreMetrics metrics = configuration.getMetrics();
+        if (!cycleRunning.compareAndSet(false, true)) {
+            metrics.cycleSkipped();
+            return -1;
+        }
+        long start = System.nanoTime();
+        AtomicInteger reloaded = new AtomicInteger();
+        RuntimeException failure;
+        try {
+            failure = dispatcher.runAll(aliases, alias -> {
+                synchronized (lock(alias)) {
+                    if (task.run(alias)) reloaded.incrementAndGet();
+                }
+            });
+        }
+        finally {
+            cycleRunning.set(false);
+        }
+        metrics.cycleCompleted(aliases.size(), reloaded.get(), System.nanoTime() - start);
+        if (failure != null) throw failure;
+        return reloaded.get();
+    }
+
+    /**
+     * Stops the reload threads, writes the pending snapshot and removes the JMX registration
+     */
+    void close() {
+        synchronized (lifecycle) {
+            if (dispatcher != null) dispatcher.shutdown();
+            if (snapshotWriter != null) snapshotWriter.close();
+            ManagementSupport.unregister(managementName);
+        }
+    }
+
+    /**
+     * JMX view of this key store
+     */
+    private class Management implements ReloadablePemKeyStoreMXBean {
+
+        @Override
+        public KeyStoreAliasInfo[] getAliases() {
+            List<KeyStoreAliasInfo> ret = new ArrayList<>();
+            for (String alias : new TreeSet<>(ReloadEngine.this.getAliases())) {
+                PemCertKey entry = store.get(alias);
+                ReloadStatus status = reloadStatus.get(alias);
+                X509Certificate cert = firstCertificate(alias);
+                ret.add(new KeyStoreAliasInfo(
+                        alias,
+                        cert == null ? null : cert.getSubjectX500Principal().getName(),
+                        cert == null ? null : cert.getNotAfter(),
+                        entry == null ? null : entry.getCreationDate(),
+                        entry == null ? null : entry.getSourceFingerprint(),
+                        status == null ? 0 : TimeUnit.NANOSECONDS.toMillis(status.durationNanos),
+                        status == null ? null : status.failure,
+                        nextCheck(alias)
+                ));
+            }
+            return ret.toArray(new KeyStoreAliasInfo[0]);
+        }
+
+        @Override
+        public long getRefreshInterval() {
+            return configuration.getRefreshInterval();
+        }
+
+        @Override
+        public int getKeyStores() {
+            return ReloadEngineRegistry.references(ReloadEngine.this);
+        }
+
+        @Override
+        public void reload() {
+            PemFileCache.Cycle cycle = fileCache.newCycle();
+            // the alias lock keeps it from overlapping with a scheduled check
+            int reloaded = runCycle(ReloadEngine.this.getAliases(), alias -> {
+                boolean refreshed = false;
+                try {
+                    refreshed = refreshCertificate(alias, true, cycle);
+                } catch (Exception e) {
+                    // failure is recorded in the reload status
+                }
+                long now = System.currentTimeMillis();
+                scheduleNextCheck(alias, now);
+                checkExpiry(alias, now);
+                return refreshed;
+            });
+            if (reloaded >= 0) fileCache.prune(cycle);
+            if (reloaded > 0) saveSnapshot();
+        }
+    }
+
+    /**
+     * @param alias the alias
+     * @return the lock of the alias
+     */
+    private Object lock(String alias) {
+        Object lock = aliasLocks.get(alias);
+        return lock != null ? lock : aliasLocks.computeIfAbsent(alias, a -> new Object());
+    }
+
+    /**
+     * @return the entries loaded from the files
+     */
+    PemEntryStore getEntries() {
+        return store;
+    }
+
+    /**
+     * Stores an entry loaded from the files, and publishes the change of the certificate
+     */
+    private void putEntry(String alias, PemCertKey entry) {
+        PemCertKey old = store.put(alias, entry);
+        rotated(alias, old, entry);
+    }
+
+    /**
+     * Submits a rotation event if the certificate has changed after the initial load, the publisher only queues it
+     * Also called by the key stores for the entries set through the KeyStore API.
+     *
+     * @param alias the alias
+     * @param old the replaced entry, or null
+     * @param entry the new entry, or null if removed
+     */
+    void rotated(String alias, PemCertKey old, PemCertKey entry) {
+        RotationPublisher publisher = configuration == null ? null : configuration.getRotationPublisher();
+        if (publisher == null || !started) return;
+        String previous = old == null ? null : old.getFingerprint();
+        String fingerprint = entry == null ? null : entry.getFingerprint();
+        if (Objects.equals(previous, fingerprint)) return;
+        Certificate cert = entry == null ? null : entry.getCertificate();
+        publisher.submit(new RotationEvent(alias, previous, fingerprint,
+                cert instanceof X509Certificate ? ((X509Certificate) cert).getNotAfter() : null));
+    }
+
+    /**
+     * Scheduled modification check of an alias, runs on a reload thread
+     *
+     * @param alias the alias
+     */
+    private void check(String alias) {
+        if (MANIFEST_TASK.equals(alias)) {
+            checkManifest();
+            return;
+        }
+        boolean refreshed = false;
+        synchronized (lock(alias)) {
+            try {
+                refreshed = refreshCertificate(alias, false, fileCache.newCycle());
+            } catch (Exception e) {
+                // cache rebuild failed, keep the old one quietly
+            }
+            long now = System.currentTimeMillis();
+            scheduleNextCheck(alias, now);
+            checkExpiry(alias, now);
+        }
+        if (refreshed) saveSnapshot();
+    }
+
+    /**
+     * Schedules the next modification check of an alias
+     * Nothing is scheduled if the refresh interval of the alias is below the minimum, then the checks are disabled.
+     * Without adaptive scheduling, or without a valid certificate, it is the refresh interval of the alias.
+     * Otherwise half of the time until the renewal window opens or the next expiry warning is due,
+     * limited to the range between the refresh interval and maxRefreshInterval.
+     *
+     * @param alias the alias
+     * @param now current time in millis
+     */
+    private void scheduleNextCheck(String alias, long now) {
+        // aliases are reloaded by the manifest check
+        if (configuration.getManifestFile() != null) return;
+
+        if (configuration.getRefreshInterval(alias) < ReloadablePemKeyStoreConfig.MIN_REFRESH_INTERVAL) return;
+        long interval = TimeUnit.SECONDS.toMillis(configuration.getRefreshInterval(alias));
+        long maxInterval = TimeUnit.SECONDS.toMillis(configuration.getMaxRefreshInterval());
+        X509Certificate cert = firstCertificate(alias);
+        ReloadStatus status = reloadStatus.get(alias);
+        if (maxInterval > interval && cert != null && (status == null || status.failure == null)) {
+            long notAfter = cert.getNotAfter().getTime();
+            long window = TimeUnit.SECONDS.toMillis(configuration.getRenewalWindow() > 0
+                    ? configuration.getRenewalWindow()
+                    : ReloadablePemKeyStoreConfig.DEFAULT_RENEWAL_WINDOW);
+            long until = notAfter - window - now;
+            for (long threshold : configuration.getExpiryWarnings()) {
+                long warning = notAfter - TimeUnit.SECONDS.toMillis(threshold) - now;
+                if (warning > 0) until = Math.min(until, warning);
+            }
+            interval = Math.max(interval, Math.min(maxInterval, until / 2));
+        }
+        dispatcher.schedule(alias, now + interval);
+    }
+
+    /**
+     * A parsed manifest
+     */
+    static final class Manifest {
+        final long generation;
+        final Map<String, String> hashes;
+
+        Manifest(long generation, Map<String, String> hashes) {
+            this.generation = generation;
+            this.hashes = hashes;
+        }
+    }
+
+    /**
+     * Reads a manifest file
+     *
+     * @param path the manifest file
+     * @return the manifest
+     * @throws IOException on input error
+     * @throws CertificateException on format error
+     */
+    static Manifest readManifest(Path path) throws IOException, CertificateException {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty() && !line.trim().startsWith("#")) lines.add(line);
+        }
+        Map<String, String> hashes = PemStreamParser.parseMetaData(lines);
+        if (hashes.size() < lines.size()) {
+            // the keys are lower cased, a line was merged into another
+            Set<String> seen = new HashSet<>();
+            for (String line : lines) {
+                String alias = line.split(":", 2)[0].trim();
+                if (!seen.add(alias.toLowerCase())) {
+                    throw new CertificateException("Duplicate alias in manifest: " + alias);
+                }
+            }
+        }
+        String generation = hashes.remove("generation");
+        if (generation == null) throw new CertificateException("Missing generation in manifest: " + path);
+        try {
+            return new Manifest(Long.parseLong(generation), hashes);
+        }
+        catch (NumberFormatException e) {
+            throw new CertificateException("Invalid generation in manifest: " + generation);
+        }
+    }
+
+    /**
+     * Checks the manifest file, and reloads the changed aliases if it has a new generation
+     * Runs at load time and on a reload thread every refresh interval, unless the checks are disabled.
+     */
+    private void checkManifest() {
+        try {
+            refreshManifest(fileCache.newCycle());
+        }
+        catch (Exception e) {
+            // missing or invalid manifest, keep the current entries and retry next time
+        }
+
+        long now = System.currentTimeMillis();
+        for (String alias : configuration.getCertificates().keySet()) {
+            checkExpiry(alias, now);
+        }
+        if (configuration.getRefreshInterval() >= ReloadablePemKeyStoreConfig.MIN_REFRESH_INTERVAL) {
+            dispatcher.schedule(MANIFEST_TASK, now + TimeUnit.SECONDS.toMillis(configuration.getRefreshInterval()));
+        }
+    }
+
+    /**
+     * Reads the manifest file if it has changed, and applies it if it has a new generation
+     * Used for every load in manifest mode: the initial load, a key store joining the engine, and the checks.
+     *
+     * @param cycle the refresh cycle
+     * @return true if the current manifest is applied, false if the cycle was skipped
+     * @throws IOException on input error, the current entries are kept
+     * @throws CertificateException if the manifest is invalid or the files do not match it, the current entries are kept
+     */
+    private boolean refreshManifest(PemFileCache.Cycle cycle) throws IOException, CertificateException {
+        Path path = Paths.get(configuration.getManifestFile());
+        BasicFileAttributes attr = Files.readAttributes(path, BasicFileAttributes.class);
+        // the file key detects an atomic replace with the same size and time
+        String stamp = attr.size() + "/" + attr.lastModifiedTime().toMillis() + "/" + attr.fileKey();
+        if (stamp.equals(manifestStamp)) return true;
+        Manifest manifest = readManifest(path);
+        if (manifest.generation <= manifestGeneration || applyManifest(manifest, cycle)) {
+            manifestStamp = stamp;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Loads all aliases whose content hash differs from the manifest, and replaces them if all loaded successfully
+     * The new entries are stored together in one write, after all of them have been loaded. Aliases missing from the
+     * manifest are only loaded if they have no entry yet.
+     *
+     * @param manifest the manifest
+     * @param cycle the refresh cycle
+     * @return true if applied, false if the cycle was skipped
+     * @throws IOException on input error, nothing is replaced
+     * @throws CertificateException if some files do not match the manifest or can't be loaded, nothing is replaced
+     */
+    private boolean applyManifest(Manifest manifest, PemFileCache.Cycle cycle) throws IOException, CertificateException {
+        Map<String, PemCertKey> loaded = new ConcurrentHashMap<>();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        List<String> aliases = new ArrayList<>();
+        for (String alias : getAliases()) {
+            if (manifest.hashes.containsKey(alias.toLowerCase()) || store.get(alias) == null) aliases.add(alias);
+        }
+        int reloaded = runCycle(aliases, alias -> {
+            String hash = manifest.hashes.get(alias.toLowerCase());
+            String expected = hash == null ? null : hash.toLowerCase();
+            try {
+                PemCertKey current = store.get(alias);
+                if (current != null && expected == null) return false;
+                if (current != null && current.getContentHash() == null) {
+                    // loaded from a snapshot, hash the files instead of parsing them again
+                    current.setContentHash(Fingerprints.sha256Hex(readContents(getFiles(alias))));
+                }
+                if (current != null && expected.equals(current.getContentHash())) return false;
+                loaded.put(alias, loadCertificate(alias, true, expected, cycle));
+                return true;
+            }
+            catch (Exception e) {
+                // recorded in the reload status, retried with the next check
+                failure.compareAndSet(null, e);
+                return false;
+            }
+        });
+        // skipped, retried with the next check
+        if (reloaded < 0) return false;
+        // the files of unchanged aliases are only needed again when they change
+        fileCache.prune(cycle);
+        Exception e = failure.get();
+        if (e instanceof IOException) throw (IOException) e;
+        if (e instanceof CertificateException) throw (CertificateException) e;
+        if (e != null) throw new CertificateException("Manifest generation " + manifest.generation + " not applied", e);
+
+        Map<String, PemCertKey> replaced = store.putAll(loaded);
+        for (Map.Entry<String, PemCertKey> entry : loaded.entrySet()) {
+            rotated(entry.getKey(), replaced.get(entry.getKey()), entry.getValue());
+        }
+        manifestGeneration = manifest.generation;
+        if (!loaded.isEmpty()) saveSnapshot();
+        return true;
+    }
+
+    /**
+     * @param files list of files
+     * @return the concatenated contents of the files
+     * @throws IOException on input error
+     */
+    private static byte[] readContents(String[] files) throws IOException {
+        return MultiFileConcatSource.fromFiles(files).build().readAllBytes();
+    }
+
+    /**
+     * Emits an expiry warning if the certificate of the alias crossed a threshold since the last warning
+     *
+     * @param alias the alias
+     * @param now current time in millis
+     */
+    private void checkExpiry(String alias, long now) {
+        long[] thresholds = configuration.getExpiryWarnings();
+        if (thresholds.length == 0 || !configuration.getCertificates().containsKey(alias)) return;
+        X509Certificate cert = firstCertificate(alias);
+        if (cert == null) return;
+        long notAfter = cert.getNotAfter().getTime();
+
+        // the smallest crossed threshold
+        long crossed = -1;
+        for (long threshold : thresholds) {
+            if (notAfter - now <= TimeUnit.SECONDS.toMillis(threshold) && (crossed < 0 || threshold < crossed)) {
+                crossed = threshold;
+            }
+        }
+        if (crossed < 0) return;
+
+        ExpiryWarning last = expiryWarnings.get(alias);
+        if (last != null && last.notAfter == notAfter && last.threshold <= crossed) return;
+        expiryWarnings.put(alias, new ExpiryWarning(notAfter, crossed));
+
+        PemKeyStoreEvents.expiryWarning(alias, cert.getSubjectX500Principal().getName(), notAfter, crossed);
+        CertificateExpiryListener listener = configuration.getExpiryListener();
+        if (listener != null) {
+            try {
+                listener.expiring(alias, cert, crossed);
+            }
+            catch (RuntimeException e) {
+                // listener failure must not stop the refresh task
+            }
+        }
+    }
+
+    /**
+     * @param alias the alias
+     * @return time of the next modification check, null if running or not scheduled
+     */
+    private Date nextCheck(String alias) {
+        Long next = dispatcher == null ? null : dispatcher.getScheduled(alias);
+        return next == null ? null : new Date(next);
+    }
+
+    /**
+     * @param alias the alias
+     * @return the first certificate of the alias, or null if there is none
+     */
+    private X509Certificate firstCertificate(String alias) {
+        PemCertKey entry = store.get(alias);
+        Certificate[] chain = entry == null ? null : entry.getCertificateChain();
+        return chain != null && chain.length > 0 && chain[0] instanceof X509Certificate
+                ? (X509Certificate) chain[0] : null;
+    }
+
+    /**
+     * Loads the entries from a snapshot, which still match their source files
+     * @param file the snapshot file
+     * @param cycle the refresh cycle of the initial load
+     */
+    private void loadSnapshot(Path file, PemFileCache.Cycle cycle) {
+        if (!Files.isReadable(file)) return;
+        try {
+            for (PemCertKey entry : PemKeyStoreSnapshot.readFile(file)) {
+                String[] files = getFiles(entry.getAlias());
+                if (files == null || entry.getSourceFingerprint() == null) continue;
+                if (entry.getSourceFingerprint().equals(sourceFingerprint(files, cycle.stat(files)))) {
+                    putEntry(entry.getAlias(), entry);
+                }
+            }
+        }
+        catch (Exception e) {
+            // invalid snapshot, everything not loaded so far is parsed from PEM
+        }
+    }
+
+    /**
+     * Requests a write of the current entries to the snapshot file, if configured
+     * The snapshot writer coalesces the requests of a burst of changes into one write on its own thread.
+     */
+    private void saveSnapshot() {
+        if (snapshotWriter != null) snapshotWriter.request();
+    }
+
+    /**
+     * @return all configured aliases, certificates and CRLs
+     */
+    private Set<String> getAliases() {
+        Set<String> aliases = new HashSet<>(configuration.getCertificates().keySet());
+        aliases.addAll(configuration.getCrls().keySet());
+        return aliases;
+    }
+
+    /**
+     * @param alias the alias
+     * @return the configured files for a certificate or CRL alias
+     */
+    private String[] getFiles(String alias) {
+        String[] files = configuration.getCertificates().get(alias);
+        return files != null ? files : configuration.getCrls().get(alias);
+    }
+
+    /**
+     * @param files list of files
+     * @param attrs attributes of the files
+     * @return fingerprint of the files, based on path, size and modification time
+     */
+    private static String sourceFingerprint(String[] files, BasicFileAttributes[] attrs) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < files.length; i++) {
+            sb.append(files[i]).append('\n')
+                    .append(attrs[i].size()).append('\n')
+                    .append(attrs[i].lastModifiedTime().toMillis()).append('\n');
+        }
+        return Fingerprints.sha256Hex(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Refreshes a certificate if it has been changed
+     * @param alias the alias of the certificate to reload
+     * @param force reload even if the files have not been modified
+     * @param cycle the refresh cycle
+     * @return true if the certificate has been reloaded
+     * @throws IOException on input error
+     * @throws CertificateException on certificate format error
+     * @throws NoSuchAlgorithmException when required cryptographic algorithms are missing
+     */
+    private boolean refreshCertificate(String alias, boolean force, PemFileCache.Cycle cycle)
+            throws IOException, CertificateException, NoSuchAlgorithmException  {
+        PemCertKey entry = loadCertificate(alias, force, null, cycle);
+        if (entry == null) return false;
+        putEntry(alias, entry);
+        return true;
+    }
+
+    /**
+     * Loads a certificate if it has been changed, without storing it
+     * @param alias the alias of the certificate to reload
+     * @param force reload even if the files have not been modified
+     * @param expectedHash the content hash the files must have, null to accept any
+     * @param cycle the refresh cycle, files already decoded are taken from the file cache
+     * @return the new entry, or null if not changed
+     * @throws IOException on input error
+     * @throws CertificateException on certificate format error, or if the content hash does not match
+     * @throws NoSuchAlgorithmException when required cryptographic algorithms are missing
+     */
+    private PemCertKey loadCertificate(String alias, boolean force, String expectedHash, PemFileCache.Cycle cycle)
+            throws IOException, CertificateException, NoSuchAlgorithmException  {
+        Object event = PemKeyStoreEvents.beginRefresh(alias);
+        boolean changed = false;
+        long decodeNanos = 0;
+        long parsedBytes = 0;
+        String failure = null;
+        PemKeyStoreMetrics metrics = configuration.getMetrics();
+        try {
+            String[] files = getFiles(alias);
+
+            BasicFileAttributes[] attrs = cycle.stat(files);
+            long fileTime = 0;
+            for (BasicFileAttributes attr : attrs) {
+                fileTime = Math.max(fileTime, attr.lastModifiedTime().toMillis());
+            }
+            Date fileDate = new Date(fileTime);
+
+            PemCertKey old = store.get(alias);
+            if (force) {
+                // newer creation date, so key managers pick it up as well
+                fileDate = new Date(Math.max(fileTime, System.currentTimeMillis()));
+            }
+            PemCertKey entry = null;
+            if (force || old == null || old.getCreationDate().before(fileDate))
+            {
+                long decodeStart = System.nanoTime();
+                PemFileCache.Loaded loaded = cycle.load(files);
+                parsedBytes = loaded.getParsedBytes();
+                entry = loaded.getEntry();
+                if (configuration.getManifestFile() != null) {
+                    String hash = Fingerprints.sha256Hex(loaded.getContents());
+                    if (expectedHash != null && !expectedHash.equals(hash)) {
+                        throw new CertificateException("Files of alias " + alias + " do not match the manifest");
+                    }
+                    entry.setContentHash(hash);
+                }
+                entry.setAlias(alias);
+                entry.setCreationDate(fileDate);
+                decodeNanos = System.nanoTime() - decodeStart;
+                entry.setSourceFingerprint(sourceFingerprint(files, attrs));
+                changed = true;
+            }
+            return entry;
+        }
+        catch (Exception e) {
+            failure = e.toString();
+            metrics.reloadFailed(alias, e);
+            throw e;
+        }
+        finally {
+            PemKeyStoreEvents.endRefresh(event, changed, decodeNanos, failure);
+            if (changed) metrics.reloaded(alias, decodeNanos, parsedBytes);
+            ReloadStatus previous = reloadStatus.get(alias);
+            if (changed || failure != null || (previous != null && previous.failure != null)) {
+                reloadStatus.put(alias, new ReloadStatus(
+                        changed || previous == null ? decodeNanos : previous.durationNanos, failure));
+            }
+        }
+    }
+}
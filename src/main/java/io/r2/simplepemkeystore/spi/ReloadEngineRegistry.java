@@ -0,0 +1,182 @@
+package io.r2.simplepemkeystore.spi;
+
+import io.r2.simplepemkeystore.CertificateExpiryListener;
+import io.r2.simplepemkeystore.PemKeyStoreMetrics;
+import io.r2.simplepemkeystore.ReloadablePemKeyStoreConfig;
+import io.r2.simplepemkeystore.RotationPublisher;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * JVM wide registry of reload engines, so key stores loaded with the same configuration share one engine
+ *
+ * Configurations are compared after normalisation: paths are made absolute, map order and defaults do not matter.
+ * The expiry listener, the metrics and the rotation publisher are compared by identity, so key stores with their
+ * own callbacks get their own engine. Engines are reference counted, and closed when the last key store releases
+ * its lease.
+ * Note: intentionally defined as package access only
+ */
+final class ReloadEngineRegistry {
+
+    /** releases the leases of key stores which were not released explicitly */
+    static final Cleaner cleaner = Cleaner.create();
+
+    private static final Map<Key, ReloadEngine> engines = new HashMap<>();
+
+    private ReloadEngineRegistry() {
+    }
+
+    /**
+     * Registry key: the normalised configuration and the callbacks
+     */
+    private static final class Key {
+        final String config;
+        final CertificateExpiryListener listener;
+        final PemKeyStoreMetrics metrics;
+        final RotationPublisher publisher;
+
+        Key(ReloadablePemKeyStoreConfig config) {
+            this.config = normalise(config);
+            this.listener = config.getExpiryListener();
+            this.metrics = config.getMetrics();
+            this.publisher = config.getRotationPublisher();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return config.equals(that.config) && listener == that.listener && metrics == that.metrics
+                    && publisher == that.publisher;
+        }
+
+        @Override
+        public int hashCode() {
+            return config.hashCode();
+        }
+    }
+
+    /**
+     * A reference to a shared engine, released once when run
+     */
+    static final class Lease implements Runnable {
+        private final Key key;
+        private final ReloadEngine engine;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(Key key, ReloadEngine engine) {
+            this.key = key;
+            this.engine = engine;
+        }
+
+        /**
+         * @return the shared engine
+         */
+        ReloadEngine getEngine() {
+            return engine;
+        }
+
+        /**
+         * Releases the engine, closing it if this was the last reference
+         */
+        @Override
+        public void run() {
+            if (!released.compareAndSet(false, true)) return;
+            boolean last;
+            synchronized (engines) {
+                last = --engine.references == 0;
+                if (last) engines.remove(key, engine);
+            }
+            if (last) engine.close();
+        }
+    }
+
+    /**
+     * Returns the engine of the configuration, starting a new engine if there is none
+     * An engine which is already running loads the aliases modified since its last check.
+     *
+     * @param config the configuration, owned by the registry
+     * @return lease of the engine, to be released when the key store no longer uses it
+     * @throws IOException on input error
+     * @throws NoSuchAlgorithmException when required cryptographic algorithms are missing
+     * @throws CertificateException if loading is failed
+     */
+    static Lease acquire(ReloadablePemKeyStoreConfig config) throws IOException, NoSuchAlgorithmException, CertificateException {
+        Key key = new Key(config);
+        ReloadEngine engine;
+        synchronized (engines) {
+            engine = engines.computeIfAbsent(key, k -> new ReloadEngine());
+            engine.references++;
+        }
+        Lease lease = new Lease(key, engine);
+        // loading runs outside of the registry lock, key stores of other configurations are not blocked
+        try {
+            engine.open(config);
+        }
+        catch (IOException | NoSuchAlgorithmException | CertificateException | RuntimeException e) {
+            lease.run();
+            throw e;
+        }
+        return lease;
+    }
+
+    /**
+     * @param engine the engine
+     * @return number of key stores sharing the engine
+     */
+    static int references(ReloadEngine engine) {
+        synchronized (engines) {
+            return engine.references;
+        }
+    }
+
+    /**
+     * @param config the configuration
+     * @return canonical form of the configuration
+     */
+    static String normalise(ReloadablePemKeyStoreConfig config) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("certificates=").append(normaliseFiles(config.getCertificates())).append('\n');
+        sb.append("crls=").append(normaliseFiles(config.getCrls())).append('\n');
+        sb.append("refreshInterval=").append(config.getRefreshInterval()).append('\n');
+        sb.append("refreshIntervals=").append(new TreeMap<>(config.getRefreshIntervals())).append('\n');
+        sb.append("reloadThreads=").append(config.getReloadThreads() > 0
+                ? config.getReloadThreads()
+                : ReloadablePemKeyStoreConfig.DEFAULT_RELOAD_THREADS).append('\n');
+        sb.append("snapshotFile=").append(normalisePath(config.getSnapshotFile())).append('\n');
+        sb.append("manifestFile=").append(normalisePath(config.getManifestFile())).append('\n');
+        sb.append("maxRefreshInterval=").append(config.getMaxRefreshInterval()).append('\n');
+        sb.append("renewalWindow=").append(config.getRenewalWindow() > 0
+                ? config.getRenewalWindow()
+                : ReloadablePemKeyStoreConfig.DEFAULT_RENEWAL_WINDOW).append('\n');
+        long[] warnings = config.getExpiryWarnings().clone();
+        Arrays.sort(warnings);
+        sb.append("expiryWarnings=").append(Arrays.toString(warnings)).append('\n');
+        return sb.toString();
+    }
+
+    private static String normaliseFiles(Map<String, String[]> aliases) {
+        Map<String, String> ret = new TreeMap<>();
+        for (Map.Entry<String, String[]> e : aliases.entrySet()) {
+            StringBuilder files = new StringBuilder();
+            for (String file : e.getValue()) {
+                files.append('[').append(normalisePath(file)).append(']');
+            }
+            ret.put(e.getKey(), files.toString());
+        }
+        return ret.toString();
+    }
+
+    private static String normalisePath(String path) {
+        return path == null ? null : Paths.get(path).toAbsolutePath().normalize().toString();
+    }
+}
@@ -1,21 +1,15 @@
 package io.r2.simplepemkeystore.spi;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import io.r2.simplepemkeystore.MultiFileConcatSource;
 import io.r2.simplepemkeystore.ReloadablePemKeyStoreConfig;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.security.NoSuchAlgorithmException;
+import java.lang.ref.Cleaner;
+import java.security.*;
+import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
-import java.util.Date;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Reloadable PEM based key store
@@ -32,22 +26,63 @@ import java.util.concurrent.TimeUnit;
  *     "certificates": {
  *          "server": [ "everything_in_one.pem" ],
  *          "server2": [ "cert.pem", "chain.pem", "key.pem" ]
+ *     },
+ *     "crls": {
+ *          "clientca-crl": [ "crl.pem" ]
  *     }
  * }
+ *
+ * The crls section is optional, these entries hold only certificate revocation lists.
+ *
+ * If a snapshotFile is configured, the entries are saved in binary snapshot format after every change, and
+ * loaded from the snapshot at startup, if the source files (path, size and modification time) still match.
+ * Entries with changed sources are parsed from PEM as usual.
+ *
+ * Each alias is checked on its own schedule (refreshInterval, or its entry in refreshIntervals) by a small pool
+ * of reload threads, so an alias on slow storage does not delay the others.
+ *
+ * Decoded files are cached by path, size and modification time, so a file referenced by several aliases (eg. a
+ * shared chain) is read and decoded once per change, and the aliases share the decoded certificates.
+ *
+ * With a manifest file, only the manifest is checked every refreshInterval. When its generation changes, all aliases
+ * with a changed content hash are loaded, and replaced together only if all of them match the manifest, so every
+ * node sharing the directory switches to the same set of certificates. Otherwise the manifest is retried on the next
+ * check. See ReloadablePemKeyStoreConfig for the manifest format.
+ *
+ * With maxRefreshInterval set, the check interval adapts per alias to the certificate expiration: certificates far
+ * from their renewal window are checked rarely, down to every refreshInterval as the window approaches.
+ * Certificates crossing the configured expiry warning thresholds are reported to the expiry listener and as
+ * flight recorder events.
+ *
+ * The configuration object can also be passed directly with KeyStore.load(LoadStoreParameter), which skips the
+ * JSON round trip, and also sets the listener and metrics callbacks.
+ *
+ * Key stores loaded with the same configuration (after normalising paths, with the same listener and metrics
+ * objects) share one engine in the JVM: the files are polled and decoded once, and all of them see the same entries.
+ * The engine is released when the key store is loaded with null (KeyStore.load(null)), loaded with another
+ * configuration, or garbage collected; the last release stops its reload threads.
+ *
+ * Entries set or deleted through the KeyStore API are local to the key store, other key stores sharing the engine
+ * don't see them. They take precedence over the entry loaded from the files until the files of the alias are
+ * modified again (or reloaded through JMX). Loading the key store drops them.
+ *
+ * Each engine is registered in JMX (see ReloadablePemKeyStoreMXBean).
  */
 public class ReloadablePemKeyStoreSpi extends BasePemKeyStore {
 
-    /** current configuration */
-    private ReloadablePemKeyStoreConfig configuration;
+    /** the shared engine, or an engine of its own which is not started before the first load */
+    private volatile ReloadEngine engine = new ReloadEngine();
 
-    /** scheduler for the certificate refreshing task */
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    /** aliases deleted through the KeyStore API, and the time of deletion: older entries of the engine are hidden */
+    private final Map<String, Date> deleted = new ConcurrentHashMap<>();
 
+    /** releases the lease of the engine, null if not loaded */
+    private Cleaner.Cleanable lease;
 
     /**
-     * Loads from a stream of PEM files and stores under alias 'server'
+     * Loads from a JSON configuration, see ReloadablePemKeyStoreConfig
      *
-     * @param stream input stream with multiple PEMs (including certificate chain and key)
+     * @param stream input stream with the JSON configuration, null releases the engine
      * @param password not used, password protection is not supported
      * @throws IOException on input error
      * @throws NoSuchAlgorithmException - not thrown
@@ -55,58 +90,116 @@ public class ReloadablePemKeyStoreSpi extends BasePemKeyStore {
      */
     @Override
     public void engineLoad(InputStream stream, char[] password) throws IOException, NoSuchAlgorithmException, CertificateException {
-        ObjectMapper mapper = new ObjectMapper();
-        configuration = mapper.readValue(stream, ReloadablePemKeyStoreConfig.class);
+        load(stream == null ? null : ReloadablePemKeyStoreConfig.fromJSON(stream));
+    }
 
-        // load all certificates
-        for (String alias : configuration.getCertificates().keySet()) {
-            refreshCertificate(alias);
+    /**
+     * Loads from a configuration object, without the JSON round trip
+     * The key store works on a copy, later changes of the configuration object have no effect.
+     *
+     * @param param the configuration, must be a ReloadablePemKeyStoreConfig, null releases the engine
+     * @throws IOException on input error
+     * @throws NoSuchAlgorithmException - not thrown
+     * @throws CertificateException if loading is failed
+     */
+    @Override
+    public void engineLoad(KeyStore.LoadStoreParameter param) throws IOException, NoSuchAlgorithmException, CertificateException {
+        if (param != null && !(param instanceof ReloadablePemKeyStoreConfig)) {
+            throw new IllegalArgumentException("Expected ReloadablePemKeyStoreConfig parameter");
         }
-
-        // schedule modification check and reload
-        scheduler.scheduleAtFixedRate(() -> {
-            for (String alias : configuration.getCertificates().keySet()) {
-                try {
-                    refreshCertificate(alias);
-                } catch (Exception e) {
-                    // cache rebuild failed, keep the old one quietly
-                }
-            }
-        }, configuration.getRefreshInterval(), configuration.getRefreshInterval(), TimeUnit.SECONDS);
+        load(param == null ? null : ((ReloadablePemKeyStoreConfig) param).copy());
     }
 
     /**
-     * Refreshes a certificate if it has been changed
-     * @param alias the alias of the certificate to reload
+     * Switches to the engine of the configuration, then releases the previous engine
+     * The new engine is acquired first, so loading the same configuration again keeps the engine running.
+     * Entries set or deleted through the KeyStore API are dropped.
+     *
+     * @param config the configuration, null to release the engine only
      * @throws IOException on input error
-     * @throws CertificateException on certificate format error
      * @throws NoSuchAlgorithmException when required cryptographic algorithms are missing
+     * @throws CertificateException if loading is failed
      */
-    private void refreshCertificate(String alias) throws IOException, CertificateException, NoSuchAlgorithmException  {
-
-        String[] files = configuration.getCertificates().get(alias);
+    private synchronized void load(ReloadablePemKeyStoreConfig config) throws IOException, NoSuchAlgorithmException, CertificateException {
+        Cleaner.Cleanable previous = lease;
+        if (config == null) {
+            engine = new ReloadEngine();
+            lease = null;
+        }
+        else {
+            ReloadEngineRegistry.Lease acquired = ReloadEngineRegistry.acquire(config);
+            engine = acquired.getEngine();
+            // the lease must not reference this key store, or it would never be collected
+            lease = ReloadEngineRegistry.cleaner.register(this, acquired);
+        }
+        store.clear();
+        deleted.clear();
+        if (previous != null) previous.clean();
+    }
 
-        long fileTime = 0;
-        for (String f : files) {
-            Path path = new File(f).toPath();
-            BasicFileAttributes attr = Files.readAttributes(path, BasicFileAttributes.class);
-            fileTime = Math.max(fileTime, attr.lastModifiedTime().toMillis());
+    /**
+     * The entry set through the KeyStore API (or the deletion), unless the entry of the engine is newer
+     */
+    @Override
+    protected PemCertKey entry(String alias) {
+        PemCertKey shared = engine.getEntries().get(alias);
+        PemCertKey own = store.get(alias);
+        Date since = own != null ? own.getCreationDate() : deleted.get(alias);
+        if (since == null) return shared;
+        // the files of the alias have been modified since
+        if (shared != null && shared.getCreationDate().after(since)) return shared;
+        return own;
+    }
 
+    @Override
+    protected Collection<String> aliases() {
+        PemEntryStore shared = engine.getEntries();
+        if (store.isEmpty() && deleted.isEmpty()) return shared.aliases();
+        Set<String> aliases = new HashSet<>(store.aliases());
+        for (String alias : shared.aliases()) {
+            if (entry(alias) != null) aliases.add(alias);
         }
-        Date fileDate = new Date(fileTime);
+        return aliases;
+    }
+
+    @Override
+    protected String certificateAlias(Certificate cert) {
+        String alias = store.findAlias(cert, this::entry);
+        return alias != null ? alias : engine.getEntries().findAlias(cert, this::entry);
+    }
 
-        PemCertKey old = store.get(alias);
-        if (old == null || old.getCreationDate().before(fileDate))
-        {
+    @Override
+    protected Collection<PemCertKey> entries() {
+        List<PemCertKey> entries = new ArrayList<>();
+        for (String alias : aliases()) {
+            PemCertKey entry = entry(alias);
+            if (entry != null) entries.add(entry);
+        }
+        return entries;
+    }
 
-            store.put(alias,
-                    PemStreamParser.parseCertificate(
-                            MultiFileConcatSource.fromFiles(files).build(),
-                            alias,
-                            fileDate
-                    )
-            );
+    /**
+     * Keeps an entry set through the KeyStore API in this key store, called by setEntry under the writer lock
+     */
+    @Override
+    protected void putEntry(String alias, PemCertKey entry) {
+        PemCertKey old = entry(alias);
+        store.put(alias, entry);
+        deleted.remove(alias);
+        engine.rotated(alias, old, entry);
+    }
 
+    /**
+     * Hides the entry of the engine until its files are modified again
+     */
+    @Override
+    protected synchronized void removeEntry(String alias) {
+        PemCertKey old = entry(alias);
+        if (old == null) return;
+        store.remove(alias);
+        if (engine.getEntries().get(alias) != null) {
+            deleted.put(alias, new Date(Math.max(System.currentTimeMillis(), old.getCreationDate().getTime())));
         }
+        engine.rotated(alias, old, null);
     }
 }
@@ -0,0 +1,216 @@
+package io.r2.simplepemkeystore.spi;
+
+import javax.security.auth.x500.X500Principal;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.cert.CertificateException;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable index of revoked certificate serial numbers, per issuer
+ * The serials of each issuer are kept in an open addressing hash set of primitive hashes and serials,
+ * so a revocation check is a single hash lookup and does not allocate.
+ *
+ * A CRL is only used once its signature is verified with the key of the issuer in the validated path (or, for
+ * indirect CRL entries, a trust anchor with the name of the CRL issuer). Verification results are cached per key.
+ * A CRL past its nextUpdate is stale: the serials it lists are still revoked, but it does not prove that a
+ * certificate is not revoked.
+ * Note: intentionally defined as package access only
+ */
+class RevocationIndex {
+
+    /** index without any revocation lists */
+    static final RevocationIndex EMPTY = new RevocationIndex(Collections.emptyMap(), Collections.emptyMap(), 0);
+
+    /** revocation lists by the issuer of the certificates they cover */
+    private final Map<X500Principal, List<IssuerCrl>> byIssuer;
+    /** trust anchors by subject, to verify indirect CRLs */
+    private final Map<X500Principal, Set<TrustAnchor>> anchors;
+    private final int size;
+
+    /**
+     * The serials one CRL revokes for one certificate issuer
+     */
+    private static final class IssuerCrl {
+        final X509CRL crl;
+        final SerialSet serials;
+        /** true if the certificate issuer is not the CRL issuer */
+        final boolean indirect;
+        /** signature verification result per key */
+        final Map<PublicKey, Boolean> verified = new ConcurrentHashMap<>();
+
+        IssuerCrl(X509CRL crl, Collection<BigInteger> serials, boolean indirect) {
+            this.crl = crl;
+            this.serials = new SerialSet(serials);
+            this.indirect = indirect;
+        }
+
+        boolean isSignedBy(PublicKey key) {
+            return verified.computeIfAbsent(key, (k) -> {
+                try {
+                    crl.verify(k);
+                    return true;
+                }
+                catch (GeneralSecurityException e) {
+                    return false;
+                }
+            });
+        }
+
+        boolean isStale(Date now) {
+            Date nextUpdate = crl.getNextUpdate();
+            return nextUpdate != null && nextUpdate.before(now);
+        }
+    }
+
+    private RevocationIndex(Map<X500Principal, List<IssuerCrl>> byIssuer, Map<X500Principal, Set<TrustAnchor>> anchors, int size) {
+        this.byIssuer = byIssuer;
+        this.anchors = anchors;
+        this.size = size;
+    }
+
+    /**
+     * Builds the index from a list of CRLs
+     * Indirect CRL entries (with certificate issuer extension) are indexed under their own issuer.
+     *
+     * @param crls the revocation lists
+     * @param anchors trust anchors by subject
+     * @return the new index
+     */
+    static RevocationIndex build(Collection<X509CRL> crls, Map<X500Principal, Set<TrustAnchor>> anchors) {
+        if (crls.isEmpty()) return EMPTY;
+
+        Map<X500Principal, List<IssuerCrl>> byIssuer = new HashMap<>();
+        int size = 0;
+        for (X509CRL crl : crls) {
+            X500Principal crlIssuer = crl.getIssuerX500Principal();
+            Map<X500Principal, List<BigInteger>> serials = new HashMap<>();
+            // an empty CRL still covers its issuer
+            serials.put(crlIssuer, new ArrayList<>());
+            Set<? extends X509CRLEntry> entries = crl.getRevokedCertificates();
+            if (entries != null) {
+                for (X509CRLEntry entry : entries) {
+                    X500Principal issuer = entry.getCertificateIssuer();
+                    if (issuer == null) issuer = crlIssuer;
+                    serials.computeIfAbsent(issuer, (k) -> new ArrayList<>()).add(entry.getSerialNumber());
+                }
+            }
+            for (Map.Entry<X500Principal, List<BigInteger>> e : serials.entrySet()) {
+                IssuerCrl issuerCrl = new IssuerCrl(crl, e.getValue(), !e.getKey().equals(crlIssuer));
+                byIssuer.computeIfAbsent(e.getKey(), (k) -> new ArrayList<>()).add(issuerCrl);
+                size += issuerCrl.serials.size;
+            }
+        }
+        return new RevocationIndex(byIssuer, anchors, size);
+    }
+
+    /**
+     * Checks a certificate against the revocation lists of its issuer
+     * Certificates of issuers without a revocation list are not checked.
+     *
+     * @param cert the certificate to check
+     * @param issuerKey public key of the issuer in the validated path
+     * @param now the current time
+     * @return time in milliseconds until the result holds: the latest nextUpdate of the current CRLs,
+     * or Long.MAX_VALUE if there is no CRL of the issuer (or none with a nextUpdate)
+     * @throws CertificateException if the certificate is revoked, or all verified CRLs of the issuer are stale
+     */
+    long check(X509Certificate cert, PublicKey issuerKey, Date now) throws CertificateException {
+        List<IssuerCrl> crls = byIssuer.get(cert.getIssuerX500Principal());
+        if (crls == null) return Long.MAX_VALUE;
+
+        Date staleSince = null;
+        boolean current = false;
+        long until = Long.MIN_VALUE;
+        for (IssuerCrl crl : crls) {
+            if (!isVerified(crl, issuerKey)) continue;
+            if (crl.serials.contains(cert.getSerialNumber())) {
+                throw new CertificateException("Certificate has been revoked: " + cert.getSubjectX500Principal()
+                        + ", serial " + cert.getSerialNumber().toString(16));
+            }
+            Date nextUpdate = crl.crl.getNextUpdate();
+            if (crl.isStale(now)) {
+                staleSince = nextUpdate;
+            }
+            else {
+                current = true;
+                until = Math.max(until, nextUpdate == null ? Long.MAX_VALUE : nextUpdate.getTime());
+            }
+        }
+        if (!current && staleSince != null) {
+            throw new CertificateException("Revocation status unknown, the CRL of " + cert.getIssuerX500Principal()
+                    + " is stale since " + staleSince);
+        }
+        return current ? until : Long.MAX_VALUE;
+    }
+
+    private boolean isVerified(IssuerCrl crl, PublicKey issuerKey) {
+        if (!crl.indirect) return crl.isSignedBy(issuerKey);
+        for (TrustAnchor anchor : anchors.getOrDefault(crl.crl.getIssuerX500Principal(), Collections.emptySet())) {
+            if (crl.isSignedBy(anchor.getTrustedCert().getPublicKey())) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return number of revoked serials in the index
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Open addressing (linear probing) hash set of serial numbers
+     */
+    static final class SerialSet {
+        private final int[] hashes;
+        private final BigInteger[] serials;
+        private final int mask;
+        private int size;
+
+        SerialSet(Collection<BigInteger> values) {
+            // keep load factor at or below 0.5
+            int capacity = 2;
+            while (capacity < values.size() * 2) capacity <<= 1;
+            hashes = new int[capacity];
+            serials = new BigInteger[capacity];
+            mask = capacity - 1;
+            for (BigInteger serial : values) add(serial);
+        }
+
+        private void add(BigInteger serial) {
+            int hash = hash(serial);
+            int i = hash & mask;
+            while (serials[i] != null) {
+                if (hashes[i] == hash && serials[i].equals(serial)) return;
+                i = (i + 1) & mask;
+            }
+            hashes[i] = hash;
+            serials[i] = serial;
+            size++;
+        }
+
+        boolean contains(BigInteger serial) {
+            int hash = hash(serial);
+            int i = hash & mask;
+            while (serials[i] != null) {
+                if (hashes[i] == hash && serials[i].equals(serial)) return true;
+                i = (i + 1) & mask;
+            }
+            return false;
+        }
+
+        private static int hash(BigInteger serial) {
+            // spread the bits, linear probing is sensitive to clustering
+            int h = serial.hashCode() * 0x9e3779b9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+}
@@ -1,15 +1,21 @@
 package io.r2.simplepemkeystore.spi;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
+import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
  * A simple (non-reloadable) PEM based key store
+ *
+ * Loading again into the same key store is incremental: each entry of the PEM input is framed and hashed first, and
+ * only the entries whose PEM block differs from the block of the stored entry are decoded and replaced. Unchanged
+ * entries keep their creation date, so key managers only rebuild the changed aliases.
  */
 public class SimplePemKeyStoreSpi extends BasePemKeyStore {
 
@@ -17,6 +23,8 @@ public class SimplePemKeyStoreSpi extends BasePemKeyStore {
      * Loads from a stream of PEM files
      * If no alias metadata present, it stores under alias 'server'
      * Otherwise can parse multiple certificates separated by alias metadata
+     * The input may also be a binary snapshot, written by KeyStore.store
+     * Entries already in the store with the same PEM block are kept, entries not in the input are not removed.
      *
      * @param stream input stream with multiple PEMs (including certificate chain and key)
      * @param password not used, password protection is not supported
@@ -26,16 +34,44 @@ public class SimplePemKeyStoreSpi extends BasePemKeyStore {
      */
     @Override
     public void engineLoad(InputStream stream, char[] password) throws IOException, NoSuchAlgorithmException, CertificateException {
-        List<PemCertKey> certList = PemStreamParser.parseCertificateList(stream);
-        // check for alias conflict in input
+        // empty key store
+        if (stream == null) return;
+
+        InputStream in = stream.markSupported() ? stream : new BufferedInputStream(stream);
         Map<String, PemCertKey> newCerts = new HashMap<>();
-        for (PemCertKey certkey : certList) {
-            String alias = certkey.getAlias();
-            if (newCerts.putIfAbsent(alias, certkey) != null) {
-                throw new CertificateException("Multiple entries with the same alias: " + alias);
+        if (PemKeyStoreSnapshot.isSnapshot(in)) {
+            for (PemCertKey certkey : PemKeyStoreSnapshot.read(ByteBuffer.wrap(in.readAllBytes()))) {
+                checkConflict(newCerts.putIfAbsent(certkey.getAlias(), certkey), certkey.getAlias());
+            }
+        }
+        else {
+            // check for alias conflict in input before decoding anything
+            Map<String, PemStreamParser.EntryBlock> blocks = new HashMap<>();
+            for (PemStreamParser.EntryBlock block : PemStreamParser.frameCertificateList(in)) {
+                checkConflict(blocks.putIfAbsent(block.getAlias(), block), block.getAlias());
+            }
+            for (Map.Entry<String, PemStreamParser.EntryBlock> e : blocks.entrySet()) {
+                PemCertKey old = store.get(e.getKey());
+                PemStreamParser.EntryBlock block = e.getValue();
+                if (old != null && block.getDigest().equals(old.getBlockDigest())) continue;
+
+                PemCertKey certkey = block.decode();
+                if (old != null && !block.hasCreationDate() && !certkey.getCreationDate().after(old.getCreationDate())) {
+                    // loaded within the same millisecond, still newer for the key managers
+                    certkey.setCreationDate(new Date(old.getCreationDate().getTime() + 1));
+                }
+                newCerts.put(e.getKey(), certkey);
             }
         }
-        // no alias conflict: store everything (update existing also)
-        store.putAll(newCerts);
+        // no alias conflict and everything decoded: store the new and changed entries
+        for (Map.Entry<String, PemCertKey> e : newCerts.entrySet()) {
+            putEntry(e.getKey(), e.getValue());
+        }
+    }
+
+    private static void checkConflict(Object previous, String alias) throws CertificateException {
+        if (previous != null) {
+            throw new CertificateException("Multiple entries with the same alias: " + alias);
+        }
     }
 }
@@ -0,0 +1,112 @@
+package io.r2.simplepemkeystore.spi;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Writes the snapshot file of a reload engine on its own thread
+ *
+ * Writes are debounced: the first request after a write waits for the delay, and the requests arriving meanwhile
+ * are covered by the same write. The entries are copied when the write starts, so the reload threads only set a
+ * flag and never wait for the file. Closing writes the pending request right away.
+ * Note: intentionally defined as package access only
+ */
+class SnapshotWriter {
+
+    /** default delay between the first request and the write */
+    static final long DEFAULT_DELAY_MILLIS = 1000;
+
+    private final Path file;
+    private final Supplier<? extends Collection<PemCertKey>> entries;
+    private final long delayMillis;
+    private final Thread thread;
+
+    /** guarded by this */
+    private boolean requested;
+    private boolean closed;
+
+    /**
+     * Creates the writer and starts its thread
+     *
+     * @param file the snapshot file
+     * @param entries supplies a view of the current entries
+     * @param delayMillis delay between the first request and the write
+     */
+    SnapshotWriter(Path file, Supplier<? extends Collection<PemCertKey>> entries, long delayMillis) {
+        this.file = file;
+        this.entries = entries;
+        this.delayMillis = delayMillis;
+        thread = BackgroundThreads.thread("simplepemreload-snapshot", this::run);
+        thread.start();
+    }
+
+    /**
+     * Requests a write of the current entries, without waiting for it
+     */
+    synchronized void request() {
+        if (closed || requested) return;
+        requested = true;
+        notifyAll();
+    }
+
+    /**
+     * Writes the pending request, and stops the thread
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (awaitRequest()) {
+                write();
+            }
+        }
+        catch (InterruptedException e) {
+            // stopped without the pending write
+        }
+    }
+
+    /**
+     * Waits for a request and the delay after it, or until closed
+     *
+     * @return true if there is a request to write
+     */
+    private synchronized boolean awaitRequest() throws InterruptedException {
+        while (!requested && !closed) {
+            wait();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        long remaining;
+        while (!closed && (remaining = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        // cleared before copying, so a change made during the write requests another one
+        boolean write = requested;
+        requested = false;
+        return write;
+    }
+
+    private void write() {
+        List<PemCertKey> copy = new ArrayList<>(entries.get());
+        try {
+            PemKeyStoreSnapshot.writeFile(file, copy);
+        }
+        catch (Exception e) {
+            // snapshot is only an optimization, keep working without it
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package io.r2.simplepemkeystore.spi;
+
+import io.r2.simplepemkeystore.CrlEntry;
+
+import javax.security.auth.x500.X500Principal;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.*;
+
+/**
+ * An immutable set of trust anchors built from the certificate entries of a key store
+ * The anchors are indexed by subject and by subject key identifier, so the issuer of a chain
+ * is found with a hash lookup instead of scanning the whole bundle.
+ * The revocation lists of the key store (CrlEntry entries) are part of the same snapshot.
+ * Note: intentionally defined as package access only
+ */
+class TrustAnchorIndex {
+
+    private static final String SUBJECT_KEY_IDENTIFIER = "2.5.29.14";
+    private static final String AUTHORITY_KEY_IDENTIFIER = "2.5.29.35";
+
+    /** generation of this index, increases with every rebuild */
+    private final long generation;
+    /** creation dates of the aliases the anchors were built from, for change detection */
+    private final Map<String, Date> creationDates;
+    /** anchors indexed by subject */
+    private final Map<X500Principal, Set<TrustAnchor>> bySubject;
+    /** anchors indexed by subject key identifier (as hex string) */
+    private final Map<String, Set<TrustAnchor>> byKeyId;
+    /** all trusted certificates */
+    private final X509Certificate[] acceptedIssuers;
+    /** revoked certificates */
+    private final RevocationIndex revocations;
+
+    private TrustAnchorIndex(long generation, Map<String, Date> creationDates, Collection<X509Certificate> certificates, Collection<X509CRL> crls) {
+        this.generation = generation;
+        this.creationDates = creationDates;
+        this.bySubject = new HashMap<>();
+        this.byKeyId = new HashMap<>();
+        for (X509Certificate cert : certificates) {
+            TrustAnchor anchor = new TrustAnchor(cert, null);
+            bySubject.computeIfAbsent(cert.getSubjectX500Principal(), (k) -> new HashSet<>()).add(anchor);
+            byte[] keyId = subjectKeyIdentifier(cert);
+            if (keyId != null) {
+                byKeyId.computeIfAbsent(Fingerprints.toHex(keyId), (k) -> new HashSet<>()).add(anchor);
+            }
+        }
+        this.acceptedIssuers = certificates.toArray(new X509Certificate[0]);
+        this.revocations = RevocationIndex.build(crls, bySubject);
+    }
+
+    /**
+     * Builds the index from a key store
+     * All certificates from entries without a private key are used as trust anchors,
+     * all CRL entries are used for revocation checking.
+     *
+     * @param keyStore the key store to read
+     * @param generation generation number of the new index
+     * @return the new index
+     * @throws KeyStoreException if the key store can't be read
+     */
+    static TrustAnchorIndex build(KeyStore keyStore, long generation) throws KeyStoreException {
+        Map<String, Date> creationDates = new HashMap<>();
+        // keep order and drop duplicates (same CA in multiple bundles)
+        Set<X509Certificate> certificates = new LinkedHashSet<>();
+        List<X509CRL> crls = new ArrayList<>();
+
+        for (Enumeration<String> aliases = keyStore.aliases(); aliases.hasMoreElements(); ) {
+            String alias = aliases.nextElement();
+            creationDates.put(alias, keyStore.getCreationDate(alias));
+            if (keyStore.entryInstanceOf(alias, CrlEntry.class)) {
+                try {
+                    crls.addAll(((CrlEntry) keyStore.getEntry(alias, null)).getCrls());
+                }
+                catch (GeneralSecurityException e) {
+                    throw new KeyStoreException(e);
+                }
+                continue;
+            }
+            if (keyStore.isKeyEntry(alias) || !keyStore.isCertificateEntry(alias)) continue;
+
+            Certificate[] chain = keyStore.getCertificateChain(alias);
+            if (chain == null) chain = new Certificate[] { keyStore.getCertificate(alias) };
+            for (Certificate cert : chain) {
+                if (cert instanceof X509Certificate) certificates.add((X509Certificate) cert);
+            }
+        }
+
+        return new TrustAnchorIndex(generation, creationDates, certificates, crls);
+    }
+
+    /**
+     * Checks if the index still reflects the contents of the key store
+     *
+     * @param keyStore the key store the index was built from
+     * @return true if no alias has been added, removed or changed since building
+     * @throws KeyStoreException if the key store can't be read
+     */
+    boolean isCurrent(KeyStore keyStore) throws KeyStoreException {
+        if (keyStore.size() != creationDates.size()) return false;
+        for (Enumeration<String> aliases = keyStore.aliases(); aliases.hasMoreElements(); ) {
+            String alias = aliases.nextElement();
+            Date date = creationDates.get(alias);
+            if (date == null || !date.equals(keyStore.getCreationDate(alias))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return generation of this index
+     */
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return all trusted certificates
+     */
+    X509Certificate[] getAcceptedIssuers() {
+        return acceptedIssuers;
+    }
+
+    /**
+     * Checks if a certificate is one of the trust anchors
+     *
+     * @param cert the certificate to check
+     * @return true if the certificate is trusted directly
+     */
+    boolean isTrusted(X509Certificate cert) {
+        Set<TrustAnchor> anchors = bySubject.get(cert.getSubjectX500Principal());
+        if (anchors == null) return false;
+        for (TrustAnchor anchor : anchors) {
+            if (anchor.getTrustedCert().equals(cert)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks a certificate of a validated path against the revocation lists (see RevocationIndex.check)
+     *
+     * @param cert the certificate to check
+     * @param issuerKey public key of the issuer in the validated path
+     * @param now the current time
+     * @return time in milliseconds until the result holds
+     * @throws CertificateException if the certificate is revoked or its revocation status is unknown
+     */
+    long checkRevocation(X509Certificate cert, PublicKey issuerKey, Date now) throws CertificateException {
+        return revocations.check(cert, issuerKey, now);
+    }
+
+    /**
+     * Finds the trust anchors which may have issued a certificate
+     * The authority key identifier is used if present, otherwise the issuer name.
+     *
+     * @param cert the certificate to find issuers for
+     * @return candidate anchors, empty set if none
+     */
+    Set<TrustAnchor> findIssuers(X509Certificate cert) {
+        byte[] keyId = authorityKeyIdentifier(cert);
+        if (keyId != null) {
+            Set<TrustAnchor> anchors = byKeyId.get(Fingerprints.toHex(keyId));
+            if (anchors != null) return anchors;
+        }
+        Set<TrustAnchor> anchors = bySubject.get(cert.getIssuerX500Principal());
+        return anchors == null ? Collections.emptySet() : anchors;
+    }
+
+    /**
+     * @param cert the certificate
+     * @return the key identifier from the SubjectKeyIdentifier extension, or null if not present
+     */
+    static byte[] subjectKeyIdentifier(X509Certificate cert) {
+        // extension value: OCTET STRING { OCTET STRING keyIdentifier }
+        byte[] ext = derContents(cert.getExtensionValue(SUBJECT_KEY_IDENTIFIER), 0x04);
+        return derContents(ext, 0x04);
+    }
+
+    /**
+     * @param cert the certificate
+     * @return the key identifier from the AuthorityKeyIdentifier extension, or null if not present
+     */
+    static byte[] authorityKeyIdentifier(X509Certificate cert) {
+        // extension value: OCTET STRING { SEQUENCE { [0] keyIdentifier OPTIONAL, ... } }
+        byte[] ext = derContents(cert.getExtensionValue(AUTHORITY_KEY_IDENTIFIER), 0x04);
+        byte[] seq = derContents(ext, 0x30);
+        return derContents(seq, 0x80);
+    }
+
+    /**
+     * Returns the contents of the DER element at the beginning of the input
+     *
+     * @param der DER encoded input
+     * @param expectedTag the expected tag of the element
+     * @return contents of the element, or null if missing or tag does not match
+     */
+    private static byte[] derContents(byte[] der, int expectedTag) {
+        if (der == null || der.length < 2 || (der[0] & 0xff) != expectedTag) return null;
+        int pos = 2;
+        int len = der[1] & 0xff;
+        if (len > 0x7f) {
+            int n = len & 0x7f;
+            if (n > 3 || pos + n > der.length) return null;
+            len = 0;
+            for (int i = 0; i < n; i++) {
+                len = (len << 8) | (der[pos++] & 0xff);
+            }
+        }
+        if (pos + len > der.length) return null;
+        return Arrays.copyOfRange(der, pos, pos + len);
+    }
+
+}
@@ -0,0 +1,190 @@
+package io.r2.simplepemkeystore.spi;
+
+import java.security.MessageDigest;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A bounded cache of successfully validated certificate chains
+ * The key is the digest of the chain and the generation of the trust anchors it was validated against,
+ * entries expire at the earliest notAfter date in the chain (or earlier, when the CRLs checked expire).
+ * Lookups don't lock, so handshakes on many threads don't contend on the cache. Eviction is approximate: when the
+ * cache grows over its size, one thread removes the expired entries and then the least recently used ones, down to
+ * a bit below the maximum size so the sweep doesn't run on every put. Meanwhile other threads may add a few more.
+ * Note: intentionally defined as package access only
+ */
+class ValidatedChainCache {
+
+    /** last use is only updated when older than this, so a hot chain isn't written on every lookup */
+    private static final long USE_GRANULARITY = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /** maximum number of entries */
+    private final int maxSize;
+
+    /** number of entries left after eviction */
+    private final int evictTo;
+
+    private final Map<ChainKey, Entry> entries = new ConcurrentHashMap<>();
+
+    /** set while a thread evicts */
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    /**
+     * Expiration time in milliseconds and last use (System.nanoTime) of a cached chain
+     * Last use is a plain field, a lost update only makes eviction less exact.
+     */
+    private static final class Entry {
+        final long expires;
+        long used;
+
+        Entry(long expires, long used) {
+            this.expires = expires;
+            this.used = used;
+        }
+    }
+
+    /**
+     * Key of a validated chain
+     */
+    static final class ChainKey {
+        private final byte[] digest;
+        private final long generation;
+        private final int hash;
+
+        ChainKey(byte[] digest, long generation) {
+            this.digest = digest;
+            this.generation = generation;
+            this.hash = 31 * Arrays.hashCode(digest) + Long.hashCode(generation);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ChainKey that = (ChainKey) o;
+            return generation == that.generation && Arrays.equals(digest, that.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Create an empty cache
+     *
+     * @param maxSize maximum number of cached chains
+     */
+    ValidatedChainCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.evictTo = maxSize - maxSize / 8;
+    }
+
+    /**
+     * Creates the cache key for a chain
+     *
+     * @param chain the certificate chain
+     * @param generation generation of the trust anchors
+     * @return the key
+     * @throws CertificateEncodingException if a certificate can't be encoded
+     */
+    static ChainKey key(X509Certificate[] chain, long generation) throws CertificateEncodingException {
+        MessageDigest md = Fingerprints.sha256();
+        for (X509Certificate cert : chain) {
+            md.update(cert.getEncoded());
+        }
+        return new ChainKey(md.digest(), generation);
+    }
+
+    /**
+     * Checks if a chain has been validated and the entry is not expired yet
+     *
+     * @param key the chain key
+     * @param now current time in milliseconds
+     * @return true if cached and not expired
+     */
+    boolean contains(ChainKey key, long now) {
+        Entry entry = entries.get(key);
+        if (entry == null) return false;
+        if (entry.expires <= now) {
+            entries.remove(key, entry);
+            return false;
+        }
+        long time = System.nanoTime();
+        if (time - entry.used > USE_GRANULARITY) entry.used = time;
+        return true;
+    }
+
+    /**
+     * Adds a validated chain to the cache
+     *
+     * @param key the chain key
+     * @param chain the validated chain, used to calculate expiration
+     */
+    void put(ChainKey key, X509Certificate[] chain) {
+        put(key, chain, Long.MAX_VALUE);
+    }
+
+    /**
+     * Adds a validated chain to the cache, expiring at the latest at the given time
+     *
+     * @param key the chain key
+     * @param chain the validated chain, used to calculate expiration
+     * @param until time in milliseconds the validation result holds (for example the nextUpdate of a CRL)
+     */
+    void put(ChainKey key, X509Certificate[] chain, long until) {
+        long expires = until;
+        for (X509Certificate cert : chain) {
+            expires = Math.min(expires, cert.getNotAfter().getTime());
+        }
+        entries.put(key, new Entry(expires, System.nanoTime()));
+        // checked again after the sweep, for entries added while it ran
+        while (entries.size() > maxSize && evicting.compareAndSet(false, true)) {
+            try {
+                evict(System.currentTimeMillis());
+            }
+            finally {
+                evicting.set(false);
+            }
+        }
+    }
+
+    /**
+     * Removes the expired entries, then the least recently used ones until evictTo entries are left
+     */
+    private void evict(long now) {
+        entries.values().removeIf(e -> e.expires <= now);
+        long[] used = new long[entries.size() + 16];
+        int n = 0;
+        for (Entry e : entries.values()) {
+            if (n == used.length) break;
+            used[n++] = e.used;
+        }
+        int excess = n - evictTo;
+        if (excess <= 0) return;
+        Arrays.sort(used, 0, n);
+        long threshold = used[excess - 1];
+        entries.values().removeIf(e -> e.used <= threshold);
+    }
+
+    /**
+     * Removes all entries
+     */
+    void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return number of cached entries
+     */
+    int size() {
+        return entries.size();
+    }
+
+}
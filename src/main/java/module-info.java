@@ -1,5 +1,5 @@
 module io.r2io.simplepemkeystore {
     exports io.r2.simplepemkeystore;
     requires java.base;
-    requires com.fasterxml.jackson.databind;
+    requires java.management;
 }
\ No newline at end of file
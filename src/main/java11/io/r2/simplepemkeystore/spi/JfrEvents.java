@@ -0,0 +1,166 @@
+package io.r2.simplepemkeystore.spi;
+
+import jdk.jfr.*;
+
+/**
+ * Java Flight Recorder event definitions, used through PemKeyStoreEvents
+ * Events are created only if enabled in the recording, so disabled events cost a flag check.
+ * Note: intentionally defined as package access only
+ */
+final class JfrEvents {
+
+    private static final EventType PARSE = EventType.getEventType(ParseEvent.class);
+    private static final EventType REFRESH = EventType.getEventType(RefreshEvent.class);
+    private static final EventType REVALIDATE = EventType.getEventType(RevalidateEvent.class);
+    private static final EventType ALIAS_SELECTION = EventType.getEventType(AliasSelectionEvent.class);
+    private static final EventType EXPIRY_WARNING = EventType.getEventType(ExpiryWarningEvent.class);
+
+    private JfrEvents() {
+    }
+
+    @Name("io.r2.simplepemkeystore.Parse")
+    @Label("PEM Parse")
+    @Category({ "Simple PEM KeyStore" })
+    @Description("Parsing of a PEM input stream")
+    @StackTrace(false)
+    static class ParseEvent extends Event {
+        @Label("Characters") @DataAmount(DataAmount.BYTES)
+        long bytes;
+        @Label("PEM Blocks")
+        int chunks;
+    }
+
+    @Name("io.r2.simplepemkeystore.Refresh")
+    @Label("Key Store Refresh")
+    @Category({ "Simple PEM KeyStore" })
+    @Description("Modification check and reload of an alias in the reloading key store")
+    @StackTrace(false)
+    static class RefreshEvent extends Event {
+        @Label("Alias")
+        String alias;
+        @Label("Changed")
+        boolean changed;
+        @Label("Decode Time") @Timespan(Timespan.NANOSECONDS)
+        long decodeTime;
+        @Label("Failure")
+        String failure;
+    }
+
+    @Name("io.r2.simplepemkeystore.Revalidate")
+    @Label("Key Manager Revalidation")
+    @Category({ "Simple PEM KeyStore" })
+    @Description("Revalidation of the key manager cache")
+    @StackTrace(false)
+    static class RevalidateEvent extends Event {
+        @Label("Aliases")
+        int aliases;
+        @Label("Rebuilt")
+        int rebuilt;
+    }
+
+    @Name("io.r2.simplepemkeystore.AliasSelection")
+    @Label("Server Alias Selection")
+    @Category({ "Simple PEM KeyStore" })
+    @Description("Sampled chooseServerAlias call of the key manager")
+    @StackTrace(false)
+    static class AliasSelectionEvent extends Event {
+        @Label("Key Type")
+        String keyType;
+        @Label("Candidates")
+        int candidates;
+        @Label("Chosen Alias")
+        String chosen;
+    }
+
+    @Name("io.r2.simplepemkeystore.ExpiryWarning")
+    @Label("Certificate Expiry Warning")
+    @Category({ "Simple PEM KeyStore" })
+    @Description("A certificate in the reloading key store crossed an expiry warning threshold")
+    @StackTrace(false)
+    static class ExpiryWarningEvent extends Event {
+        @Label("Alias")
+        String alias;
+        @Label("Subject")
+        String subject;
+        @Label("Not After") @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+        long notAfter;
+        @Label("Threshold") @Timespan(Timespan.SECONDS)
+        long threshold;
+    }
+
+    static Object beginParse() {
+        if (!PARSE.isEnabled()) return null;
+        ParseEvent event = new ParseEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endParse(Object event, long bytes, int chunks) {
+        ParseEvent e = (ParseEvent) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.bytes = bytes;
+            e.chunks = chunks;
+            e.commit();
+        }
+    }
+
+    static Object beginRefresh(String alias) {
+        if (!REFRESH.isEnabled()) return null;
+        RefreshEvent event = new RefreshEvent();
+        event.alias = alias;
+        event.begin();
+        return event;
+    }
+
+    static void endRefresh(Object event, boolean changed, long decodeNanos, String failure) {
+        RefreshEvent e = (RefreshEvent) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.changed = changed;
+            e.decodeTime = decodeNanos;
+            e.failure = failure;
+            e.commit();
+        }
+    }
+
+    static Object beginRevalidate() {
+        if (!REVALIDATE.isEnabled()) return null;
+        RevalidateEvent event = new RevalidateEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endRevalidate(Object event, int aliases, int rebuilt) {
+        RevalidateEvent e = (RevalidateEvent) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.aliases = aliases;
+            e.rebuilt = rebuilt;
+            e.commit();
+        }
+    }
+
+    static boolean isAliasSelectionEnabled() {
+        return ALIAS_SELECTION.isEnabled();
+    }
+
+    static void aliasSelection(String keyType, int candidates, String chosen) {
+        AliasSelectionEvent e = new AliasSelectionEvent();
+        e.keyType = keyType;
+        e.candidates = candidates;
+        e.chosen = chosen;
+        e.commit();
+    }
+
+    static void expiryWarning(String alias, String subject, long notAfter, long threshold) {
+        if (!EXPIRY_WARNING.isEnabled()) return;
+        ExpiryWarningEvent e = new ExpiryWarningEvent();
+        e.alias = alias;
+        e.subject = subject;
+        e.notAfter = notAfter;
+        e.threshold = threshold;
+        e.commit();
+    }
+
+}
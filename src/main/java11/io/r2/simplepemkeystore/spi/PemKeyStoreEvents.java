@@ -0,0 +1,73 @@
+package io.r2.simplepemkeystore.spi;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Diagnostic events for parsing, reloading and alias selection - Java 11 version, using Java Flight Recorder
+ *
+ * JFR types are only touched through JfrEvents, after checking that the jdk.jfr module is present,
+ * so the library still works on runtime images without it.
+ * Methods returning an event object return null when the event is disabled, the end methods accept null.
+ * Note: intentionally defined as package access only
+ */
+final class PemKeyStoreEvents {
+
+    /** one in this many alias selections is recorded */
+    static final int ALIAS_SELECTION_SAMPLE_RATE = 64;
+
+    private static final boolean AVAILABLE = isJfrAvailable();
+
+    private PemKeyStoreEvents() {
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            Module jfr = Class.forName("jdk.jfr.Event").getModule();
+            Module self = PemKeyStoreEvents.class.getModule();
+            // requires of named modules are fixed at compile time, jdk.jfr is optional
+            if (!self.canRead(jfr)) self.addReads(jfr);
+            return true;
+        }
+        catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    static Object beginParse() {
+        return AVAILABLE ? JfrEvents.beginParse() : null;
+    }
+
+    static void endParse(Object event, long bytes, int chunks) {
+        if (event != null) JfrEvents.endParse(event, bytes, chunks);
+    }
+
+    static Object beginRefresh(String alias) {
+        return AVAILABLE ? JfrEvents.beginRefresh(alias) : null;
+    }
+
+    static void endRefresh(Object event, boolean changed, long decodeNanos, String failure) {
+        if (event != null) JfrEvents.endRefresh(event, changed, decodeNanos, failure);
+    }
+
+    static Object beginRevalidate() {
+        return AVAILABLE ? JfrEvents.beginRevalidate() : null;
+    }
+
+    static void endRevalidate(Object event, int aliases, int rebuilt) {
+        if (event != null) JfrEvents.endRevalidate(event, aliases, rebuilt);
+    }
+
+    static boolean sampleAliasSelection() {
+        return AVAILABLE && JfrEvents.isAliasSelectionEnabled()
+                && ThreadLocalRandom.current().nextInt(ALIAS_SELECTION_SAMPLE_RATE) == 0;
+    }
+
+    static void aliasSelection(String keyType, int candidates, String chosen) {
+        if (AVAILABLE) JfrEvents.aliasSelection(keyType, candidates, chosen);
+    }
+
+    static void expiryWarning(String alias, String subject, long notAfter, long threshold) {
+        if (AVAILABLE) JfrEvents.expiryWarning(alias, subject, notAfter, threshold);
+    }
+
+}
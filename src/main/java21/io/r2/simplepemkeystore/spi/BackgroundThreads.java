@@ -0,0 +1,74 @@
+package io.r2.simplepemkeystore.spi;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the threads of the background work: reload checks and key manager cache revalidation
+ *
+ * This is the Java 21 version from the multi-release jar, with virtual threads. Every check and every alias of a
+ * refresh cycle gets its own virtual thread, so the blocking file reads of thousands of aliases do not queue up
+ * behind a few workers, and the number of reload threads in the configuration is not used.
+ * Setting the system property io.r2.simplepemkeystore.platformThreads to true switches back to the platform
+ * threads of the Java 9 version, for key stores created after setting it.
+ * Note: intentionally defined as package access only
+ */
+final class BackgroundThreads {
+
+    /** system property to use platform threads instead of virtual threads */
+    static final String PLATFORM_PROPERTY = "io.r2.simplepemkeystore.platformThreads";
+
+    private BackgroundThreads() {
+    }
+
+    /**
+     * @return true if the background work runs on virtual threads
+     */
+    static boolean isVirtual() {
+        return !Boolean.getBoolean(PLATFORM_PROPERTY);
+    }
+
+    /**
+     * @param prefix thread name prefix
+     * @param threads number of worker threads, used with platform threads only
+     * @return executor of the reload workers, a new virtual thread per task
+     */
+    static ExecutorService workers(String prefix, int threads) {
+        if (isVirtual()) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 1).factory());
+        }
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), Thread.ofPlatform().daemon().name(prefix, 1).factory());
+    }
+
+    /**
+     * @param threads number of worker threads
+     * @return number of tasks a refresh cycle is spread over, besides the calling thread
+     */
+    static int parallelism(int threads) {
+        return isVirtual() ? Integer.MAX_VALUE : threads;
+    }
+
+    /**
+     * @param name thread name
+     * @param task the task
+     * @return a virtual (or daemon) thread running the task, not started
+     */
+    static Thread thread(String name, Runnable task) {
+        return isVirtual()
+                ? Thread.ofVirtual().name(name).unstarted(task)
+                : Thread.ofPlatform().daemon().name(name).unstarted(task);
+    }
+
+    /**
+     * @param name thread name
+     * @return single threaded scheduler of the key manager, on a virtual (or daemon) thread
+     */
+    static ScheduledExecutorService scheduler(String name) {
+        return Executors.newScheduledThreadPool(1, r -> thread(name, r));
+    }
+}
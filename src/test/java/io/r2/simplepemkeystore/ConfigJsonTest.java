@@ -0,0 +1,89 @@
+package io.r2.simplepemkeystore;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Test the in-tree JSON format of the configuration, the expected strings were produced by Jackson
+ */
+public class ConfigJsonTest {
+
+    private static ReloadablePemKeyStoreConfig parse(String json) throws IOException {
+        return ReloadablePemKeyStoreConfig.fromJSON(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testAllFields() throws Exception {
+        ReloadablePemKeyStoreConfig config = new ReloadablePemKeyStoreConfig()
+                .addCertificate("server", new String[]{"/etc/a b/\"q\"\\x.pem", "k\u00e9y\t\n.pem"})
+                .addCertificate("client", new String[]{"c.pem"})
+                .addCrl("ca-crl", new String[]{"crl.pem"})
+                .withRefreshInterval("server", 60)
+                .withReloadThreads(4)
+                .withSnapshotFile("/var/cache/snap")
+                .withManifestFile("/etc/manifest")
+                .withAdaptiveRefresh(86400, 172800)
+                .withExpiryWarnings(null, 604800, 86400)
+                .withRefreshInterval(300);
+        String json = "{\"refreshInterval\":300," +
+                "\"certificates\":{\"server\":[\"/etc/a b/\\\"q\\\"\\\\x.pem\",\"k\u00e9y\\t\\n.pem\"],\"client\":[\"c.pem\"]}," +
+                "\"crls\":{\"ca-crl\":[\"crl.pem\"]},\"refreshIntervals\":{\"server\":60},\"reloadThreads\":4," +
+                "\"snapshotFile\":\"/var/cache/snap\",\"manifestFile\":\"/etc/manifest\"," +
+                "\"maxRefreshInterval\":86400,\"renewalWindow\":172800,\"expiryWarnings\":[604800,86400]}";
+
+        assertThat(config.asJSON()).isEqualTo(json);
+        assertThat(parse(json)).isEqualTo(config);
+        assertThat(parse(json).asJSON()).isEqualTo(json);
+    }
+
+    @Test
+    public void testEscapes() throws Exception {
+        ReloadablePemKeyStoreConfig config = new ReloadablePemKeyStoreConfig()
+                .withSnapshotFile("\u0001\u001f\u007f\b\f\r/\u00e9");
+        String json = "{\"refreshInterval\":3600,\"certificates\":{},\"snapshotFile\":\"\\u0001\\u001F\u007f\\b\\f\\r/\u00e9\"}";
+
+        assertThat(config.asJSON()).isEqualTo(json);
+        assertThat(config.asInputStream()).hasSameContentAs(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        assertThat(parse(json).getSnapshotFile()).isEqualTo(config.getSnapshotFile());
+    }
+
+    @Test
+    public void testLenientInput() throws Exception {
+        ReloadablePemKeyStoreConfig config = parse("\uFEFF {\n \"refreshInterval\" : \"15\" ,\n" +
+                " \"certificates\" : { \"a\\u00e9\\/\" : [ \"x\" ] },\n" +
+                " \"snapshotFile\" : null, \"reloadThreads\" : null, \"expiryWarnings\" : [ 1e2 ] }\n");
+
+        assertThat(config.getRefreshInterval()).isEqualTo(15);
+        assertThat(config.getCertificates().get("a\u00e9/")).containsExactly("x");
+        assertThat(config.getSnapshotFile()).isNull();
+        assertThat(config.getReloadThreads()).isEqualTo(0);
+        assertThat(config.getExpiryWarnings()).containsExactly(100);
+        assertThat(parse("{}").asJSON()).isEqualTo("{\"refreshInterval\":3600,\"certificates\":{}}");
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        String[] invalid = {
+                "",
+                "{",
+                "{\"unknown\":1}",
+                "{\"refreshInterval\":\"abc\"}",
+                "{\"reloadThreads\":9999999999}",
+                "{\"certificates\":{\"a\":\"x\"}}",
+                "{\"certificates\":{\"a\":[\"x\"}}",
+                "{\"snapshotFile\":\"abc",
+                "{\"snapshotFile\":\"\\q\"}",
+                "{\"refreshInterval\":1 \"certificates\":{}}"
+        };
+        for (String json : invalid) {
+            assertThatThrownBy(() -> parse(json)).as(json).isInstanceOf(IOException.class);
+        }
+        assertThatThrownBy(() -> parse("{\"unknown\":1}")).hasMessageContaining("unknown property \"unknown\"");
+    }
+
+}
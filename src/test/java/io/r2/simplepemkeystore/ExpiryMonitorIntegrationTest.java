@@ -0,0 +1,137 @@
+package io.r2.simplepemkeystore;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.security.KeyStore;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Tests adaptive refresh scheduling and expiry warnings of the reloading key store
+ */
+public class ExpiryMonitorIntegrationTest {
+
+    private static final long DAY = 24L * 3600;
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @BeforeClass
+    public void registerProvider() throws Exception {
+        Security.addProvider(new SimplePemKeyStoreProvider());
+    }
+
+    /**
+     * Finds the alias info in JMX (other tests register key stores too)
+     */
+    private CompositeData aliasInfo(String alias) throws Exception {
+        for (ObjectName name : server.queryNames(new ObjectName("io.r2.simplepemkeystore:type=ReloadablePemKeyStore,*"), null)) {
+            for (CompositeData info : (CompositeData[]) server.getAttribute(name, "Aliases")) {
+                if (alias.equals(info.get("alias"))) return info;
+            }
+        }
+        return null;
+    }
+
+    private long secondsUntilNextCheck(String alias) throws Exception {
+        Date next = (Date) aliasInfo(alias).get("nextCheck");
+        return TimeUnit.MILLISECONDS.toSeconds(next.getTime() - System.currentTimeMillis());
+    }
+
+    @Test
+    public void testAdaptiveSchedule() throws Exception {
+        KeyStore ks = KeyStore.getInstance("simplepemreload");
+        ks.load(new ReloadablePemKeyStoreConfig()
+                .addCertificate("adaptive-valid", new String[] {
+                        "src/test/resources/client-cert.pem",
+                        "src/test/resources/client-key.pem"
+                })
+                .addCertificate("adaptive-expired", new String[] {
+                        "src/test/resources/certchain.pem",
+                        "src/test/resources/key.pem"
+                })
+                .withRefreshInterval(60)
+                .withAdaptiveRefresh(7 * DAY, 0)
+                .asInputStream(), new char[0]);
+
+        // valid for a long time: checked at the maximum interval
+        assertThat(secondsUntilNextCheck("adaptive-valid")).isCloseTo(7 * DAY, within(60L));
+        // expired (in the renewal window): checked at the refresh interval
+        assertThat(secondsUntilNextCheck("adaptive-expired")).isCloseTo(60L, within(5L));
+
+        // release the engine, which also keeps the key store reachable until here
+        ks.load(null);
+    }
+
+    @Test
+    public void testFixedSchedule() throws Exception {
+        KeyStore ks = KeyStore.getInstance("simplepemreload");
+        ks.load(new ReloadablePemKeyStoreConfig()
+                .addCertificate("fixed-valid", new String[] {
+                        "src/test/resources/client-cert.pem",
+                        "src/test/resources/client-key.pem"
+                })
+                .withRefreshInterval(60)
+                .asInputStream(), new char[0]);
+
+        assertThat(secondsUntilNextCheck("fixed-valid")).isCloseTo(60L, within(5L));
+
+        // release the engine, which also keeps the key store reachable until here
+        ks.load(null);
+    }
+
+    @Test
+    public void testExpiryWarnings() throws Exception {
+        List<String> warnings = new ArrayList<>();
+
+        KeyStore ks = KeyStore.getInstance("simplepemreload");
+        ks.load(new ReloadablePemKeyStoreConfig()
+                .addCertificate("warn-valid", new String[] {
+                        "src/test/resources/client-cert.pem",
+                        "src/test/resources/client-key.pem"
+                })
+                .addCertificate("warn-expired", new String[] {
+                        "src/test/resources/certchain.pem",
+                        "src/test/resources/key.pem"
+                })
+                .withExpiryWarnings((alias, cert, threshold) -> warnings.add(alias + ":" + threshold / DAY),
+                        1000 * 365 * DAY, DAY));
+
+        // the most severe crossed threshold is reported once
+        assertThat(warnings).containsExactlyInAnyOrder("warn-valid:365000", "warn-expired:1");
+
+        // no new warnings for the same certificates
+        for (ObjectName name : server.queryNames(new ObjectName("io.r2.simplepemkeystore:type=ReloadablePemKeyStore,*"), null)) {
+            for (CompositeData info : (CompositeData[]) server.getAttribute(name, "Aliases")) {
+                if ("warn-valid".equals(info.get("alias"))) server.invoke(name, "reload", null, null);
+            }
+        }
+        assertThat(warnings).hasSize(2);
+
+        // release the engine, which also keeps the key store reachable until here
+        ks.load(null);
+    }
+
+    @Test
+    public void testConfigJson() throws Exception {
+        ReloadablePemKeyStoreConfig config = new ReloadablePemKeyStoreConfig()
+                .withAdaptiveRefresh(7 * DAY, 14 * DAY)
+                .withExpiryWarnings(null, 7 * DAY);
+        assertThat(config.asJSON()).isEqualTo(
+                "{\"refreshInterval\":3600,\"certificates\":{},\"maxRefreshInterval\":604800," +
+                        "\"renewalWindow\":1209600,\"expiryWarnings\":[604800]}");
+        ReloadablePemKeyStoreConfig parsed = ReloadablePemKeyStoreConfig.fromJSON(config.asInputStream());
+        assertThat(parsed).isEqualTo(config);
+        assertThat(new ReloadablePemKeyStoreConfig().asJSON()).isEqualTo("{\"refreshInterval\":3600,\"certificates\":{}}");
+    }
+}
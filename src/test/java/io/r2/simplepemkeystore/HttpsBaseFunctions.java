@@ -53,7 +53,11 @@ public class HttpsBaseFunctions {
         throw new Exception("Can't find available ports for integration testing");
     }
 
-    protected HttpsURLConnection createClientConnection() throws Exception {
+    /**
+     * @return a client SSLContext which accepts any server certificate
+     * @throws Exception on initialization error
+     */
+    public static SSLContext createTrustAllContext() throws Exception {
         // disable client cert verification
         TrustManager trustallcerts = new X509TrustManager() {
             @Override
@@ -71,6 +75,11 @@ public class HttpsBaseFunctions {
         };
         SSLContext clientContext = SSLContext.getInstance("SSL");
         clientContext.init(null, new TrustManager[]{trustallcerts}, new SecureRandom());
+        return clientContext;
+    }
+
+    protected HttpsURLConnection createClientConnection() throws Exception {
+        SSLContext clientContext = createTrustAllContext();
 
         // try to connect to server
 
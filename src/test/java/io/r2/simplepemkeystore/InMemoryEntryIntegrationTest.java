@@ -0,0 +1,145 @@
+package io.r2.simplepemkeystore;
+
+import org.testng.SkipException;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.X509KeyManager;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.cert.Certificate;
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Tests setting and deleting entries in memory, through the KeyStore API
+ */
+public class InMemoryEntryIntegrationTest {
+
+    private Key selfKey;
+    private Certificate[] selfChain;
+
+    @BeforeClass
+    public void setup() throws Exception {
+        SimplePemKeyStoreProvider.register();
+        KeyStore self = load("src/test/resources/selfcert.pem", "src/test/resources/selfkey.pem");
+        selfKey = self.getKey("server", new char[0]);
+        selfChain = self.getCertificateChain("server");
+    }
+
+    private static KeyStore load(String... files) throws Exception {
+        KeyStore ks = KeyStore.getInstance("simplepem");
+        ks.load(MultiFileConcatSource.fromFiles(files).build(), new char[0]);
+        return ks;
+    }
+
+    @Test
+    public void testSetKeyEntry() throws Exception {
+        KeyStore ks = load("src/test/resources/certchain.pem", "src/test/resources/key.pem");
+        Certificate oldCert = ks.getCertificate("server");
+        Date oldDate = ks.getCreationDate("server");
+
+        ks.setKeyEntry("server", selfKey, null, selfChain);
+        assertThat(ks.getCertificate("server")).isEqualTo(selfChain[0]);
+        assertThat(ks.getKey("server", null)).isEqualTo(selfKey);
+        assertThat(ks.getCreationDate("server")).isAfter(oldDate);
+        assertThat(ks.getCertificateAlias(selfChain[0])).isEqualTo("server");
+        assertThat(ks.getCertificateAlias(oldCert)).isNull();
+        assertThat(ks.getEntry("server", null)).isInstanceOf(KeyStore.PrivateKeyEntry.class);
+
+        // replacing again still moves the creation date forward
+        Date date = ks.getCreationDate("server");
+        ks.setKeyEntry("server", selfKey, null, selfChain);
+        assertThat(ks.getCreationDate("server")).isAfter(date);
+
+        ks.setKeyEntry("encoded", selfKey.getEncoded(), selfChain);
+        assertThat(ks.getKey("encoded", null)).isEqualTo(selfKey);
+        assertThat(ks.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testInvalidEntries() throws Exception {
+        KeyStore ks = load("src/test/resources/certchain.pem", "src/test/resources/key.pem");
+
+        assertThatThrownBy(() -> ks.setKeyEntry("x", selfKey.getEncoded(), new Certificate[0]))
+                .isInstanceOf(KeyStoreException.class);
+        assertThatThrownBy(() -> ks.setKeyEntry("x", selfChain[0].getPublicKey(), null, selfChain))
+                .isInstanceOf(KeyStoreException.class);
+        assertThatThrownBy(() -> ks.setKeyEntry("x", new byte[] { 1, 2, 3 }, selfChain))
+                .isInstanceOf(KeyStoreException.class);
+        assertThatThrownBy(() -> ks.setCertificateEntry("server", selfChain[0]))
+                .isInstanceOf(KeyStoreException.class);
+        // same algorithm, but not the key of the certificate
+        Certificate[] serverChain = ks.getCertificateChain("server");
+        assertThatThrownBy(() -> ks.setKeyEntry("x", selfKey, null, serverChain))
+                .isInstanceOf(KeyStoreException.class)
+                .hasMessageContaining("does not match");
+        assertThatThrownBy(() -> ks.setKeyEntry("x", selfKey.getEncoded(), serverChain))
+                .isInstanceOf(KeyStoreException.class)
+                .hasMessageContaining("does not match");
+        assertThat(ks.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testCertificateEntryAndDelete() throws Exception {
+        KeyStore ks = load("src/test/resources/certchain.pem", "src/test/resources/key.pem");
+        Certificate serverCert = ks.getCertificate("server");
+
+        ks.setCertificateEntry("ca", selfChain[0]);
+        assertThat(ks.isCertificateEntry("ca")).isTrue();
+        assertThat(ks.isKeyEntry("ca")).isFalse();
+        assertThat(ks.getEntry("ca", null)).isInstanceOf(KeyStore.TrustedCertificateEntry.class);
+
+        ks.deleteEntry("server");
+        assertThat(ks.containsAlias("server")).isFalse();
+        assertThat(ks.getCertificateAlias(serverCert)).isNull();
+        ks.deleteEntry("missing");
+        assertThat(ks.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testReloadingKeyStoreKeepsEntry() throws Exception {
+        KeyStore ks = KeyStore.getInstance("simplepemreload");
+        ks.load(new ReloadablePemKeyStoreConfig()
+                .addCertificate("server", new String[] { "src/test/resources/certchain.pem", "src/test/resources/key.pem" })
+                .withRefreshInterval(0));
+
+        ks.setKeyEntry("server", selfKey, null, selfChain);
+        ks.setKeyEntry("extra", selfKey, null, selfChain);
+        assertThat(ks.getCertificate("server")).isEqualTo(selfChain[0]);
+        assertThat(ks.size()).isEqualTo(2);
+        ks.deleteEntry("extra");
+        assertThat(ks.containsAlias("extra")).isFalse();
+    }
+
+    @Test
+    public void testKeyManagerPicksUpChanges() throws Exception {
+        if ("true".equals(System.getProperty("io.r2.skipLongTests"))) throw new SkipException("Long test skipped");
+
+        KeyStore ks = load("src/test/resources/certchain.pem", "src/test/resources/key.pem");
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance("simplepemreload");
+        kmf.init(ExpiringCacheKeyManagerParameters.forKeyStore(ks).withRevalidation(5));
+        X509KeyManager km = (X509KeyManager) kmf.getKeyManagers()[0];
+        assertThat(km.getCertificateChain("server")[0]).isNotEqualTo(selfChain[0]);
+
+        ks.setKeyEntry("server", selfKey, null, selfChain);
+        long deadline = System.currentTimeMillis() + 15000;
+        while (!selfChain[0].equals(km.getCertificateChain("server")[0]) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertThat(km.getCertificateChain("server")[0]).isEqualTo(selfChain[0]);
+        assertThat(km.getPrivateKey("server")).isEqualTo(selfKey);
+
+        ks.deleteEntry("server");
+        deadline = System.currentTimeMillis() + 15000;
+        while (km.getCertificateChain("server") != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertThat(km.getCertificateChain("server")).isNull();
+        assertThat(km.chooseServerAlias("RSA", null, null)).isNull();
+    }
+
+}
@@ -0,0 +1,113 @@
+package io.r2.simplepemkeystore;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import java.nio.ByteBuffer;
+import java.security.cert.Certificate;
+
+/**
+ * Drives a client and a server SSLEngine against each other over in-memory buffers, no sockets involved
+ *
+ * Every handshake uses new engines without peer host information, so sessions are not resumed
+ * and each call performs a full handshake.
+ */
+public class InMemoryTlsHandshake {
+
+    /** upper limit of wrap/unwrap rounds, to detect stuck handshakes */
+    private static final int MAX_ROUNDS = 100;
+
+    private final SSLContext serverContext;
+    private final SSLContext clientContext;
+
+    /**
+     * @param serverContext context for the server side, with the key manager under test
+     * @param clientContext context for the client side, eg. HttpsBaseFunctions.createTrustAllContext()
+     */
+    public InMemoryTlsHandshake(SSLContext serverContext, SSLContext clientContext) {
+        this.serverContext = serverContext;
+        this.clientContext = clientContext;
+    }
+
+    /**
+     * Performs a full handshake
+     *
+     * @return the server certificate chain, as seen by the client
+     * @throws SSLException if the handshake fails
+     */
+    public Certificate[] handshake() throws SSLException {
+        SSLEngine client = clientContext.createSSLEngine();
+        client.setUseClientMode(true);
+        SSLEngine server = serverContext.createSSLEngine();
+        server.setUseClientMode(false);
+
+        int netSize = Math.max(client.getSession().getPacketBufferSize(), server.getSession().getPacketBufferSize());
+        int appSize = Math.max(client.getSession().getApplicationBufferSize(), server.getSession().getApplicationBufferSize());
+        ByteBuffer clientToServer = ByteBuffer.allocate(netSize);
+        ByteBuffer serverToClient = ByteBuffer.allocate(netSize);
+        ByteBuffer clientApp = ByteBuffer.allocate(appSize);
+        ByteBuffer serverApp = ByteBuffer.allocate(appSize);
+        ByteBuffer empty = ByteBuffer.allocate(0);
+
+        client.beginHandshake();
+        server.beginHandshake();
+
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            if (isDone(client) && isDone(server)) {
+                return client.getSession().getPeerCertificates();
+            }
+
+            step(client, empty, clientToServer);
+            step(server, empty, serverToClient);
+
+            clientToServer.flip();
+            unwrap(server, clientToServer, serverApp);
+            clientToServer.compact();
+
+            serverToClient.flip();
+            unwrap(client, serverToClient, clientApp);
+            serverToClient.compact();
+        }
+        throw new SSLException("Handshake did not finish in " + MAX_ROUNDS + " rounds");
+    }
+
+    private static boolean isDone(SSLEngine engine) {
+        HandshakeStatus status = engine.getHandshakeStatus();
+        return status == HandshakeStatus.NOT_HANDSHAKING || status == HandshakeStatus.FINISHED;
+    }
+
+    /**
+     * Produces outgoing handshake data while the engine wants to wrap
+     */
+    private static void step(SSLEngine engine, ByteBuffer empty, ByteBuffer out) throws SSLException {
+        while (engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+            SSLEngineResult result = engine.wrap(empty, out);
+            runTasks(engine, result);
+            if (result.getStatus() != SSLEngineResult.Status.OK) break;
+        }
+    }
+
+    /**
+     * Consumes incoming handshake data while there is any and the engine wants it
+     */
+    private static void unwrap(SSLEngine engine, ByteBuffer in, ByteBuffer app) throws SSLException {
+        while (in.hasRemaining()) {
+            SSLEngineResult result = engine.unwrap(in, app);
+            runTasks(engine, result);
+            if (result.getStatus() != SSLEngineResult.Status.OK) break;
+            if (result.bytesConsumed() == 0 && result.getHandshakeStatus() != HandshakeStatus.NEED_UNWRAP) break;
+        }
+    }
+
+    private static void runTasks(SSLEngine engine, SSLEngineResult result) {
+        if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+        }
+    }
+
+}
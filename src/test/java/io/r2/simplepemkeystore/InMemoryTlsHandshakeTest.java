@@ -0,0 +1,52 @@
+package io.r2.simplepemkeystore;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.security.KeyStore;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the in-memory handshake harness with the reloading key manager
+ */
+public class InMemoryTlsHandshakeTest {
+
+    @BeforeClass
+    public void registerProvider() throws Exception {
+        Security.addProvider(new SimplePemKeyStoreProvider());
+    }
+
+    @Test
+    public void testHandshake() throws Exception {
+        KeyStore ks = KeyStore.getInstance("simplepemreload");
+        ks.load(
+                new ReloadablePemKeyStoreConfig()
+                        .addCertificate("server", new String[] {
+                                "src/test/resources/certchain.pem",
+                                "src/test/resources/key.pem"
+                        })
+                        .asInputStream(),
+                new char[0] // no password
+        );
+
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance("simplepemreload");
+        kmf.init( ExpiringCacheKeyManagerParameters.forKeyStore(ks).withRevalidation(5) );
+
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(kmf.getKeyManagers(), null, null);
+
+        InMemoryTlsHandshake harness = new InMemoryTlsHandshake(ctx, HttpsBaseFunctions.createTrustAllContext());
+        for (int i = 0; i < 3; i++) {
+            Certificate[] peer = harness.handshake();
+            assertThat(peer).hasSize(2);
+            assertThat(((X509Certificate) peer[0]).getSubjectX500Principal().getName()).isEqualTo("CN=anna.apn2.com");
+        }
+    }
+
+}
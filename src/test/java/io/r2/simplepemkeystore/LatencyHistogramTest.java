@@ -0,0 +1,58 @@
+package io.r2.simplepemkeystore;
+
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Tests the latency histogram buckets and percentiles
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() throws Exception {
+        for (long v : new long[] { 0, 1, 31, 32, 63, 64, 100, 1000, 123456789, Long.MAX_VALUE }) {
+            int bucket = LatencyHistogram.bucket(v);
+            assertThat(LatencyHistogram.highestValue(bucket)).isGreaterThanOrEqualTo(v);
+            if (bucket > 0) assertThat(LatencyHistogram.highestValue(bucket - 1)).isLessThan(v);
+        }
+        assertThat(LatencyHistogram.highestValue(LatencyHistogram.bucket(Long.MAX_VALUE))).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        assertThat(h.getValueAtPercentile(99)).isEqualTo(0);
+
+        for (long v = 1; v <= 10000; v++) {
+            h.record(v * 1000);
+        }
+        assertThat(h.getCount()).isEqualTo(10000);
+        assertThat(h.getMax()).isEqualTo(10_000_000);
+        assertThat(h.getMean()).isCloseTo(5_000_500, within(1.0));
+        // within the 1/32 bucket precision
+        assertThat((double) h.getValueAtPercentile(50)).isCloseTo(5_000_000, within(5_000_000 / 32.0));
+        assertThat((double) h.getValueAtPercentile(99)).isCloseTo(9_900_000, within(9_900_000 / 32.0));
+        assertThat(h.getValueAtPercentile(100)).isEqualTo(10_000_000);
+
+        h.reset();
+        assertThat(h.getCount()).isEqualTo(0);
+        assertThat(h.getMax()).isEqualTo(0);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 100000; j++) h.record(j);
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) t.join();
+        assertThat(h.getCount()).isEqualTo(400000);
+        assertThat(h.getMax()).isEqualTo(99999);
+    }
+}
@@ -0,0 +1,86 @@
+package io.r2.simplepemkeystore;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.X509KeyManager;
+import java.lang.management.ManagementFactory;
+import java.security.KeyStore;
+import java.security.Security;
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests JMX registration of the reloading key store and key manager
+ */
+public class ManagementIntegrationTest {
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @BeforeClass
+    public void registerProvider() throws Exception {
+        Security.addProvider(new SimplePemKeyStoreProvider());
+    }
+
+    /**
+     * Finds the registered MXBean of a type which has the given alias (other tests register instances too)
+     */
+    private ObjectName find(String type, String alias) throws Exception {
+        for (ObjectName name : server.queryNames(new ObjectName("io.r2.simplepemkeystore:type=" + type + ",*"), null)) {
+            for (CompositeData info : (CompositeData[]) server.getAttribute(name, "Aliases")) {
+                if (alias.equals(info.get("alias"))) return name;
+            }
+        }
+        return null;
+    }
+
+    private CompositeData aliasInfo(ObjectName name) throws Exception {
+        return ((CompositeData[]) server.getAttribute(name, "Aliases"))[0];
+    }
+
+    @Test
+    public void testManagement() throws Exception {
+        KeyStore ks = KeyStore.getInstance("simplepemreload");
+        ks.load(
+                new ReloadablePemKeyStoreConfig()
+                        .addCertificate("jmx-test", new String[] {
+                                "src/test/resources/certchain.pem",
+                                "src/test/resources/key.pem"
+                        })
+                        .asInputStream(),
+                new char[0] // no password
+        );
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance("simplepemreload");
+        kmf.init( ExpiringCacheKeyManagerParameters.forKeyStore(ks).withRevalidation(5) );
+        X509KeyManager km = (X509KeyManager) kmf.getKeyManagers()[0];
+
+        ObjectName keyStoreName = find("ReloadablePemKeyStore", "jmx-test");
+        assertThat(keyStoreName).isNotNull();
+        CompositeData info = aliasInfo(keyStoreName);
+        assertThat(info.get("subject")).isEqualTo("CN=anna.apn2.com");
+        assertThat(info.get("notAfter")).isInstanceOf(Date.class);
+        assertThat(info.get("fingerprint")).isNotNull();
+        assertThat(info.get("lastFailure")).isNull();
+
+        ObjectName keyManagerName = find("ExpiringCacheKeyManager", "jmx-test");
+        assertThat(keyManagerName).isNotNull();
+        assertThat(aliasInfo(keyManagerName).get("selections")).isEqualTo(0L);
+        assertThat(km.chooseServerAlias("RSA", null, null)).matches("\\d+\\.jmx-test");
+        assertThat(km.chooseServerAlias("RSA", null, null)).matches("\\d+\\.jmx-test");
+        assertThat(aliasInfo(keyManagerName).get("selections")).isEqualTo(2L);
+
+        // forced reload gets a new creation date, which the key manager picks up on revalidation
+        Date created = (Date) aliasInfo(keyManagerName).get("creationDate");
+        Thread.sleep(10);
+        server.invoke(keyStoreName, "reload", null, null);
+        server.invoke(keyManagerName, "revalidate", null, null);
+        assertThat((Date) aliasInfo(keyManagerName).get("creationDate")).isAfter(created);
+        assertThat((Long) server.getAttribute(keyManagerName, "RebuiltAliases")).isEqualTo(2L);
+    }
+
+}
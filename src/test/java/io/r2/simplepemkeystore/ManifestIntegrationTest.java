@@ -0,0 +1,201 @@
+package io.r2.simplepemkeystore;
+
+import org.testng.SkipException;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.Security;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests manifest driven reloading of the reloading key store
+ */
+public class ManifestIntegrationTest {
+
+    private static final String[] FIRST = { "src/test/resources/certchain.pem", "src/test/resources/key.pem" };
+    private static final String[] SECOND = { "src/test/resources/selfcert.pem", "src/test/resources/selfkey.pem" };
+
+    @BeforeClass
+    public void registerProvider() throws Exception {
+        Security.addProvider(new SimplePemKeyStoreProvider());
+    }
+
+    private static byte[] concat(String[] pair) throws Exception {
+        byte[] cert = Files.readAllBytes(Paths.get(pair[0]));
+        byte[] key = Files.readAllBytes(Paths.get(pair[1]));
+        byte[] ret = new byte[cert.length + key.length];
+        System.arraycopy(cert, 0, ret, 0, cert.length);
+        System.arraycopy(key, 0, ret, cert.length, key.length);
+        return ret;
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    private static String subject(String certFile) throws Exception {
+        try (InputStream in = new FileInputStream(certFile)) {
+            return ((X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in))
+                    .getSubjectX500Principal().getName();
+        }
+    }
+
+    private static String subject(KeyStore ks, String alias) throws Exception {
+        return ((X509Certificate) ks.getCertificate(alias)).getSubjectX500Principal().getName();
+    }
+
+    private static void writeManifest(Path manifest, long generation, String... aliasHashes) throws Exception {
+        StringBuilder sb = new StringBuilder("# written by deployment\ngeneration: " + generation + "\n");
+        for (String line : aliasHashes) sb.append(line).append('\n');
+        Path tmp = Files.createTempFile(manifest.getParent(), "manifest", ".tmp");
+        Files.write(tmp, sb.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Test
+    public void testManifestReload() throws Exception {
+        if ("true".equals(System.getProperty("io.r2.skipLongTests"))) throw new SkipException("Long test skipped");
+
+        Path dir = Files.createTempDirectory("manifest");
+        Path a = dir.resolve("a.pem");
+        Path b = dir.resolve("b.pem");
+        Path manifest = dir.resolve("manifest");
+        Files.write(a, concat(FIRST));
+        Files.write(b, concat(FIRST));
+        writeManifest(manifest, 1, "Server-A: " + sha256(concat(FIRST)), "server-b: " + sha256(concat(FIRST)));
+
+        try {
+            KeyStore ks = KeyStore.getInstance("simplepemreload");
+            ks.load(new ReloadablePemKeyStoreConfig()
+                    .addCertificate("server-a", new String[] { a.toString() })
+                    .addCertificate("server-b", new String[] { b.toString() })
+                    .withManifestFile(manifest.toString())
+                    .withRefreshInterval(5)
+                    .asInputStream(), new char[0]);
+            assertThat(subject(ks, "server-a")).isEqualTo(subject(FIRST[0]));
+
+            // files changed, but the manifest not yet: nothing is reloaded
+            Thread.sleep(1000);
+            Files.write(a, concat(SECOND));
+            Thread.sleep(6000);
+            assertThat(subject(ks, "server-a")).isEqualTo(subject(FIRST[0]));
+
+            // manifest with a hash not matching the files yet: nothing is reloaded
+            writeManifest(manifest, 2, "server-a: " + sha256(concat(SECOND)), "server-b: " + sha256(concat(SECOND)));
+            Thread.sleep(6000);
+            assertThat(subject(ks, "server-a")).isEqualTo(subject(FIRST[0]));
+            assertThat(subject(ks, "server-b")).isEqualTo(subject(FIRST[0]));
+
+            // all files match: both aliases are replaced
+            Files.write(b, concat(SECOND));
+            Thread.sleep(6000);
+            assertThat(subject(ks, "server-a")).isEqualTo(subject(SECOND[0]));
+            assertThat(subject(ks, "server-b")).isEqualTo(subject(SECOND[0]));
+        }
+        finally {
+            Files.deleteIfExists(a);
+            Files.deleteIfExists(b);
+            Files.deleteIfExists(manifest);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testJoinWithStaleManifest() throws Exception {
+        Path dir = Files.createTempDirectory("manifest");
+        Path a = dir.resolve("a.pem");
+        Path b = dir.resolve("b.pem");
+        Path manifest = dir.resolve("manifest");
+        Files.write(a, concat(FIRST));
+        Files.write(b, concat(FIRST));
+        writeManifest(manifest, 1, "join-a: " + sha256(concat(FIRST)), "join-b: " + sha256(concat(FIRST)));
+        // no scheduled checks, the manifest is only read when a key store loads
+        ReloadablePemKeyStoreConfig config = new ReloadablePemKeyStoreConfig()
+                .addCertificate("join-a", new String[] { a.toString() })
+                .addCertificate("join-b", new String[] { b.toString() })
+                .withManifestFile(manifest.toString())
+                .withRefreshInterval(0);
+
+        KeyStore first = KeyStore.getInstance("simplepemreload");
+        KeyStore second = KeyStore.getInstance("simplepemreload");
+        KeyStore third = KeyStore.getInstance("simplepemreload");
+        try {
+            first.load(config.copy());
+            assertThat(subject(first, "join-a")).isEqualTo(subject(FIRST[0]));
+
+            // the rollout has started, the manifest is stale: a joining key store gets the entries of the manifest
+            Files.write(a, concat(SECOND));
+            second.load(config.copy());
+            assertThat(subject(second, "join-a")).isEqualTo(subject(FIRST[0]));
+            assertThat(subject(first, "join-a")).isEqualTo(subject(FIRST[0]));
+
+            // new manifest, but not all files match it yet
+            writeManifest(manifest, 2, "join-a: " + sha256(concat(SECOND)), "join-b: " + sha256(concat(SECOND)));
+            third.load(config.copy());
+            assertThat(subject(third, "join-a")).isEqualTo(subject(FIRST[0]));
+            assertThat(subject(third, "join-b")).isEqualTo(subject(FIRST[0]));
+
+            // a new engine can't start with files not matching the manifest
+            KeyStore other = KeyStore.getInstance("simplepemreload");
+            assertThatThrownBy(() -> other.load(config.copy().withReloadThreads(1)))
+                    .isInstanceOf(CertificateException.class)
+                    .hasMessageContaining("do not match the manifest");
+
+            // all files match: every key store sees both aliases replaced
+            Files.write(b, concat(SECOND));
+            third.load(null);
+            third.load(config.copy());
+            for (KeyStore ks : new KeyStore[] { first, second, third }) {
+                assertThat(subject(ks, "join-a")).isEqualTo(subject(SECOND[0]));
+                assertThat(subject(ks, "join-b")).isEqualTo(subject(SECOND[0]));
+            }
+        }
+        finally {
+            first.load(null);
+            second.load(null);
+            third.load(null);
+            Files.deleteIfExists(a);
+            Files.deleteIfExists(b);
+            Files.deleteIfExists(manifest);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testAliasesDifferingInCaseRejected() throws Exception {
+        Path dir = Files.createTempDirectory("manifest");
+        Path manifest = dir.resolve("manifest");
+        writeManifest(manifest, 1, "server: " + sha256(concat(FIRST)));
+        try {
+            KeyStore ks = KeyStore.getInstance("simplepemreload");
+            // both would be driven by the same manifest line
+            assertThatThrownBy(() -> ks.load(new ReloadablePemKeyStoreConfig()
+                    .addCertificate("server", FIRST)
+                    .addCertificate("Server", FIRST)
+                    .withManifestFile(manifest.toString())
+                    .asInputStream(), new char[0]))
+                    .isInstanceOf(CertificateException.class)
+                    .hasMessageContaining("differ only in case");
+        }
+        finally {
+            Files.deleteIfExists(manifest);
+            Files.deleteIfExists(dir);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package io.r2.simplepemkeystore;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.X509KeyManager;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.security.KeyStore;
+import java.security.Security;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the metrics callbacks of the reloading key store and key manager
+ */
+public class MetricsIntegrationTest {
+
+    @BeforeClass
+    public void registerProvider() throws Exception {
+        Security.addProvider(new SimplePemKeyStoreProvider());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        BasicPemKeyStoreMetrics metrics = new BasicPemKeyStoreMetrics();
+
+        KeyStore ks = KeyStore.getInstance("simplepemreload");
+        ks.load(new ReloadablePemKeyStoreConfig()
+                .addCertificate("server", new String[] {
+                        "src/test/resources/certchain.pem",
+                        "src/test/resources/key.pem"
+                })
+                .withMetrics(metrics));
+
+        assertThat(ks.isKeyEntry("server")).isTrue();
+        assertThat(metrics.getReloads()).isEqualTo(1);
+        assertThat(metrics.getReloadFailures()).isEqualTo(0);
+        assertThat(metrics.getParsedBytes()).isEqualTo(
+                new File("src/test/resources/certchain.pem").length() + new File("src/test/resources/key.pem").length());
+        assertThat(metrics.getReloadDuration().getCount()).isEqualTo(1);
+
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance("simplepemreload");
+        kmf.init(ExpiringCacheKeyManagerParameters.forKeyStore(ks).withMetrics(metrics));
+        X509KeyManager km = (X509KeyManager) kmf.getKeyManagers()[0];
+
+        assertThat(km.chooseServerAlias("RSA", null, null)).matches("\\d+\\.server");
+        assertThat(km.chooseServerAlias("RSA", null, null)).matches("\\d+\\.server");
+        assertThat(km.chooseClientAlias(new String[] { "EC", "RSA" }, null, null)).matches("\\d+\\.server");
+        assertThat(km.chooseServerAlias("EC", null, null)).isNull();
+
+        assertThat(metrics.getSelectionsByAlias()).containsEntry("server", 3L).hasSize(1);
+        assertThat(metrics.getSelectionsByKeyType()).containsEntry("RSA", 3L).hasSize(1);
+        assertThat(metrics.getSelectionLatency().getCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void testSharedFilesParsedOnce() throws Exception {
+        BasicPemKeyStoreMetrics metrics = new BasicPemKeyStoreMetrics();
+        String[] files = { "src/test/resources/certchain.pem", "src/test/resources/key.pem" };
+
+        KeyStore ks = KeyStore.getInstance("simplepemreload");
+        ks.load(new ReloadablePemKeyStoreConfig()
+                .addCertificate("server", files)
+                .addCertificate("www", files)
+                .addCertificate("chain", new String[] { "src/test/resources/certchain.pem" })
+                .withMetrics(metrics));
+
+        assertThat(metrics.getReloads()).isEqualTo(3);
+        assertThat(metrics.getParsedBytes()).isEqualTo(
+                new File("src/test/resources/certchain.pem").length() + new File("src/test/resources/key.pem").length());
+        assertThat(ks.getCertificate("www")).isSameAs(ks.getCertificate("server"));
+        assertThat(ks.getCertificate("chain")).isSameAs(ks.getCertificate("server"));
+        assertThat(ks.getKey("www", null)).isSameAs(ks.getKey("server", null));
+        assertThat(ks.isKeyEntry("chain")).isFalse();
+    }
+
+    @Test
+    public void testCycleMetrics() throws Exception {
+        BasicPemKeyStoreMetrics metrics = new BasicPemKeyStoreMetrics();
+
+        KeyStore ks = KeyStore.getInstance("simplepemreload");
+        ks.load(new ReloadablePemKeyStoreConfig()
+                .addCertificate("cycle-anna", new String[] {
+                        "src/test/resources/certchain.pem",
+                        "src/test/resources/key.pem"
+                })
+                .addCertificate("cycle-self", new String[] {
+                        "src/test/resources/selfcert.pem",
+                        "src/test/resources/selfkey.pem"
+                })
+                .withReloadThreads(2)
+                .withMetrics(metrics));
+
+        // the initial load is one cycle, both aliases loaded in it
+        assertThat(ks.size()).isEqualTo(2);
+        assertThat(metrics.getReloads()).isEqualTo(2);
+        assertThat(metrics.getCycleDuration().getCount()).isEqualTo(1);
+        assertThat(metrics.getCyclesSkipped()).isEqualTo(0);
+
+        // a forced reload through JMX is another one
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : server.queryNames(new ObjectName("io.r2.simplepemkeystore:type=ReloadablePemKeyStore,*"), null)) {
+            for (CompositeData info : (CompositeData[]) server.getAttribute(name, "Aliases")) {
+                if ("cycle-anna".equals(info.get("alias"))) server.invoke(name, "reload", null, null);
+            }
+        }
+        assertThat(metrics.getReloads()).isEqualTo(4);
+        assertThat(metrics.getCycleDuration().getCount()).isEqualTo(2);
+        ks.load(null);
+    }
+
+    @Test
+    public void testConfigJsonIgnoresMetrics() throws Exception {
+        ReloadablePemKeyStoreConfig config = new ReloadablePemKeyStoreConfig().withMetrics(new BasicPemKeyStoreMetrics());
+        assertThat(config.asJSON()).doesNotContain("metrics").doesNotContain("protectionParameter");
+        assertThat(config).isEqualTo(new ReloadablePemKeyStoreConfig());
+    }
+}
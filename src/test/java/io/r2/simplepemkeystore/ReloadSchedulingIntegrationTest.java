@@ -0,0 +1,159 @@
+package io.r2.simplepemkeystore;
+
+import org.testng.SkipException;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.KeyStore;
+import java.security.Security;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Tests per alias refresh scheduling of the reloading key store
+ */
+public class ReloadSchedulingIntegrationTest {
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @BeforeClass
+    public void registerProvider() throws Exception {
+        Security.addProvider(new SimplePemKeyStoreProvider());
+    }
+
+    private CompositeData aliasInfo(String alias) throws Exception {
+        for (ObjectName name : server.queryNames(new ObjectName("io.r2.simplepemkeystore:type=ReloadablePemKeyStore,*"), null)) {
+            for (CompositeData info : (CompositeData[]) server.getAttribute(name, "Aliases")) {
+                if (alias.equals(info.get("alias"))) return info;
+            }
+        }
+        throw new AssertionError("alias not found: " + alias);
+    }
+
+    private long secondsUntilNextCheck(String alias) throws Exception {
+        Date next = (Date) aliasInfo(alias).get("nextCheck");
+        return TimeUnit.MILLISECONDS.toSeconds(next.getTime() - System.currentTimeMillis());
+    }
+
+    @Test
+    public void testPerAliasInterval() throws Exception {
+        KeyStore ks = KeyStore.getInstance("simplepemreload");
+        ks.load(new ReloadablePemKeyStoreConfig()
+                .addCertificate("interval-default", new String[] {
+                        "src/test/resources/certchain.pem",
+                        "src/test/resources/key.pem"
+                })
+                .addCertificate("interval-hot", new String[] {
+                        "src/test/resources/client-cert.pem",
+                        "src/test/resources/client-key.pem"
+                })
+                .withRefreshInterval(600)
+                .withRefreshInterval("interval-hot", 30)
+                .asInputStream(), new char[0]);
+
+        assertThat(secondsUntilNextCheck("interval-default")).isCloseTo(600L, within(5L));
+        assertThat(secondsUntilNextCheck("interval-hot")).isCloseTo(30L, within(5L));
+
+        // release the engine, which also keeps the key store reachable until here
+        ks.load(null);
+    }
+
+    @Test
+    public void testDisabledInterval() throws Exception {
+        KeyStore ks = KeyStore.getInstance("simplepemreload");
+        ks.load(new ReloadablePemKeyStoreConfig()
+                .addCertificate("disabled-default", new String[] {
+                        "src/test/resources/certchain.pem",
+                        "src/test/resources/key.pem"
+                })
+                .addCertificate("disabled-short", new String[] {
+                        "src/test/resources/selfcert.pem",
+                        "src/test/resources/selfkey.pem"
+                })
+                .addCertificate("disabled-override", new String[] {
+                        "src/test/resources/client-cert.pem",
+                        "src/test/resources/client-key.pem"
+                })
+                .withRefreshInterval(0)
+                .withRefreshInterval("disabled-short", 4)
+                .withRefreshInterval("disabled-override", 30)
+                .asInputStream(), new char[0]);
+
+        // loaded once, and never checked again
+        assertThat(ks.size()).isEqualTo(3);
+        Thread.sleep(200);
+        assertThat(aliasInfo("disabled-default").get("nextCheck")).isNull();
+        assertThat(aliasInfo("disabled-short").get("nextCheck")).isNull();
+        assertThat(secondsUntilNextCheck("disabled-override")).isCloseTo(30L, within(5L));
+
+        ks.load(null);
+    }
+
+    @Test
+    public void testSlowSourceDoesNotBlock() throws Exception {
+        if ("true".equals(System.getProperty("io.r2.skipLongTests"))) throw new SkipException("Long test skipped");
+
+        Path dir = Files.createTempDirectory("scheduling");
+        Path slow = dir.resolve("slow.pem");
+        Path fast = dir.resolve("fast.pem");
+        Files.copy(Paths.get("src/test/resources/selfcert.pem"), slow);
+        Files.write(slow, Files.readAllBytes(Paths.get("src/test/resources/selfkey.pem")), StandardOpenOption.APPEND);
+        Files.copy(slow, fast);
+
+        KeyStore ks = KeyStore.getInstance("simplepemreload");
+        ks.load(new ReloadablePemKeyStoreConfig()
+                .addCertificate("slow", new String[] { slow.toString() })
+                .addCertificate("fast", new String[] { fast.toString() })
+                .withRefreshInterval(5)
+                .asInputStream(), new char[0]);
+
+        Thread.sleep(10);
+        // replace the slow source with a named pipe without writer: reading it blocks until a writer opens it
+        Path fifo = dir.resolve("slow.fifo");
+        Process mkfifo;
+        try {
+            mkfifo = new ProcessBuilder("mkfifo", fifo.toString()).start();
+        }
+        catch (IOException e) {
+            throw new SkipException("mkfifo not available");
+        }
+        if (mkfifo.waitFor() != 0) throw new SkipException("mkfifo failed");
+        // the pipe is newer than the original file, touching it would block, as it opens the pipe
+        Files.move(fifo, slow, StandardCopyOption.REPLACE_EXISTING);
+
+        try {
+            Thread.sleep(6000);
+            Date before = ks.getCreationDate("fast");
+            Files.setLastModifiedTime(fast, FileTime.fromMillis(System.currentTimeMillis() + 120000));
+            Thread.sleep(6000);
+
+            // the fast alias is reloaded while a reload thread is stuck on the slow one
+            assertThat(ks.getCreationDate("fast")).isAfter(before);
+        }
+        finally {
+            // release the blocked reader
+            try (OutputStream out = Files.newOutputStream(slow)) {
+                out.flush();
+            }
+            Thread.sleep(100);
+            Files.deleteIfExists(slow);
+            Files.deleteIfExists(fast);
+            Files.deleteIfExists(dir);
+        }
+    }
+}
@@ -1,9 +1,10 @@
 package io.r2.simplepemkeystore;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 import static org.assertj.core.api.Assertions.*;
@@ -34,6 +35,21 @@ public class ReloadablePemKeyStoreConfigTest {
         assertThat(config.getCertificates().get("client")).containsExactly("client.pem", "key.pem");
     }
 
+    @Test
+    public void testCrls() throws Exception {
+        String json = new ReloadablePemKeyStoreConfig()
+                .addCertificate("server", new String[]{"server.pem"})
+                .addCrl("crl", new String[]{"crl.pem"})
+                .asJSON();
+        assertThat(json).isEqualTo(
+                "{\"refreshInterval\":3600,\"certificates\":{\"server\":[\"server.pem\"]},\"crls\":{\"crl\":[\"crl.pem\"]}}"
+        );
+        ReloadablePemKeyStoreConfig config = ReloadablePemKeyStoreConfig.fromJSON(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        assertThat(config.getCrls()).hasSize(1);
+        assertThat(config.getCrls().get("crl")).containsExactly("crl.pem");
+    }
+
     @Test
     public void testInputStream() throws Exception {
         byte[] buf = new byte[1024];
@@ -49,8 +65,8 @@ public class ReloadablePemKeyStoreConfigTest {
     @Test
     public void testParse() throws Exception {
         String json = "{\"refreshInterval\":5,\"certificates\":{\"server\":[\"server.pem\"],\"client\":[\"client.pem\",\"key.pem\"]}}";
-        ObjectMapper mapper = new ObjectMapper();
-        ReloadablePemKeyStoreConfig config = mapper.readValue(json, ReloadablePemKeyStoreConfig.class);
+        ReloadablePemKeyStoreConfig config = ReloadablePemKeyStoreConfig.fromJSON(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
         assertThat(config.getRefreshInterval()).isEqualTo(5);
         assertThat(config.getCertificates()).hasSize(2);
         assertThat(config.getCertificates().get("server")).containsExactly("server.pem");
@@ -58,4 +74,20 @@ public class ReloadablePemKeyStoreConfigTest {
     }
 
 
-}
\ No newline at end of file
+    @Test
+    public void testFromJSONAndCopy() throws Exception {
+        ReloadablePemKeyStoreConfig config = ReloadablePemKeyStoreConfig.forLetsEncrypt("mydomain.com")
+                .withRefreshInterval("letsencrypt", 60)
+                .withExpiryWarnings(null, 86400);
+        ReloadablePemKeyStoreConfig parsed = ReloadablePemKeyStoreConfig.fromJSON(config.asInputStream());
+        assertThat(parsed).isEqualTo(config);
+
+        ReloadablePemKeyStoreConfig copy = config.copy();
+        assertThat(copy).isEqualTo(config);
+        copy.getCertificates().get("letsencrypt")[0] = "changed.pem";
+        copy.getExpiryWarnings()[0] = 1;
+        assertThat(config.getCertificates().get("letsencrypt")[0]).isEqualTo("/etc/letsencrypt/live/mydomain.com/fullchain.pem");
+        assertThat(config.getExpiryWarnings()[0]).isEqualTo(86400);
+    }
+
+}
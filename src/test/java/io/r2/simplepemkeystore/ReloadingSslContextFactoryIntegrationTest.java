@@ -0,0 +1,94 @@
+package io.r2.simplepemkeystore;
+
+import org.testng.annotations.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import java.nio.file.NoSuchFileException;
+import java.security.KeyStore;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Tests the SSLContext factory on the reloading key store
+ */
+public class ReloadingSslContextFactoryIntegrationTest {
+
+    private static ReloadablePemKeyStoreConfig config(String certFile, String keyFile) {
+        return new ReloadablePemKeyStoreConfig()
+                .addCertificate("server", new String[] { certFile, keyFile })
+                .withRefreshInterval(60);
+    }
+
+    private static String serverSubject(SSLContext serverContext) throws Exception {
+        Certificate[] peer = new InMemoryTlsHandshake(serverContext, HttpsBaseFunctions.createTrustAllContext()).handshake();
+        return ((X509Certificate) peer[0]).getSubjectX500Principal().getName();
+    }
+
+    @Test
+    public void testSameConfigurationKeepsContext() throws Exception {
+        try (ReloadingSslContextFactory factory = new ReloadingSslContextFactory(
+                config("src/test/resources/certchain.pem", "src/test/resources/key.pem"))) {
+            SSLContext context = factory.getContext();
+            assertThat(serverSubject(context)).isEqualTo("CN=anna.apn2.com");
+            assertThat(factory.getKeyStore().getType()).isEqualTo("simplepemreload");
+
+            // an equal configuration keeps the context and its session caches
+            assertThat(factory.update(config("src/test/resources/certchain.pem", "src/test/resources/key.pem"))).isFalse();
+            assertThat(factory.getContext()).isSameAs(context);
+            assertThat(factory.createSSLEngine()).isNotNull();
+            assertThat(factory.createSSLEngine("localhost", 443).getPeerHost()).isEqualTo("localhost");
+        }
+    }
+
+    @Test
+    public void testUpdateSwapsContext() throws Exception {
+        try (ReloadingSslContextFactory factory = new ReloadingSslContextFactory(
+                config("src/test/resources/certchain.pem", "src/test/resources/key.pem"))) {
+            SSLContext before = factory.getContext();
+            KeyStore beforeKeyStore = factory.getKeyStore();
+            SSLSocketFactory socketFactory = factory.getSocketFactory();
+            before.getServerSessionContext().setSessionCacheSize(123);
+            before.getServerSessionContext().setSessionTimeout(456);
+
+            assertThat(factory.update(config("src/test/resources/selfcert.pem", "src/test/resources/selfkey.pem"))).isTrue();
+            SSLContext after = factory.getContext();
+            assertThat(after).isNotSameAs(before);
+            assertThat(serverSubject(after)).isNotEqualTo("CN=anna.apn2.com");
+            assertThat(after.getServerSessionContext().getSessionCacheSize()).isEqualTo(123);
+            assertThat(after.getServerSessionContext().getSessionTimeout()).isEqualTo(456);
+            // the previous key store is released
+            assertThat(beforeKeyStore.size()).isEqualTo(0);
+
+            // the socket factory follows the current context
+            assertThat(factory.getSocketFactory()).isSameAs(socketFactory);
+            assertThat(socketFactory.getDefaultCipherSuites()).isNotEmpty();
+
+            // protocol change with the same configuration
+            assertThat(factory.update(config("src/test/resources/selfcert.pem", "src/test/resources/selfkey.pem"),
+                    "TLSv1.2", null)).isTrue();
+            assertThat(factory.getContext().getProtocol()).isEqualTo("TLSv1.2");
+        }
+    }
+
+    @Test
+    public void testFailedUpdateKeepsContext() throws Exception {
+        ReloadingSslContextFactory factory = new ReloadingSslContextFactory(
+                config("src/test/resources/certchain.pem", "src/test/resources/key.pem"));
+        SSLContext context = factory.getContext();
+
+        assertThatThrownBy(() -> factory.update(config("src/test/resources/missing.pem", "src/test/resources/key.pem")))
+                .isInstanceOf(NoSuchFileException.class);
+        assertThatThrownBy(() -> factory.update(config("src/test/resources/selfcert.pem", "src/test/resources/selfkey.pem"),
+                "NoSuchProtocol", null))
+                .isInstanceOf(NoSuchAlgorithmException.class);
+        assertThat(factory.getContext()).isSameAs(context);
+        assertThat(serverSubject(context)).isEqualTo("CN=anna.apn2.com");
+
+        factory.close();
+        assertThatThrownBy(factory::getContext).isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,212 @@
+package io.r2.simplepemkeystore;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Tests the certificate rotation events of the reloading key store
+ */
+public class RotationPublisherIntegrationTest {
+
+    private Certificate selfCert;
+    private Certificate clientCert;
+
+    @BeforeClass
+    public void setup() throws Exception {
+        SimplePemKeyStoreProvider.register();
+        KeyStore ks = KeyStore.getInstance("simplepem");
+        ks.load(MultiFileConcatSource.fromFiles("src/test/resources/selfcert.pem", "src/test/resources/selfkey.pem").build(), new char[0]);
+        selfCert = ks.getCertificate("server");
+        ks.load(MultiFileConcatSource.fromFiles("src/test/resources/client-cert.pem", "src/test/resources/client-key.pem").build(), new char[0]);
+        clientCert = ks.getCertificate("server");
+    }
+
+    /**
+     * Subscriber collecting the events, with no demand until requested
+     */
+    private static class Collector implements Flow.Subscriber<RotationEvent> {
+        final BlockingQueue<RotationEvent> events = new LinkedBlockingQueue<>();
+        final CountDownLatch subscribed = new CountDownLatch(1);
+        final CountDownLatch completed = new CountDownLatch(1);
+        volatile Flow.Subscription subscription;
+        volatile Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscribed.countDown();
+        }
+
+        @Override
+        public void onNext(RotationEvent item) {
+            events.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            completed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+
+        Collector subscribeTo(RotationPublisher publisher) throws InterruptedException {
+            publisher.subscribe(this);
+            assertThat(subscribed.await(10, TimeUnit.SECONDS)).isTrue();
+            return this;
+        }
+
+        RotationEvent next() throws InterruptedException {
+            return events.poll(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static String fingerprint(Certificate cert) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(cert.getEncoded())) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testRotationEvents() throws Exception {
+        Path dir = Files.createTempDirectory("rotation");
+        Path certFile = dir.resolve("cert.pem");
+        Files.copy(Paths.get("src/test/resources/certchain.pem"), certFile);
+        RotationPublisher publisher = new RotationPublisher();
+        ReloadablePemKeyStoreConfig config = new ReloadablePemKeyStoreConfig()
+                .addCertificate("server", new String[] { certFile.toString(), "src/test/resources/key.pem" })
+                .withRefreshInterval(600)
+                .withRotationPublisher(publisher);
+
+        KeyStore ks = KeyStore.getInstance("simplepemreload");
+        ks.load(config);
+        Certificate initial = ks.getCertificate("server");
+        Collector collector = new Collector().subscribeTo(publisher);
+        collector.subscription.request(Long.MAX_VALUE);
+
+        // the files are replaced, and picked up when another key store joins the engine
+        Files.copy(Paths.get("src/test/resources/selfcert.pem"), certFile, StandardCopyOption.REPLACE_EXISTING);
+        KeyStore other = KeyStore.getInstance("simplepemreload");
+        other.load(config);
+        RotationEvent event = collector.next();
+        assertThat(event.getAlias()).isEqualTo("server");
+        assertThat(event.getPreviousFingerprint()).isEqualTo(fingerprint(initial));
+        assertThat(event.getFingerprint()).isEqualTo(fingerprint(selfCert));
+        assertThat(event.getNotAfter()).isEqualTo(((X509Certificate) selfCert).getNotAfter());
+
+        // entries set and deleted through the KeyStore API
+        ks.setCertificateEntry("ca", clientCert);
+        event = collector.next();
+        assertThat(event.getAlias()).isEqualTo("ca");
+        assertThat(event.getPreviousFingerprint()).isNull();
+        assertThat(event.getFingerprint()).isEqualTo(fingerprint(clientCert));
+        // unchanged certificate, no event
+        ks.setCertificateEntry("ca", clientCert);
+        assertThat(collector.events.poll(200, TimeUnit.MILLISECONDS)).isNull();
+        ks.deleteEntry("ca");
+        event = collector.next();
+        assertThat(event.getPreviousFingerprint()).isEqualTo(fingerprint(clientCert));
+        assertThat(event.getFingerprint()).isNull();
+        assertThat(event.getNotAfter()).isNull();
+
+        ks.load(null);
+        other.load(null);
+        publisher.close();
+        assertThat(collector.completed.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(collector.error).isNull();
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        RotationPublisher publisher = new RotationPublisher();
+        Collector collector = new Collector().subscribeTo(publisher);
+
+        publisher.submit(new RotationEvent("a", "1", "2", null));
+        publisher.submit(new RotationEvent("b", "1", "2", null));
+        publisher.submit(new RotationEvent("a", "2", "3", null));
+        publisher.submit(new RotationEvent("c", "1", "2", null));
+        publisher.submit(new RotationEvent("c", "2", "1", null));
+        assertThat(collector.events.poll(200, TimeUnit.MILLISECONDS)).isNull();
+
+        collector.subscription.request(1);
+        RotationEvent event = collector.next();
+        assertThat(event.getAlias()).isEqualTo("a");
+        assertThat(event.getPreviousFingerprint()).isEqualTo("1");
+        assertThat(event.getFingerprint()).isEqualTo("3");
+        assertThat(collector.events.poll(200, TimeUnit.MILLISECONDS)).isNull();
+
+        // c changed back before it was delivered
+        collector.subscription.request(10);
+        assertThat(collector.next().getAlias()).isEqualTo("b");
+        assertThat(collector.events.poll(200, TimeUnit.MILLISECONDS)).isNull();
+
+        publisher.close();
+        assertThat(collector.completed.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(publisher.getNumberOfSubscribers()).isEqualTo(0);
+    }
+
+    @Test
+    public void testSlowSubscriberDoesNotBlock() throws Exception {
+        RotationPublisher publisher = new RotationPublisher();
+        CountDownLatch release = new CountDownLatch(1);
+        Collector slow = new Collector() {
+            @Override
+            public void onNext(RotationEvent item) {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onNext(item);
+            }
+        }.subscribeTo(publisher);
+        slow.subscription.request(Long.MAX_VALUE);
+
+        for (int i = 0; i < 10000; i++) {
+            publisher.submit(new RotationEvent("a" + (i % 10), "x" + i, "x" + (i + 1), null));
+        }
+        // one event per alias is pending at most
+        release.countDown();
+        int received = 0;
+        while (slow.events.poll(500, TimeUnit.MILLISECONDS) != null) received++;
+        assertThat(received).isBetween(10, 11);
+        publisher.close();
+    }
+
+    @Test
+    public void testInvalidRequest() throws Exception {
+        RotationPublisher publisher = new RotationPublisher();
+        Collector collector = new Collector().subscribeTo(publisher);
+        collector.subscription.request(0);
+        assertThat(collector.completed.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(collector.error).isInstanceOf(IllegalArgumentException.class);
+
+        Collector twice = new Collector().subscribeTo(publisher);
+        twice.subscribeTo(publisher);
+        assertThat(twice.completed.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(twice.error).isInstanceOf(IllegalStateException.class);
+        assertThat(publisher.getNumberOfSubscribers()).isEqualTo(1);
+    }
+}
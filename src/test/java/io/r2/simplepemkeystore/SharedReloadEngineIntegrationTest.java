@@ -0,0 +1,121 @@
+package io.r2.simplepemkeystore;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests sharing the reload engine between key stores loaded with the same configuration
+ */
+public class SharedReloadEngineIntegrationTest {
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @BeforeClass
+    public void registerProvider() throws Exception {
+        Security.addProvider(new SimplePemKeyStoreProvider());
+    }
+
+    /**
+     * Finds the key stores in JMX by alias (other tests register key stores too)
+     */
+    private List<ObjectName> findAll(String alias) throws Exception {
+        List<ObjectName> ret = new ArrayList<>();
+        for (ObjectName name : server.queryNames(new ObjectName("io.r2.simplepemkeystore:type=ReloadablePemKeyStore,*"), null)) {
+            for (CompositeData info : (CompositeData[]) server.getAttribute(name, "Aliases")) {
+                if (alias.equals(info.get("alias"))) ret.add(name);
+            }
+        }
+        return ret;
+    }
+
+    private ObjectName find(String alias) throws Exception {
+        List<ObjectName> names = findAll(alias);
+        return names.isEmpty() ? null : names.get(0);
+    }
+
+    private static ReloadablePemKeyStoreConfig config(String alias, String certFile) {
+        return new ReloadablePemKeyStoreConfig()
+                .addCertificate(alias, new String[] { certFile, "src/test/resources/key.pem" })
+                .withRefreshInterval(600);
+    }
+
+    @Test
+    public void testSameConfigurationShared() throws Exception {
+        KeyStore ks1 = KeyStore.getInstance("simplepemreload");
+        ks1.load(config("shared", "src/test/resources/certchain.pem").asInputStream(), new char[0]);
+        // the same files with a different path
+        KeyStore ks2 = KeyStore.getInstance("simplepemreload");
+        ks2.load(config("shared", Paths.get("src/test/../test/resources/certchain.pem").toAbsolutePath().toString()));
+
+        assertThat(ks2.getCertificate("shared")).isSameAs(ks1.getCertificate("shared"));
+        ObjectName name = find("shared");
+        assertThat(server.getAttribute(name, "KeyStores")).isEqualTo(2);
+
+        // entries set or deleted in memory stay in their key store
+        Certificate ca = ks1.getCertificateChain("shared")[1];
+        ks1.setCertificateEntry("shared-ca", ca);
+        assertThat(ks1.isCertificateEntry("shared-ca")).isTrue();
+        assertThat(ks2.containsAlias("shared-ca")).isFalse();
+        assertThat(ks2.getCertificateAlias(ca)).isNull();
+        ks2.deleteEntry("shared");
+        assertThat(ks2.containsAlias("shared")).isFalse();
+        assertThat(ks2.size()).isEqualTo(0);
+        assertThat(ks1.containsAlias("shared")).isTrue();
+        assertThat(ks1.size()).isEqualTo(2);
+
+        // loading again drops the local changes
+        ks2.load(config("shared", "src/test/resources/certchain.pem"));
+        assertThat(ks2.containsAlias("shared")).isTrue();
+
+        ks1.load(null);
+        assertThat(ks1.size()).isEqualTo(0);
+        assertThat(ks2.containsAlias("shared")).isTrue();
+        assertThat(server.getAttribute(name, "KeyStores")).isEqualTo(1);
+
+        ks2.load(null);
+        assertThat(server.isRegistered(name)).isFalse();
+    }
+
+    @Test
+    public void testDifferentCallbacksNotShared() throws Exception {
+        KeyStore ks1 = KeyStore.getInstance("simplepemreload");
+        ks1.load(config("callbacks", "src/test/resources/certchain.pem").withMetrics(new BasicPemKeyStoreMetrics()));
+        KeyStore ks2 = KeyStore.getInstance("simplepemreload");
+        ks2.load(config("callbacks", "src/test/resources/certchain.pem").withMetrics(new BasicPemKeyStoreMetrics()));
+
+        List<ObjectName> names = findAll("callbacks");
+        assertThat(names).hasSize(2);
+        for (ObjectName name : names) {
+            assertThat(server.getAttribute(name, "KeyStores")).isEqualTo(1);
+        }
+        ks1.load(null);
+        ks2.load(null);
+        assertThat(find("callbacks")).isNull();
+    }
+
+    @Test
+    public void testLoadOtherConfigurationReleases() throws Exception {
+        KeyStore ks = KeyStore.getInstance("simplepemreload");
+        ks.load(config("before", "src/test/resources/certchain.pem"));
+        ObjectName before = find("before");
+
+        ks.load(config("after", "src/test/resources/certchain.pem"));
+        assertThat(server.isRegistered(before)).isFalse();
+        assertThat(ks.containsAlias("before")).isFalse();
+        assertThat(ks.containsAlias("after")).isTrue();
+        ks.load(null);
+    }
+}
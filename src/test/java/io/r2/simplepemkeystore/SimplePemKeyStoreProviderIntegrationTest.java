@@ -10,6 +10,7 @@ import java.security.KeyStore;
 import java.security.Security;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.util.Date;
 
 import static org.assertj.core.api.Assertions.*;
 
@@ -114,4 +115,82 @@ public class SimplePemKeyStoreProviderIntegrationTest extends HttpsBaseFunctions
         assertThat(((X509Certificate)cert_r2[0]).getSubjectX500Principal().getName()).isEqualTo("CN=self.signed.cert,O=Radical Research,ST=NA,C=IO");
     }
 
+    @Test
+    public void testGetCertificateAlias() throws Exception {
+        KeyStore ks = KeyStore.getInstance("simplepem");
+        ks.load(
+                new MultiFileConcatSource()
+                        .alias("anna")
+                        .add("src/test/resources/certchain.pem")
+                        .add("src/test/resources/key.pem")
+                        .alias("r2")
+                        .add("src/test/resources/selfcert.pem")
+                        .add("src/test/resources/selfkey.pem")
+                        .build(),
+                new char[0] // no password
+        );
+
+        Certificate anna = ks.getCertificate("anna");
+        Certificate r2 = ks.getCertificate("r2");
+        assertThat(ks.getCertificateAlias(anna)).isEqualTo("anna");
+        assertThat(ks.getCertificateAlias(r2)).isEqualTo("r2");
+        // only the first certificate of the chain is matched
+        assertThat(ks.getCertificateAlias(ks.getCertificateChain("anna")[1])).isNull();
+
+        // replace certificate under alias r2
+        ks.load(
+                new MultiFileConcatSource()
+                        .alias("r2")
+                        .add("src/test/resources/client-cert.pem")
+                        .add("src/test/resources/client-key.pem")
+                        .build(),
+                new char[0] // no password
+        );
+        assertThat(ks.getCertificateAlias(r2)).isNull();
+        assertThat(ks.getCertificateAlias(ks.getCertificate("r2"))).isEqualTo("r2");
+        assertThat(ks.getCertificateAlias(anna)).isEqualTo("anna");
+    }
+
+    @Test
+    public void testIncrementalLoad() throws Exception {
+        MultiFileConcatSource anna = new MultiFileConcatSource()
+                .alias("anna")
+                .add("src/test/resources/certchain.pem")
+                .add("src/test/resources/key.pem");
+        KeyStore ks = KeyStore.getInstance("simplepem");
+        ks.load(new MultiFileConcatSource()
+                        .alias("anna")
+                        .add("src/test/resources/certchain.pem")
+                        .add("src/test/resources/key.pem")
+                        .alias("r2")
+                        .add("src/test/resources/selfcert.pem")
+                        .add("src/test/resources/selfkey.pem")
+                        .build(),
+                new char[0]);
+        Certificate annaCert = ks.getCertificate("anna");
+        Date annaDate = ks.getCreationDate("anna");
+        Date r2Date = ks.getCreationDate("r2");
+
+        // r2 changed, anna is not decoded again
+        ks.load(new MultiFileConcatSource()
+                        .alias("anna")
+                        .add("src/test/resources/certchain.pem")
+                        .add("src/test/resources/key.pem")
+                        .alias("r2")
+                        .add("src/test/resources/client-cert.pem")
+                        .add("src/test/resources/client-key.pem")
+                        .build(),
+                new char[0]);
+        assertThat(ks.getCertificate("anna")).isSameAs(annaCert);
+        assertThat(ks.getCreationDate("anna")).isEqualTo(annaDate);
+        assertThat(ks.getCreationDate("r2")).isAfter(r2Date);
+        assertThat(ks.getCertificateAlias(ks.getCertificate("r2"))).isEqualTo("r2");
+
+        // an entry set through the KeyStore API is replaced by the loaded block
+        ks.setKeyEntry("anna", ks.getKey("r2", null), null, ks.getCertificateChain("r2"));
+        ks.load(anna.build(), new char[0]);
+        assertThat(ks.getCertificate("anna")).isEqualTo(annaCert);
+        assertThat(ks.size()).isEqualTo(2);
+    }
+
 }
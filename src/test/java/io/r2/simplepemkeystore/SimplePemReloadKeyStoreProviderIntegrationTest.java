@@ -8,13 +8,21 @@ import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.security.Key;
 import java.security.KeyStore;
 import java.security.Security;
 import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Date;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
  * Tests if registering as a provider works and simplepemreload keystore is operational
@@ -53,6 +61,25 @@ public class SimplePemReloadKeyStoreProviderIntegrationTest extends HttpsBaseFun
         assertThat(key.getAlgorithm()).isEqualTo("RSA");
     }
 
+    @Test
+    public void testLoadStoreParameter() throws Exception {
+        ReloadablePemKeyStoreConfig config = new ReloadablePemKeyStoreConfig()
+                .addCertificate("server", new String[] {
+                        "src/test/resources/certchain.pem",
+                        "src/test/resources/key.pem"
+                });
+        KeyStore ks = KeyStore.getInstance("simplepemreload");
+        ks.load(config);
+
+        // the key store works on a copy
+        config.getCertificates().get("server")[1] = "src/test/resources/missing.pem";
+        config.addCertificate("other", new String[] { "src/test/resources/selfcert.pem" });
+
+        assertThat(ks.getCertificateChain("server")).hasSize(2);
+        assertThat(ks.getKey("server", new char[0]).getAlgorithm()).isEqualTo("RSA");
+        assertThat(ks.containsAlias("other")).isFalse();
+    }
+
     @Test
     public void testSetupSSLContext() throws Exception {
         KeyStore ks = getKeyStore();
@@ -120,4 +147,60 @@ public class SimplePemReloadKeyStoreProviderIntegrationTest extends HttpsBaseFun
         assertThat(((X509Certificate)cert_r2[0]).getSubjectX500Principal().getName()).isEqualTo("CN=self.signed.cert,O=Radical Research,ST=NA,C=IO");
     }
 
+    @Test
+    public void testSnapshot() throws Exception {
+        Path dir = Files.createTempDirectory("test-snapshot");
+        Path snapshot = dir.resolve("snapshot.bin");
+        Path certFile = dir.resolve("cert.pem");
+        Path keyFile = dir.resolve("key.pem");
+        Files.copy(Paths.get("src/test/resources/certchain.pem"), certFile);
+        Files.copy(Paths.get("src/test/resources/key.pem"), keyFile);
+        try {
+            ReloadablePemKeyStoreConfig config = new ReloadablePemKeyStoreConfig()
+                    .addCertificate("server", new String[] { certFile.toString(), keyFile.toString() })
+                    .withSnapshotFile(snapshot.toString());
+
+            KeyStore ks = KeyStore.getInstance("simplepemreload");
+            ks.load(config.asInputStream(), new char[0]);
+            Certificate[] chain = ks.getCertificateChain("server");
+            Key key = ks.getKey("server", new char[0]);
+            Date creationDate = ks.getCreationDate("server");
+            // restart: the engine is stopped with its last key store, and writes the pending snapshot
+            ks.load(null);
+            assertThat(snapshot).exists();
+
+            // the key is overwritten with garbage of the same size and time, which only the snapshot can provide
+            FileTime time = Files.getLastModifiedTime(keyFile);
+            byte[] garbage = new byte[(int) Files.size(keyFile)];
+            Arrays.fill(garbage, (byte) 'x');
+            Files.write(keyFile, garbage);
+            Files.setLastModifiedTime(keyFile, time);
+
+            BasicPemKeyStoreMetrics metrics = new BasicPemKeyStoreMetrics();
+            KeyStore ks2 = KeyStore.getInstance("simplepemreload");
+            ks2.load(config.copy().withMetrics(metrics));
+            assertThat(metrics.getParsedBytes()).isEqualTo(0);
+
+            assertThat(ks2.getCertificateChain("server")).containsExactly(chain);
+            assertThat(ks2.getKey("server", new char[0])).isEqualTo(key);
+            assertThat(ks2.getCreationDate("server")).isEqualTo(creationDate);
+
+            // snapshot can be loaded by the simple key store as well
+            KeyStore ks3 = KeyStore.getInstance("simplepem");
+            ks3.load(Files.newInputStream(snapshot), new char[0]);
+            assertThat(ks3.getCertificateChain("server")).containsExactly(chain);
+            ks2.load(null);
+
+            // without the snapshot the garbage is parsed
+            Files.delete(snapshot);
+            KeyStore ks4 = KeyStore.getInstance("simplepemreload");
+            assertThatThrownBy(() -> ks4.load(config.copy())).isInstanceOf(CertificateException.class);
+        }
+        finally {
+            for (Path file : new Path[] { snapshot, certFile, keyFile, dir }) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
 }
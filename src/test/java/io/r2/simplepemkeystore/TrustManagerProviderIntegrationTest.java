@@ -0,0 +1,186 @@
+package io.r2.simplepemkeystore;
+
+import io.r2.simplepemkeystore.spi.ExpiringCacheTrustManager;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Tests if registering as a provider works and trust manager is operational
+ */
+public class TrustManagerProviderIntegrationTest {
+
+    @BeforeClass
+    public void registerProvider() throws Exception {
+        SimplePemKeyStoreProvider.register();
+    }
+
+    protected X509Certificate readCertificate(String fileName) throws Exception {
+        try (InputStream in = new FileInputStream(fileName)) {
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in);
+        }
+    }
+
+    protected X509TrustManager getTrustManager() throws Exception {
+        KeyStore ks = KeyStore.getInstance("simplepem");
+        ks.load(new MultiFileConcatSource()
+                        .alias("ca")
+                        .add("src/test/resources/ca-cert.pem")
+                        .alias("ca-crl")
+                        .add("src/test/resources/ca-crl.pem")
+                        .alias("server")
+                        .add("src/test/resources/certchain.pem")
+                        .add("src/test/resources/key.pem")
+                        .build(),
+                new char[0]
+        );
+
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance("simplepemreload");
+        tmf.init( ExpiringCacheTrustManagerParameters.forKeyStore(ks).withRevalidation(5) );
+
+        TrustManager[] tm = tmf.getTrustManagers();
+        assertThat(tm).hasSize(1);
+        assertThat(tm[0]).isInstanceOf(X509TrustManager.class);
+        return (X509TrustManager) tm[0];
+    }
+
+    /**
+     * Trust manager with the test CA as the only anchor and one revocation list
+     */
+    protected X509TrustManager getTrustManager(String crlFile) throws Exception {
+        KeyStore ks = KeyStore.getInstance("simplepem");
+        ks.load(new MultiFileConcatSource()
+                        .alias("ca")
+                        .add("src/test/resources/ca-cert.pem")
+                        .alias("crl")
+                        .add(crlFile)
+                        .build(),
+                new char[0]
+        );
+
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance("simplepemreload");
+        tmf.init( ExpiringCacheTrustManagerParameters.forKeyStore(ks).withRevalidation(5) );
+        return (X509TrustManager) tmf.getTrustManagers()[0];
+    }
+
+    @Test
+    public void testAcceptedIssuers() throws Exception {
+        X509TrustManager tm = getTrustManager();
+        // key entries are not used as anchors
+        assertThat(tm.getAcceptedIssuers()).containsExactly(readCertificate("src/test/resources/ca-cert.pem"));
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        X509TrustManager tm = getTrustManager();
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            // platform threads only, virtual threads are not listed
+            if (t.getName().equals("simplepemreload-trustmanager")) assertThat(t.isDaemon()).isTrue();
+        }
+        ((ExpiringCacheTrustManager) tm).close();
+        // still validates with the anchors it has
+        X509Certificate client = readCertificate("src/test/resources/client-cert.pem");
+        tm.checkClientTrusted(new X509Certificate[] { client }, "RSA");
+    }
+
+    @Test
+    public void testTrustedChain() throws Exception {
+        X509TrustManager tm = getTrustManager();
+        X509Certificate client = readCertificate("src/test/resources/client-cert.pem");
+        X509Certificate ca = readCertificate("src/test/resources/ca-cert.pem");
+
+        tm.checkClientTrusted(new X509Certificate[] { client }, "RSA");
+        tm.checkClientTrusted(new X509Certificate[] { client, ca }, "RSA");
+        tm.checkServerTrusted(new X509Certificate[] { client }, "RSA");
+    }
+
+    @Test
+    public void testCrlEntry() throws Exception {
+        KeyStore ks = KeyStore.getInstance("simplepem");
+        ks.load(new MultiFileConcatSource()
+                        .alias("ca-crl")
+                        .add("src/test/resources/ca-crl.pem")
+                        .build(),
+                new char[0]
+        );
+        assertThat(ks.entryInstanceOf("ca-crl", CrlEntry.class)).isTrue();
+        assertThat(ks.isCertificateEntry("ca-crl")).isFalse();
+        assertThat(ks.isKeyEntry("ca-crl")).isFalse();
+
+        CrlEntry entry = (CrlEntry) ks.getEntry("ca-crl", null);
+        assertThat(entry.getCrls()).hasSize(1);
+        assertThat(entry.getCrls().get(0).getIssuerX500Principal().getName()).isEqualTo("C=IO,O=Radical Research,CN=Simple PEM Test CA");
+    }
+
+    @Test
+    public void testRevokedChain() throws Exception {
+        X509TrustManager tm = getTrustManager();
+        X509Certificate revoked = readCertificate("src/test/resources/revoked-cert.pem");
+
+        assertThatThrownBy(() -> tm.checkClientTrusted(new X509Certificate[] { revoked }, "RSA"))
+                .isInstanceOf(CertificateException.class)
+                .hasMessageContaining("revoked");
+    }
+
+    @Test
+    public void testUntrustedChain() throws Exception {
+        X509TrustManager tm = getTrustManager();
+        X509Certificate self = readCertificate("src/test/resources/selfcert.pem");
+
+        assertThatThrownBy(() -> tm.checkClientTrusted(new X509Certificate[] { self }, "RSA"))
+                .isInstanceOf(CertificateException.class);
+    }
+
+    @Test
+    public void testIntermediateCrl() throws Exception {
+        X509Certificate[] chain = new X509Certificate[] {
+                readCertificate("src/test/resources/intermediate-client-cert.pem"),
+                readCertificate("src/test/resources/intermediate-cert.pem")
+        };
+
+        X509TrustManager tm = getTrustManager("src/test/resources/intermediate-crl.pem");
+        assertThatThrownBy(() -> tm.checkClientTrusted(chain, "RSA"))
+                .isInstanceOf(CertificateException.class)
+                .hasMessageContaining("revoked");
+    }
+
+    @Test
+    public void testForgedCrlIgnored() throws Exception {
+        X509Certificate[] chain = new X509Certificate[] {
+                readCertificate("src/test/resources/intermediate-client-cert.pem"),
+                readCertificate("src/test/resources/intermediate-cert.pem")
+        };
+
+        // same issuer name and serials as intermediate-crl.pem, signed by another key
+        X509TrustManager tm = getTrustManager("src/test/resources/intermediate-forged-crl.pem");
+        tm.checkClientTrusted(chain, "RSA");
+    }
+
+    @Test
+    public void testStaleCrl() throws Exception {
+        X509TrustManager tm = getTrustManager("src/test/resources/stale-crl.pem");
+        X509Certificate client = readCertificate("src/test/resources/client-cert.pem");
+        X509Certificate revoked = readCertificate("src/test/resources/revoked-cert.pem");
+
+        // a stale CRL does not prove the certificate is good
+        assertThatThrownBy(() -> tm.checkClientTrusted(new X509Certificate[] { client }, "RSA"))
+                .isInstanceOf(CertificateException.class)
+                .hasMessageContaining("stale");
+        // but what it lists stays revoked
+        assertThatThrownBy(() -> tm.checkClientTrusted(new X509Certificate[] { revoked }, "RSA"))
+                .isInstanceOf(CertificateException.class)
+                .hasMessageContaining("revoked");
+    }
+
+}
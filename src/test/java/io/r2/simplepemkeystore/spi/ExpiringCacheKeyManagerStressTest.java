@@ -0,0 +1,171 @@
+package io.r2.simplepemkeystore.spi;
+
+import io.r2.simplepemkeystore.ExpiringCacheKeyManagerParameters;
+import io.r2.simplepemkeystore.ReloadablePemKeyStoreConfig;
+import io.r2.simplepemkeystore.SimplePemKeyStoreProvider;
+import org.testng.Reporter;
+import org.testng.SkipException;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Rotates the certificate file of a reloadable key store while many threads select aliases and fetch
+ * keys and chains from the key manager. Every observed (key, chain) pair must match, even when the alias is rotated
+ * between the two calls, and every rotation must become visible before the next one.
+ */
+public class ExpiringCacheKeyManagerStressTest {
+
+    private static final String[][] PAIRS = {
+            { "src/test/resources/certchain.pem", "src/test/resources/key.pem" },
+            { "src/test/resources/selfcert.pem", "src/test/resources/selfkey.pem" },
+            { "src/test/resources/client-cert.pem", "src/test/resources/client-key.pem" }
+    };
+
+    private static final int READERS = 8;
+    private static final int ROTATIONS = 6;
+    private static final long ROTATION_INTERVAL_MS = 8000;
+
+    /** the last rotation, written by the rotating thread */
+    private static class Rotation {
+        final String subject;
+        final long writtenAt;
+        final AtomicBoolean observed = new AtomicBoolean();
+
+        Rotation(String subject, long writtenAt) {
+            this.subject = subject;
+            this.writtenAt = writtenAt;
+        }
+    }
+
+    private volatile Rotation current;
+
+    @BeforeClass
+    public void registerProvider() throws Exception {
+        Security.addProvider(new SimplePemKeyStoreProvider());
+    }
+
+    private static String subject(String certFile) throws Exception {
+        try (InputStream in = new FileInputStream(certFile)) {
+            return ((X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in))
+                    .getSubjectX500Principal().getName();
+        }
+    }
+
+    /**
+     * Replaces the file with the concatenation of a certificate and key pair, atomically
+     */
+    private static void writePair(Path file, String[] pair) throws Exception {
+        Path tmp = Files.createTempFile(file.getParent(), "rotate", ".tmp");
+        Files.write(tmp, Files.readAllBytes(Paths.get(pair[0])));
+        Files.write(tmp, Files.readAllBytes(Paths.get(pair[1])), StandardOpenOption.APPEND);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Test
+    public void testReloadUnderLoad() throws Exception {
+        if ("true".equals(System.getProperty("io.r2.skipLongTests"))) throw new SkipException("Long test skipped");
+
+        Path dir = Files.createTempDirectory("stress");
+        Path pem = dir.resolve("server.pem");
+        writePair(pem, PAIRS[0]);
+        current = new Rotation(subject(PAIRS[0][0]), System.nanoTime());
+
+        KeyStore ks = KeyStore.getInstance("simplepemreload");
+        ks.load(new ReloadablePemKeyStoreConfig()
+                        .addCertificate("server", new String[] { pem.toString() })
+                        .withRefreshInterval(ReloadablePemKeyStoreConfig.MIN_REFRESH_INTERVAL)
+                        .asInputStream(),
+                new char[0]);
+        // constructed directly, the factory does not allow revalidation under 5 seconds
+        ExpiringCacheKeyManager km = new ExpiringCacheKeyManager(
+                ExpiringCacheKeyManagerParameters.forKeyStore(ks, new char[0]).withRevalidation(1));
+
+        AtomicBoolean stop = new AtomicBoolean();
+        LongAdder operations = new LongAdder();
+        AtomicLong torn = new AtomicLong();
+        AtomicLong maxStaleness = new AtomicLong();
+        AtomicLong observedRotations = new AtomicLong();
+        Queue<String> failures = new ConcurrentLinkedQueue<>();
+
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            Thread t = new Thread(() -> {
+                while (!stop.get()) {
+                    String alias = km.chooseServerAlias("RSA", null, null);
+                    PrivateKey key = km.getPrivateKey(alias);
+                    X509Certificate[] chain = km.getCertificateChain(alias);
+                    long now = System.nanoTime();
+                    if (key == null || chain == null) {
+                        failures.add("missing credentials for alias " + alias);
+                        continue;
+                    }
+                    if (!((RSAPublicKey) chain[0].getPublicKey()).getModulus().equals(((RSAPrivateKey) key).getModulus())) {
+                        torn.incrementAndGet();
+                    }
+                    operations.increment();
+
+                    Rotation r = current;
+                    if (chain[0].getSubjectX500Principal().getName().equals(r.subject) && r.observed.compareAndSet(false, true)) {
+                        observedRotations.incrementAndGet();
+                        maxStaleness.accumulateAndGet(now - r.writtenAt, Math::max);
+                    }
+                }
+            }, "stress-reader-" + i);
+            t.start();
+            readers.add(t);
+        }
+
+        long start = System.nanoTime();
+        try {
+            for (int i = 1; i <= ROTATIONS; i++) {
+                Thread.sleep(ROTATION_INTERVAL_MS);
+                String[] pair = PAIRS[i % PAIRS.length];
+                current = new Rotation(subject(pair[0]), System.nanoTime());
+                writePair(pem, pair);
+            }
+            Thread.sleep(ROTATION_INTERVAL_MS);
+        }
+        finally {
+            stop.set(true);
+            for (Thread t : readers) t.join();
+            Files.deleteIfExists(pem);
+            Files.deleteIfExists(dir);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Reporter.log(String.format("reload stress: %d readers, %.0f ops/s, max staleness %d ms, %d torn pairs, %d/%d rotations observed",
+                READERS, operations.sum() / seconds, maxStaleness.get() / 1_000_000, torn.get(),
+                observedRotations.get(), ROTATIONS + 1), true);
+
+        assertThat(failures).isEmpty();
+        assertThat(torn.get()).isZero();
+        // the initial state counts as the first rotation
+        assertThat(observedRotations.get()).isEqualTo(ROTATIONS + 1);
+        assertThat(maxStaleness.get() / 1_000_000).isLessThan(ROTATION_INTERVAL_MS);
+    }
+
+}
@@ -0,0 +1,76 @@
+package io.r2.simplepemkeystore.spi;
+
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Tests for the cache of decoded PEM files
+ */
+public class PemFileCacheTest {
+
+    @Test
+    public void testSharedFileDecodedOnce() throws Exception {
+        PemFileCache cache = new PemFileCache(false);
+        String chain = "src/test/resources/certchain.pem";
+        String key = "src/test/resources/key.pem";
+
+        PemFileCache.Cycle cycle = cache.newCycle();
+        assertThat(cycle.load(new String[] { chain, key }).getParsedBytes()).isGreaterThan(0);
+        // unchanged files come from the cache, in later cycles as well
+        assertThat(cycle.load(new String[] { chain, key }).getParsedBytes()).isEqualTo(0);
+        assertThat(cache.newCycle().load(new String[] { chain, key }).getParsedBytes()).isEqualTo(0);
+    }
+
+    @Test
+    public void testPrune() throws Exception {
+        PemFileCache cache = new PemFileCache(false);
+        String[] first = { "src/test/resources/certchain.pem", "src/test/resources/key.pem" };
+        String[] second = { "src/test/resources/selfcert.pem", "src/test/resources/selfkey.pem" };
+        long secondSize = Files.size(Paths.get(second[0])) + Files.size(Paths.get(second[1]));
+
+        PemFileCache.Cycle cycle = cache.newCycle();
+        cycle.load(first);
+        cycle.load(second);
+
+        // a full cycle which only visits the first alias, eg. after the second was removed from the files
+        PemFileCache.Cycle next = cache.newCycle();
+        assertThat(next.load(first).getParsedBytes()).isEqualTo(0);
+        cache.prune(next);
+
+        PemFileCache.Cycle last = cache.newCycle();
+        assertThat(last.load(first).getParsedBytes()).isEqualTo(0);
+        assertThat(last.load(second).getParsedBytes()).isEqualTo(secondSize);
+    }
+
+    @Test
+    public void testMissingFilePruned() throws Exception {
+        PemFileCache cache = new PemFileCache(true);
+        Path dir = Files.createTempDirectory("file-cache");
+        Path pem = dir.resolve("server.pem");
+        Files.copy(Paths.get("src/test/resources/selfcert.pem"), pem);
+        try {
+            String[] files = { pem.toString(), "src/test/resources/selfkey.pem" };
+            cache.newCycle().load(files);
+
+            // a cycle failing to stat the file does not visit it
+            Files.delete(pem);
+            PemFileCache.Cycle cycle = cache.newCycle();
+            assertThatThrownBy(() -> cycle.stat(files)).isInstanceOf(NoSuchFileException.class);
+            cache.prune(cycle);
+
+            Files.copy(Paths.get("src/test/resources/selfcert.pem"), pem);
+            assertThat(cache.newCycle().load(files).getParsedBytes())
+                    .isEqualTo(Files.size(pem) + Files.size(Paths.get(files[1])));
+        }
+        finally {
+            Files.deleteIfExists(pem);
+            Files.deleteIfExists(dir);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package io.r2.simplepemkeystore.spi;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.testng.annotations.Test;
+
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests flight recorder events (the test classpath contains the Java 11 layer)
+ */
+public class PemKeyStoreEventsTest {
+
+    @Test
+    public void testParseEvent() throws Exception {
+        Path file = Files.createTempFile("events", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("io.r2.simplepemkeystore.Parse");
+            recording.start();
+            PemStreamParser.parseCertificateList(new FileInputStream("src/test/resources/certchain.pem"));
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                    .filter(e -> e.getEventType().getName().equals("io.r2.simplepemkeystore.Parse"))
+                    .collect(Collectors.toList());
+            assertThat(events).hasSize(1);
+            assertThat(events.get(0).getInt("chunks")).isGreaterThan(0);
+            assertThat(events.get(0).getLong("bytes")).isGreaterThan(0);
+        }
+        finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+package io.r2.simplepemkeystore.spi;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Tests for the reload dispatcher, with the threads of the layer on the classpath
+ * (platform threads with the Java 9 classes, virtual threads with the Java 21 classes)
+ */
+public class ReloadDispatcherTest {
+
+    private static List<String> aliases(int count) {
+        List<String> ret = new ArrayList<>();
+        for (int i = 0; i < count; i++) ret.add("a" + i);
+        return ret;
+    }
+
+    @Test
+    public void testRunAllConcurrency() throws Exception {
+        ReloadDispatcher dispatcher = new ReloadDispatcher("test", 2, alias -> { });
+        try {
+            int count = 200;
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            // with virtual threads every alias runs at once, and they all pass the latch together
+            CountDownLatch all = new CountDownLatch(count);
+            Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+            RuntimeException failure = dispatcher.runAll(aliases(count), alias -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                threads.add(Thread.currentThread());
+                all.countDown();
+                try {
+                    all.await(BackgroundThreads.isVirtual() ? 30 : 0, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                running.decrementAndGet();
+            });
+
+            assertThat(failure).isNull();
+            assertThat(all.getCount()).isEqualTo(0);
+            if (BackgroundThreads.isVirtual()) {
+                assertThat(maxRunning.get()).isEqualTo(count);
+            }
+            else {
+                // two workers and the calling thread
+                assertThat(maxRunning.get()).isLessThanOrEqualTo(3);
+                assertThat(threads).hasSizeLessThanOrEqualTo(3);
+            }
+            threads.remove(Thread.currentThread());
+            assertThat(threads).allMatch(Thread::isDaemon);
+        }
+        finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testScheduledCheck() throws Exception {
+        CountDownLatch checked = new CountDownLatch(1);
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        ReloadDispatcher dispatcher = new ReloadDispatcher("test", 1, alias -> {
+            threads.add(Thread.currentThread());
+            checked.countDown();
+        });
+        try {
+            dispatcher.schedule("a", System.currentTimeMillis() + 10);
+            assertThat(dispatcher.getScheduled("a")).isNotNull();
+            assertThat(checked.await(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(dispatcher.getScheduled("a")).isNull();
+            assertThat(threads).hasSize(1).allMatch(Thread::isDaemon);
+            assertThat(threads.iterator().next().getName()).startsWith("test-").contains("-worker-");
+        }
+        finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testSchedulerThread() throws Exception {
+        ScheduledExecutorService scheduler = BackgroundThreads.scheduler("test-scheduler");
+        try {
+            Thread thread = scheduler.schedule(Thread::currentThread, 10, TimeUnit.MILLISECONDS).get(10, TimeUnit.SECONDS);
+            // never keeps the JVM alive
+            assertThat(thread.isDaemon()).isTrue();
+            assertThat(thread.getName()).isEqualTo("test-scheduler");
+        }
+        finally {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package io.r2.simplepemkeystore.spi;
+
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.CertificateException;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Tests for the manifest parsing of the reload engine
+ */
+public class ReloadEngineTest {
+
+    private static Path manifest(String contents) throws Exception {
+        Path file = Files.createTempFile("manifest", ".txt");
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void testReadManifest() throws Exception {
+        Path file = manifest("# comment\ngeneration: 7\nServer-A: ABC\n\nserver-b: def\n");
+        try {
+            ReloadEngine.Manifest manifest = ReloadEngine.readManifest(file);
+            assertThat(manifest.generation).isEqualTo(7);
+            assertThat(manifest.hashes).containsOnlyKeys("server-a", "server-b");
+            assertThat(manifest.hashes.get("server-a")).isEqualTo("ABC");
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testDuplicateAliasRejected() throws Exception {
+        for (String contents : new String[] {
+                "generation: 1\nserver: abc\nServer: def\n",
+                "generation: 1\nserver: abc\nserver: abc\n",
+                "generation: 1\nGENERATION: 2\n" }) {
+            Path file = manifest(contents);
+            try {
+                assertThatThrownBy(() -> ReloadEngine.readManifest(file))
+                        .isInstanceOf(CertificateException.class)
+                        .hasMessageContaining("Duplicate alias in manifest");
+            }
+            finally {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testMissingGeneration() throws Exception {
+        Path file = manifest("server: abc\n");
+        try {
+            assertThatThrownBy(() -> ReloadEngine.readManifest(file))
+                    .isInstanceOf(CertificateException.class)
+                    .hasMessageContaining("Missing generation");
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package io.r2.simplepemkeystore.spi;
+
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Tests for the debounced snapshot writer
+ */
+public class SnapshotWriterTest {
+
+    @Test
+    public void testRequestsCoalesced() throws Exception {
+        Path dir = Files.createTempDirectory("snapshot-writer");
+        Path file = dir.resolve("snapshot.bin");
+        AtomicInteger copies = new AtomicInteger();
+        SnapshotWriter writer = new SnapshotWriter(file, () -> {
+            copies.incrementAndGet();
+            return Collections.<PemCertKey>emptyList();
+        }, 200);
+        try {
+            // a burst of changes, written once after the delay
+            for (int i = 0; i < 100; i++) writer.request();
+            assertThat(copies.get()).isEqualTo(0);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (copies.get() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            Thread.sleep(400);
+            assertThat(copies.get()).isEqualTo(1);
+            assertThat(file).exists();
+            List<PemCertKey> entries = PemKeyStoreSnapshot.readFile(file);
+            assertThat(entries).isEmpty();
+
+            // closing writes the pending request without waiting for the delay
+            writer.request();
+            writer.close();
+            assertThat(copies.get()).isEqualTo(2);
+
+            // ignored after close
+            writer.request();
+            Thread.sleep(400);
+            assertThat(copies.get()).isEqualTo(2);
+        }
+        finally {
+            writer.close();
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testCloseWithoutRequest() throws Exception {
+        Path file = Files.createTempDirectory("snapshot-writer").resolve("snapshot.bin");
+        AtomicInteger copies = new AtomicInteger();
+        SnapshotWriter writer = new SnapshotWriter(file, () -> {
+            copies.incrementAndGet();
+            return Collections.<PemCertKey>emptyList();
+        }, 200);
+        writer.close();
+        assertThat(copies.get()).isEqualTo(0);
+        assertThat(file).doesNotExist();
+        Files.delete(file.getParent());
+    }
+}
@@ -0,0 +1,106 @@
+package io.r2.simplepemkeystore.spi;
+
+import org.testng.annotations.Test;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Tests for the validated chain cache
+ */
+public class ValidatedChainCacheTest {
+
+    private X509Certificate[] readChain(String fileName) throws Exception {
+        try (InputStream in = new FileInputStream(fileName)) {
+            return CertificateFactory.getInstance("X.509").generateCertificates(in).toArray(new X509Certificate[0]);
+        }
+    }
+
+    @Test
+    public void testGeneration() throws Exception {
+        X509Certificate[] chain = readChain("src/test/resources/client-cert.pem");
+        ValidatedChainCache cache = new ValidatedChainCache(10);
+
+        cache.put(ValidatedChainCache.key(chain, 1), chain);
+        assertThat(cache.contains(ValidatedChainCache.key(chain, 1), System.currentTimeMillis())).isTrue();
+        assertThat(cache.contains(ValidatedChainCache.key(chain, 2), System.currentTimeMillis())).isFalse();
+
+        cache.clear();
+        assertThat(cache.contains(ValidatedChainCache.key(chain, 1), System.currentTimeMillis())).isFalse();
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        X509Certificate[] chain = readChain("src/test/resources/certchain.pem");
+        ValidatedChainCache cache = new ValidatedChainCache(10);
+
+        cache.put(ValidatedChainCache.key(chain, 1), chain);
+        // expires at the earliest notAfter in the chain (the leaf)
+        long notAfter = chain[0].getNotAfter().getTime();
+        assertThat(cache.contains(ValidatedChainCache.key(chain, 1), notAfter - 1)).isTrue();
+        assertThat(cache.contains(ValidatedChainCache.key(chain, 1), notAfter)).isFalse();
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        X509Certificate[] chain = readChain("src/test/resources/client-cert.pem");
+        ValidatedChainCache cache = new ValidatedChainCache(2);
+
+        cache.put(ValidatedChainCache.key(chain, 1), chain);
+        cache.put(ValidatedChainCache.key(chain, 2), chain);
+        cache.put(ValidatedChainCache.key(chain, 3), chain);
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.contains(ValidatedChainCache.key(chain, 1), System.currentTimeMillis())).isFalse();
+        assertThat(cache.contains(ValidatedChainCache.key(chain, 3), System.currentTimeMillis())).isTrue();
+    }
+
+    @Test
+    public void testRecentlyUsedKept() throws Exception {
+        X509Certificate[] chain = readChain("src/test/resources/client-cert.pem");
+        ValidatedChainCache cache = new ValidatedChainCache(2);
+
+        cache.put(ValidatedChainCache.key(chain, 1), chain);
+        cache.put(ValidatedChainCache.key(chain, 2), chain);
+        Thread.sleep(5);
+        assertThat(cache.contains(ValidatedChainCache.key(chain, 1), System.currentTimeMillis())).isTrue();
+        cache.put(ValidatedChainCache.key(chain, 3), chain);
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.contains(ValidatedChainCache.key(chain, 1), System.currentTimeMillis())).isTrue();
+        assertThat(cache.contains(ValidatedChainCache.key(chain, 2), System.currentTimeMillis())).isFalse();
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        X509Certificate[] chain = readChain("src/test/resources/client-cert.pem");
+        ValidatedChainCache cache = new ValidatedChainCache(100);
+        ValidatedChainCache.ChainKey[] keys = new ValidatedChainCache.ChainKey[1000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ValidatedChainCache.key(chain, i);
+        }
+
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            int offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    ValidatedChainCache.ChainKey key = keys[(i * 7 + offset) % keys.length];
+                    if (!cache.contains(key, System.currentTimeMillis())) cache.put(key, chain);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // eviction is approximate, other threads may add while one evicts
+        assertThat(cache.size()).isBetween(1, 100 + threads.length);
+    }
+
+}